@@ -0,0 +1,83 @@
+package com.flatironschool.javacs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.Elements;
+
+
+/**
+ * Loads the pages bundled in src/resources for the benchmarks, so they
+ * never touch the network.
+ *
+ */
+public class BenchmarkPages {
+
+	/**
+	 * Names of the bundled pages, as they appear after /wiki/.
+	 */
+	public static final String[] NAMES = {"Awareness", "Computer_science",
+		"Concurrent_computing", "Consciousness", "Java_(programming_language)",
+		"Knowledge", "Mathematics", "Modern_philosophy", "Philosophy",
+		"Programming_language", "Property_(philosophy)", "Quality_(philosophy)",
+		"Science"};
+
+	private BenchmarkPages() {
+	}
+
+	/**
+	 * Returns the URL of a bundled page.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public static String url(String name) {
+		return "https://en.wikipedia.org/wiki/" + name;
+	}
+
+	/**
+	 * Reads the paragraphs of a bundled page.
+	 *
+	 * @param name
+	 * @return
+	 * @throws IOException
+	 */
+	public static Elements paragraphs(String name) throws IOException {
+		return new WikiFetcher().readWikipedia(url(name));
+	}
+
+	/**
+	 * Reads the paragraphs of every bundled page.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public static List<Elements> allParagraphs() throws IOException {
+		List<Elements> pages = new ArrayList<Elements>();
+		for (String name: NAMES) {
+			pages.add(paragraphs(name));
+		}
+		return pages;
+	}
+
+	/**
+	 * Returns the text of some paragraphs, the way TermCounter sees it.
+	 *
+	 * @param paragraphs
+	 * @return
+	 */
+	public static String text(Elements paragraphs) {
+		StringBuilder sb = new StringBuilder();
+		for (Node paragraph: paragraphs) {
+			for (Node node: new WikiNodeIterable(paragraph)) {
+				if (node instanceof TextNode) {
+					sb.append(((TextNode) node).getWholeText()).append(' ');
+				}
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,75 @@
+package com.flatironschool.javacs;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import redis.clients.jedis.Jedis;
+
+
+/**
+ * Measures pushing a counted page to a local Redis.
+ *
+ * Needs a Redis server on localhost (see the redis.host and redis.port
+ * properties of the bench target).  It writes to database 15 and
+ * flushes it before and after, so don't point it at a database you care
+ * about.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexPushBenchmark {
+
+	private static final int DATABASE = 15;
+
+	@Param({"Java_(programming_language)", "Awareness"})
+	public String page;
+
+	private Jedis jedis;
+	private JedisIndex index;
+	private TermCounter counter;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		String host = System.getProperty("redis.host", "localhost");
+		int port = Integer.getInteger("redis.port", 6379);
+		jedis = new Jedis(host, port);
+		jedis.select(DATABASE);
+		jedis.flushDB();
+		index = new JedisIndex(jedis);
+
+		// the same page is pushed over and over; each push replaces the last
+		counter = new TermCounter(BenchmarkPages.url(page));
+		counter.processElements(BenchmarkPages.paragraphs(page));
+		counter.seal();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		jedis.flushDB();
+		jedis.close();
+	}
+
+	@Benchmark
+	public List<Object> pushTermCounterToRedis() {
+		return index.pushTermCounterToRedis(counter);
+	}
+}
@@ -0,0 +1,73 @@
+package com.flatironschool.javacs;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.select.Elements;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Measures counting the terms on a page: the analyzer alone on the page
+ * text, and the whole DOM walk with processElements.
+ *
+ * The paragraph threshold is a parameter so the sequential and fork/join
+ * paths can be compared on the same page.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TermCounterBenchmark {
+
+	@Param({"Java_(programming_language)", "Philosophy", "Awareness"})
+	public String page;
+
+	// Integer.MAX_VALUE means always sequential
+	@Param({"2147483647", "64"})
+	public int parallelThreshold;
+
+	private Elements paragraphs;
+	private String text;
+
+	@Setup
+	public void setUp() throws IOException {
+		paragraphs = BenchmarkPages.paragraphs(page);
+		text = BenchmarkPages.text(paragraphs);
+		TermCounter.setParallelThreshold(parallelThreshold);
+	}
+
+	@Benchmark
+	public TermCounter processText() {
+		TermCounter counter = new TermCounter(page);
+		counter.processText(text);
+		return counter;
+	}
+
+	@Benchmark
+	public TermCounter processElements() {
+		TermCounter counter = new TermCounter(page);
+		counter.processElements(paragraphs);
+		return counter;
+	}
+
+	@Benchmark
+	public TermFrequencies processAndSeal() {
+		TermCounter counter = new TermCounter(page);
+		counter.processElements(paragraphs);
+		return counter.seal();
+	}
+}
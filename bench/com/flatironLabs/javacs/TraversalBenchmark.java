@@ -0,0 +1,68 @@
+package com.flatironschool.javacs;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.nodes.Node;
+import org.jsoup.select.Elements;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Measures walking the DOM of every bundled page, with the Iterator and
+ * with a Visitor.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TraversalBenchmark {
+
+	private List<Elements> pages;
+
+	@Setup
+	public void setUp() throws IOException {
+		pages = BenchmarkPages.allParagraphs();
+	}
+
+	@Benchmark
+	public void iterator(Blackhole bh) {
+		for (Elements paragraphs: pages) {
+			for (Node paragraph: paragraphs) {
+				for (Node node: new WikiNodeIterable(paragraph)) {
+					bh.consume(node);
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public void visitor(final Blackhole bh) {
+		WikiNodeIterable.Visitor visitor = new WikiNodeIterable.Visitor() {
+			@Override
+			public boolean visit(Node node) {
+				bh.consume(node);
+				return true;
+			}
+		};
+		for (Elements paragraphs: pages) {
+			for (Node paragraph: paragraphs) {
+				WikiNodeIterable.traverse(paragraph, visitor);
+			}
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package com.flatironschool.javacs;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Measures combining and sorting search results.
+ *
+ * Each operand has `size` URLs drawn from a pool of 4 * size, so about a
+ * quarter of each operand is in the other one, roughly what two common
+ * terms look like.  Relevances are in the range of real term frequencies.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WikiSearchBenchmark {
+
+	@Param({"100", "1000", "10000"})
+	public int size;
+
+	private WikiSearch left;
+	private WikiSearch right;
+	private StaticRank ranks;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		left = new WikiSearch(results(size, random));
+		right = new WikiSearch(results(size, random));
+
+		Map<String, Double> rankMap = new HashMap<String, Double>();
+		for (int i=0; i<4*size; i++) {
+			rankMap.put(url(i), random.nextDouble());
+		}
+		ranks = new StaticRank(rankMap);
+	}
+
+	private static Map<String, Double> results(int size, Random random) {
+		Map<String, Double> map = new HashMap<String, Double>();
+		while (map.size() < size) {
+			map.put(url(random.nextInt(4 * size)), random.nextDouble() * 0.01);
+		}
+		return map;
+	}
+
+	private static String url(int i) {
+		return "https://en.wikipedia.org/wiki/Page_" + i;
+	}
+
+	@Benchmark
+	public WikiSearch and() {
+		return left.and(right);
+	}
+
+	@Benchmark
+	public WikiSearch or() {
+		return left.or(right);
+	}
+
+	@Benchmark
+	public WikiSearch minus() {
+		return left.minus(right);
+	}
+
+	@Benchmark
+	public List<Entry<String, Double>> sort() {
+		return left.sort();
+	}
+
+	@Benchmark
+	public List<Entry<String, Double>> topK() {
+		return left.topK(10, ranks, 0.05);
+	}
+}
@@ -0,0 +1,154 @@
+package com.flatironschool.javacs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Turns text into terms: splits it into words, lower cases them, and runs
+ * them through a chain of TokenFilters.
+ *
+ * The scanner makes one pass over the text and builds each word directly
+ * in a reusable Token, so it makes no Strings, arrays or regex matchers.
+ * Words are separated by whitespace and punctuation (Unicode category P),
+ * the same split TermCounter used to do with regular expressions.
+ *
+ * An Analyzer has no mutable state, so one instance can be shared by any
+ * number of threads as long as each passes its own Token.
+ *
+ */
+public class Analyzer {
+
+	/**
+	 * Receives the terms produced by an Analyzer.
+	 */
+	public interface TermSink {
+
+		/**
+		 * Called once per term.  The token is reused for the next term, so
+		 * it must be copied (e.g. with toString) if it is kept.
+		 *
+		 * @param token
+		 */
+		void term(Token token);
+	}
+
+	/**
+	 * Words that appear on almost every page.
+	 */
+	public static final String[] STOP_WORDS = {"the", "a", "and", "or", "because", "there",
+		"is", "of", "at", "with", "were", "if", "so", "then", "was", "when", "i", "you", "they"};
+
+	// used for both pages and queries, so their terms always match
+	private static final Analyzer STANDARD =
+			new Analyzer(new FoldingFilter(), new StopFilter(STOP_WORDS), new StemFilter());
+
+	// which ASCII chars are part of words
+	private static final boolean[] ASCII_WORD_CHAR = new boolean[128];
+
+	static {
+		for (char c=0; c<128; c++) {
+			ASCII_WORD_CHAR[c] = isWordCharSlow(c);
+		}
+	}
+
+	private final TokenFilter[] filters;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param filters  Applied in order to each lower-cased word.
+	 */
+	public Analyzer(TokenFilter... filters) {
+		this.filters = filters.clone();
+	}
+
+	/**
+	 * Returns the analyzer used by TermCounter and Query by default: lower
+	 * case, accents folded, no stop words, plurals stemmed.
+	 *
+	 * Changing it means the index has to be rebuilt, or migrated with
+	 * Reindexer.
+	 *
+	 * @return
+	 */
+	public static Analyzer standard() {
+		return STANDARD;
+	}
+
+	/**
+	 * Splits text into terms and passes each one to the sink.
+	 *
+	 * @param text
+	 * @param token  Scratch space; its contents are overwritten.
+	 * @param sink
+	 */
+	public void analyze(CharSequence text, Token token, TermSink sink) {
+		token.clear();
+		int n = text.length();
+		for (int i=0; i<n; i++) {
+			char c = text.charAt(i);
+			if (isWordChar(c)) {
+				token.append(Character.toLowerCase(c));
+			} else if (token.length() > 0) {
+				emit(token, sink);
+				token.clear();
+			}
+		}
+		if (token.length() > 0) {
+			emit(token, sink);
+			token.clear();
+		}
+	}
+
+	/**
+	 * Splits text into terms and returns them as Strings.
+	 *
+	 * Convenient for short text such as queries; use the TermSink version
+	 * for documents.
+	 *
+	 * @param text
+	 * @return
+	 */
+	public List<String> terms(CharSequence text) {
+		final List<String> terms = new ArrayList<String>();
+		analyze(text, new Token(), new TermSink() {
+			@Override
+			public void term(Token token) {
+				terms.add(token.toString());
+			}
+		});
+		return terms;
+	}
+
+	private void emit(Token token, TermSink sink) {
+		for (TokenFilter filter: filters) {
+			if (!filter.filter(token) || token.length() == 0) {
+				return;
+			}
+		}
+		sink.term(token);
+	}
+
+	private static boolean isWordChar(char c) {
+		return c < 128 ? ASCII_WORD_CHAR[c] : isWordCharSlow(c);
+	}
+
+	private static boolean isWordCharSlow(char c) {
+		if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+			return false;
+		}
+		switch (Character.getType(c)) {
+		case Character.CONNECTOR_PUNCTUATION:
+		case Character.DASH_PUNCTUATION:
+		case Character.START_PUNCTUATION:
+		case Character.END_PUNCTUATION:
+		case Character.INITIAL_QUOTE_PUNCTUATION:
+		case Character.FINAL_QUOTE_PUNCTUATION:
+		case Character.OTHER_PUNCTUATION:
+			return false;
+		default:
+			return true;
+		}
+	}
+}
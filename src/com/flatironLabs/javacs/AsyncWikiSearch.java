@@ -0,0 +1,358 @@
+package com.flatironschool.javacs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+/**
+ * Answers queries without blocking the caller.
+ *
+ * search() parses the query and returns a CompletableFuture right away.
+ * The terms are looked up by a small pool of threads, each with its own
+ * SearchIndex, and the query is evaluated when the last of its terms
+ * arrives, on a pool with a thread per processor.  A query holds no
+ * thread while it waits, so thousands can be in flight at once.
+ *
+ * Lookups are shared and batched: a term that is already being looked up
+ * for another query isn't looked up again, and each lookup thread takes
+ * every term waiting in the queue (up to a batch size) and fetches them
+ * with one getCounts call.  The busier the pool, the bigger the batches.
+ *
+ * A query that runs out of time fails with a TimeoutException.  Whether
+ * it times out or is cancelled, its terms that no other query is waiting
+ * for are taken out of the queue.
+ *
+ */
+public class AsyncWikiSearch implements Closeable {
+
+	private static final Metrics.Histogram QUERY_TIME = Metrics.global().timer("query.async.latency");
+	private static final Metrics.Histogram BATCH_TERMS = Metrics.global().histogram("query.async.batchTerms");
+	private static final Metrics.Counter SHARED = Metrics.global().counter("query.async.sharedLookups");
+	private static final Metrics.Counter TIMEOUTS = Metrics.global().counter("query.async.timeouts");
+
+	private final CrawlPipeline.IndexFactory factory;
+	private final int threads;
+	private final int batchSize;
+	private final long timeoutNanos;
+	private final ExecutorService lookupPool;
+	private final ExecutorService evaluatePool;
+	private final ScheduledExecutorService timer;
+
+	// each lookup thread has its own index, since a Jedis connection can't be shared
+	private final ThreadLocal<SearchIndex> indexes = new ThreadLocal<SearchIndex>();
+	private final List<SearchIndex> opened = Collections.synchronizedList(new ArrayList<SearchIndex>());
+
+	// guarded by this: lookups not yet finished, by term, and the ones not yet started
+	private final Map<String, Lookup> inFlight = new HashMap<String, Lookup>();
+	private final Deque<Lookup> queue = new ArrayDeque<Lookup>();
+	private int drainers;
+
+	/**
+	 * One term being looked up, for one or more queries.
+	 */
+	private static class Lookup {
+		final String term;
+		final CompletableFuture<Map<String, Double>> future = new CompletableFuture<Map<String, Double>>();
+		int waiters;
+		boolean started;
+
+		Lookup(String term) {
+			this.term = term;
+		}
+	}
+
+	/**
+	 * Constructor with batches of up to 64 terms and a 1 second timeout.
+	 *
+	 * @param factory  Makes the index each lookup thread uses.
+	 * @param threads  Number of lookup threads, at most one Redis connection each.
+	 */
+	public AsyncWikiSearch(CrawlPipeline.IndexFactory factory, int threads) {
+		this(factory, threads, 64, 1, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param factory    Makes the index each lookup thread uses.
+	 * @param threads    Number of lookup threads.
+	 * @param batchSize  Most terms fetched with one getCounts call.
+	 * @param timeout    Default time a query may take.
+	 * @param unit
+	 */
+	public AsyncWikiSearch(CrawlPipeline.IndexFactory factory, int threads, int batchSize,
+			long timeout, TimeUnit unit) {
+		this.factory = factory;
+		this.threads = threads;
+		this.batchSize = batchSize;
+		this.timeoutNanos = unit.toNanos(timeout);
+		this.lookupPool = Executors.newFixedThreadPool(threads, daemon("async-lookup"));
+		this.evaluatePool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+				daemon("async-evaluate"));
+		this.timer = Executors.newSingleThreadScheduledExecutor(daemon("async-timeout"));
+	}
+
+	private static ThreadFactory daemon(final String name) {
+		return r -> {
+			Thread thread = new Thread(r, name);
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Starts a query with the default timeout.
+	 *
+	 * @param text  The query, e.g. "java and programming".
+	 * @return
+	 */
+	public CompletableFuture<WikiSearch> search(String text) {
+		return search(text, timeoutNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Starts a query.
+	 *
+	 * Cancelling the returned future abandons the query.
+	 *
+	 * @param text     The query, e.g. "java and programming".
+	 * @param timeout
+	 * @param unit
+	 * @return The results, or a TimeoutException if they take too long.
+	 */
+	public CompletableFuture<WikiSearch> search(final String text, long timeout, TimeUnit unit) {
+		final long start = System.nanoTime();
+		final Query query = Query.parse(text);
+		final CompletableFuture<WikiSearch> result = new CompletableFuture<WikiSearch>();
+
+		final Map<String, Lookup> lookups = new LinkedHashMap<String, Lookup>();
+		for (String term: query.terms()) {
+			lookups.put(term, acquire(term));
+		}
+		CompletableFuture<?>[] parts = new CompletableFuture<?>[lookups.size()];
+		int i = 0;
+		for (Lookup lookup: lookups.values()) {
+			parts[i++] = lookup.future;
+		}
+
+		// evaluate off the lookup threads, which are better spent on Redis;
+		// each query gets its own copy of a shared lookup's map.  A query
+		// that timed out or was cancelled is not evaluated at all.
+		CompletableFuture.allOf(parts)
+				.thenApplyAsync(v -> result.isDone() ? null : query.evaluate(
+						term -> new WikiSearch(new HashMap<String, Double>(lookups.get(term).future.join()))),
+						evaluatePool)
+				.whenComplete((search, error) -> {
+					if (error != null) {
+						result.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+					} else {
+						result.complete(search);
+					}
+				});
+
+		final ScheduledFuture<?> deadline = timer.schedule(() -> {
+			if (result.completeExceptionally(new TimeoutException("query \"" + text + "\" timed out"))) {
+				TIMEOUTS.increment();
+			}
+		}, timeout, unit);
+
+		result.whenComplete((search, error) -> {
+			deadline.cancel(false);
+			for (Lookup lookup: lookups.values()) {
+				release(lookup);
+			}
+			QUERY_TIME.recordSince(start);
+		});
+		return result;
+	}
+
+	/**
+	 * Returns the lookup of a term, starting one if none is in flight.
+	 */
+	private Lookup acquire(String term) {
+		Lookup lookup;
+		boolean startDrainer = false;
+		synchronized (this) {
+			lookup = inFlight.get(term);
+			if (lookup == null) {
+				lookup = new Lookup(term);
+				inFlight.put(term, lookup);
+				queue.addLast(lookup);
+				if (drainers < threads) {
+					drainers++;
+					startDrainer = true;
+				}
+			} else {
+				SHARED.increment();
+			}
+			lookup.waiters++;
+		}
+		if (startDrainer) {
+			lookupPool.execute(this::drain);
+		}
+		return lookup;
+	}
+
+	/**
+	 * Called when a query that waited for a lookup is done with it; if
+	 * nobody else wants the lookup and it hasn't started, drops it.
+	 */
+	private void release(Lookup lookup) {
+		synchronized (this) {
+			if (--lookup.waiters > 0 || lookup.started) {
+				return;
+			}
+			queue.remove(lookup);
+			inFlight.remove(lookup.term);
+		}
+		lookup.future.cancel(false);
+	}
+
+	/**
+	 * Runs on a lookup thread: fetches batches of waiting terms until the
+	 * queue is empty.
+	 */
+	private void drain() {
+		while (true) {
+			List<Lookup> batch = new ArrayList<Lookup>();
+			synchronized (this) {
+				while (batch.size() < batchSize && !queue.isEmpty()) {
+					Lookup lookup = queue.removeFirst();
+					lookup.started = true;
+					batch.add(lookup);
+				}
+				if (batch.isEmpty()) {
+					drainers--;
+					return;
+				}
+			}
+			fetch(batch);
+		}
+	}
+
+	private void fetch(List<Lookup> batch) {
+		List<String> terms = new ArrayList<String>(batch.size());
+		for (Lookup lookup: batch) {
+			terms.add(lookup.term);
+		}
+		BATCH_TERMS.record(terms.size());
+
+		Map<String, Map<String, Double>> counts = null;
+		Throwable failure = null;
+		try {
+			counts = index().getCounts(terms);
+		} catch (RuntimeException e) {
+			failure = e;
+		}
+
+		// forget the lookups before completing them, so later queries see new data
+		synchronized (this) {
+			for (Lookup lookup: batch) {
+				if (inFlight.get(lookup.term) == lookup) {
+					inFlight.remove(lookup.term);
+				}
+			}
+		}
+		for (Lookup lookup: batch) {
+			if (failure != null) {
+				lookup.future.completeExceptionally(failure);
+			} else {
+				Map<String, Double> map = counts.get(lookup.term);
+				lookup.future.complete(map == null ? new HashMap<String, Double>() : map);
+			}
+		}
+	}
+
+	private SearchIndex index() {
+		SearchIndex index = indexes.get();
+		if (index == null) {
+			try {
+				index = factory.make();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			indexes.set(index);
+			opened.add(index);
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the number of terms waiting for a lookup thread.
+	 *
+	 * @return
+	 */
+	public synchronized int queued() {
+		return queue.size();
+	}
+
+	/**
+	 * Stops the threads, fails the queries still waiting, and closes the
+	 * indexes that can be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		lookupPool.shutdownNow();
+		evaluatePool.shutdownNow();
+		timer.shutdownNow();
+		List<Lookup> abandoned;
+		synchronized (this) {
+			abandoned = new ArrayList<Lookup>(inFlight.values());
+			inFlight.clear();
+			queue.clear();
+		}
+		for (Lookup lookup: abandoned) {
+			lookup.future.completeExceptionally(new CancellationException("search closed"));
+		}
+		synchronized (opened) {
+			for (SearchIndex index: opened) {
+				if (index instanceof Closeable) {
+					((Closeable) index).close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs the queries given as arguments concurrently and prints how many
+	 * results each one found.
+	 *
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		AsyncWikiSearch search = new AsyncWikiSearch(() -> new JedisIndex(JedisMaker.make()), 4);
+		List<CompletableFuture<WikiSearch>> results = new ArrayList<CompletableFuture<WikiSearch>>();
+		for (String query: args) {
+			results.add(search.search(query));
+		}
+		for (int i=0; i<args.length; i++) {
+			try {
+				System.out.println(args[i] + ": " + results.get(i).join().sort().size() + " results");
+			} catch (CompletionException e) {
+				System.out.println(args[i] + ": " + e.getCause());
+			}
+		}
+		System.out.print(Metrics.global().dump());
+		search.close();
+	}
+}
@@ -0,0 +1,173 @@
+package com.flatironschool.javacs;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Runs many queries at once, fetching each distinct term only once.
+ *
+ * The queries are parsed, the distinct terms of the whole batch are
+ * looked up with one getCounts call (two pipelined round trips on a
+ * JedisIndex), and then the queries are evaluated in memory, split
+ * across the cores with fork/join.  The cost of the Redis part grows
+ * with the number of distinct terms, not the number of queries, which
+ * is what matters for bulk workloads where popular terms repeat.
+ *
+ * The postings of every term in the batch are held in memory at once;
+ * split very large batches with a rare vocabulary into several.
+ *
+ */
+public class BatchQueryExecutor {
+
+	private static final Metrics METRICS = Metrics.global();
+	private static final Metrics.Histogram BATCH_QUERIES = METRICS.histogram("query.batch.queries");
+	private static final Metrics.Histogram BATCH_TERMS = METRICS.histogram("query.batch.distinctTerms");
+	private static final Metrics.Histogram FETCH_TIME = METRICS.timer("query.batch.fetch");
+	private static final Metrics.Histogram EVALUATE_TIME = METRICS.timer("query.batch.evaluate");
+
+	// queries evaluated by one task before it stops splitting
+	private static final int QUERIES_PER_TASK = 16;
+
+	private final SearchIndex index;
+	private final ForkJoinPool pool;
+
+	/**
+	 * Constructor that evaluates on the common fork/join pool.
+	 *
+	 * @param index
+	 */
+	public BatchQueryExecutor(SearchIndex index) {
+		this(index, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param index
+	 * @param pool   Where the queries are evaluated.
+	 */
+	public BatchQueryExecutor(SearchIndex index, ForkJoinPool pool) {
+		this.index = index;
+		this.pool = pool;
+	}
+
+	/**
+	 * Computes the results of a batch of queries.
+	 *
+	 * @param queries  Queries such as "java and programming".
+	 * @return The results, in the same order.
+	 */
+	public List<WikiSearch> execute(List<String> queries) {
+		List<Query> parsed = new ArrayList<Query>(queries.size());
+		Set<String> terms = new LinkedHashSet<String>();
+		for (String text: queries) {
+			Query query = Query.parse(text);
+			parsed.add(query);
+			terms.addAll(query.terms());
+		}
+		BATCH_QUERIES.record(queries.size());
+		BATCH_TERMS.record(terms.size());
+
+		long start = System.nanoTime();
+		Map<String, Map<String, Double>> counts = terms.isEmpty()
+				? new HashMap<String, Map<String, Double>>() : index.getCounts(terms);
+		FETCH_TIME.recordSince(start);
+
+		start = System.nanoTime();
+		WikiSearch[] results = new WikiSearch[parsed.size()];
+		pool.invoke(new EvaluateTask(parsed, counts, results, 0, parsed.size()));
+		EVALUATE_TIME.recordSince(start);
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Evaluates a range of the queries, splitting it in half until it is
+	 * small enough.
+	 */
+	private static class EvaluateTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<Query> queries;
+		private final Map<String, Map<String, Double>> counts;
+		private final WikiSearch[] results;
+		private final int from, to;
+
+		EvaluateTask(List<Query> queries, Map<String, Map<String, Double>> counts,
+				WikiSearch[] results, int from, int to) {
+			this.queries = queries;
+			this.counts = counts;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= QUERIES_PER_TASK) {
+				for (int i=from; i<to; i++) {
+					results[i] = queries.get(i).evaluate(new Query.TermLookup() {
+						@Override
+						public WikiSearch search(String term) {
+							// each query gets its own copy, since results can be changed
+							Map<String, Double> map = counts.get(term);
+							return new WikiSearch(map == null
+									? new HashMap<String, Double>() : new HashMap<String, Double>(map));
+						}
+					});
+				}
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new EvaluateTask(queries, counts, results, from, mid),
+					new EvaluateTask(queries, counts, results, mid, to));
+		}
+	}
+
+	/**
+	 * Runs the queries in a file, one per line, or from standard input,
+	 * and prints the number of results of each.
+	 *
+	 * Usage: BatchQueryExecutor [FILE]
+	 *
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		InputStream in = args.length > 0 ? new FileInputStream(args[0]) : System.in;
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		List<String> queries = new ArrayList<String>();
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (!line.trim().isEmpty()) {
+				queries.add(line.trim());
+			}
+		}
+		reader.close();
+
+		BatchQueryExecutor executor = new BatchQueryExecutor(new JedisIndex(JedisMaker.make()));
+		long start = System.nanoTime();
+		List<WikiSearch> results = executor.execute(queries);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		for (int i=0; i<queries.size(); i++) {
+			System.out.println(queries.get(i) + "\t" + results.get(i).sort().size());
+		}
+		System.out.println(String.format("%d queries in %.2fs: %.1f queries/sec",
+				queries.size(), seconds, queries.size() / seconds));
+		System.out.println("distinct terms: " + METRICS.histogram("query.batch.distinctTerms"));
+		System.out.println("fetch: " + METRICS.timer("query.batch.fetch"));
+		System.out.println("evaluate: " + METRICS.timer("query.batch.evaluate"));
+	}
+}
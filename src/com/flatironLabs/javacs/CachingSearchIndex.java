@@ -0,0 +1,125 @@
+package com.flatironschool.javacs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.jsoup.select.Elements;
+
+
+/**
+ * A SearchIndex that answers term lookups from a PostingsCache when it
+ * can, and asks the index it wraps for the rest.
+ *
+ * Lookups of several terms fetch all the missing ones with one call, so
+ * a sharded or pipelined index still gets them in one round trip.
+ * Indexing goes straight to the wrapped index, which tells the cache
+ * which terms to drop.
+ *
+ * The cache is thread-safe; whether this is depends on the wrapped index.
+ *
+ */
+public class CachingSearchIndex implements SearchIndex {
+
+	private final SearchIndex index;
+	private final PostingsCache cache;
+
+	/**
+	 * Constructor.  Registers the cache as a listener of the index.
+	 *
+	 * @param index
+	 * @param cache  May be shared by several wrappers of the same index.
+	 */
+	public CachingSearchIndex(SearchIndex index, PostingsCache cache) {
+		this.index = index;
+		this.cache = cache;
+		index.addIndexListener(cache);
+	}
+
+	public PostingsCache getCache() {
+		return cache;
+	}
+
+	@Override
+	public boolean isIndexed(String url) {
+		return index.isIndexed(url);
+	}
+
+	@Override
+	public void indexPage(String url, Elements paragraphs) {
+		index.indexPage(url, paragraphs);
+	}
+
+	@Override
+	public void indexTermCounter(TermCounter tc) {
+		index.indexTermCounter(tc);
+	}
+
+	@Override
+	public void addIndexListener(IndexListener listener) {
+		index.addIndexListener(listener);
+	}
+
+	@Override
+	public Map<String, Double> getCounts(String term) {
+		PostingsCache.Postings postings = cache.get(term);
+		if (postings != null) {
+			return postings.toMap();
+		}
+		long version = cache.version();
+		Map<String, Double> map = index.getCounts(term);
+		cache.put(term, new PostingsCache.Postings(term, map), version);
+		return map;
+	}
+
+	@Override
+	public Map<String, Map<String, Double>> getCounts(Collection<String> terms) {
+		Map<String, Map<String, Double>> counts = new HashMap<String, Map<String, Double>>();
+		List<String> missing = new ArrayList<String>();
+		for (String term: terms) {
+			PostingsCache.Postings postings = cache.get(term);
+			if (postings != null) {
+				counts.put(term, postings.toMap());
+			} else {
+				missing.add(term);
+			}
+		}
+		if (missing.isEmpty()) {
+			return counts;
+		}
+
+		long version = cache.version();
+		Map<String, Map<String, Double>> fetched = index.getCounts(missing);
+		for (Entry<String, Map<String, Double>> entry: fetched.entrySet()) {
+			cache.put(entry.getKey(), new PostingsCache.Postings(entry.getKey(), entry.getValue()), version);
+		}
+		counts.putAll(fetched);
+		return counts;
+	}
+
+	/**
+	 * Runs a few queries twice, through a 64MB cache, and prints the
+	 * cache counters.
+	 *
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		SearchIndex index = new CachingSearchIndex(new JedisIndex(JedisMaker.make()),
+				new PostingsCache(64L << 20));
+		String[] queries = {"java", "java and programming", "programming minus java"};
+		for (int round=0; round<2; round++) {
+			for (String query: queries) {
+				long start = System.nanoTime();
+				WikiSearch search = WikiSearch.searchTerms(query, index);
+				System.out.println(String.format("%s: %d results in %.3fms", query, search.sort().size(),
+						(System.nanoTime() - start) / 1e6));
+			}
+		}
+		System.out.print(Metrics.global().dump());
+	}
+}
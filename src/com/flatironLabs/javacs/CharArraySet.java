@@ -0,0 +1,142 @@
+package com.flatironschool.javacs;
+
+
+/**
+ * A hash set of strings that can be probed with any CharSequence, such
+ * as a Token, without turning it into a String first.
+ *
+ * Uses open addressing with linear probing.
+ *
+ */
+public class CharArraySet {
+
+	private char[][] keys;
+	private int size;
+
+	/**
+	 * Makes an empty set.
+	 */
+	public CharArraySet() {
+		keys = new char[16][];
+	}
+
+	/**
+	 * Makes a set holding the given words.
+	 *
+	 * @param words
+	 */
+	public CharArraySet(String... words) {
+		this();
+		for (String word: words) {
+			add(word);
+		}
+	}
+
+	/**
+	 * Adds a word to the set.
+	 *
+	 * @param word
+	 * @return true if it wasn't already there.
+	 */
+	public boolean add(CharSequence word) {
+		if (contains(word)) {
+			return false;
+		}
+		if (2 * (size + 1) > keys.length) {
+			rehash(keys.length * 2);
+		}
+		char[] key = new char[word.length()];
+		for (int i=0; i<key.length; i++) {
+			key[i] = word.charAt(i);
+		}
+		insert(key);
+		size++;
+		return true;
+	}
+
+	/**
+	 * Returns true if the set holds a word with the same characters.
+	 *
+	 * @param word
+	 * @return
+	 */
+	public boolean contains(CharSequence word) {
+		int mask = keys.length - 1;
+		for (int slot = hash(word) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+			if (matches(keys[slot], word)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of words in the set.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	private void insert(char[] key) {
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while (keys[slot] != null) {
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+	}
+
+	private void rehash(int capacity) {
+		char[][] old = keys;
+		keys = new char[capacity][];
+		for (char[] key: old) {
+			if (key != null) {
+				insert(key);
+			}
+		}
+	}
+
+	private static boolean matches(char[] key, CharSequence word) {
+		if (key.length != word.length()) {
+			return false;
+		}
+		for (int i=0; i<key.length; i++) {
+			if (key[i] != word.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int hash(CharSequence word) {
+		int h = 0;
+		for (int i=0; i<word.length(); i++) {
+			h = 31 * h + word.charAt(i);
+		}
+		return h ^ (h >>> 16);
+	}
+
+	private static int hash(char[] key) {
+		int h = 0;
+		for (char c: key) {
+			h = 31 * h + c;
+		}
+		return h ^ (h >>> 16);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+		for (char[] key: keys) {
+			if (key != null) {
+				if (sb.length() > 1) {
+					sb.append(", ");
+				}
+				sb.append(key);
+			}
+		}
+		return sb.append("]").toString();
+	}
+}
@@ -0,0 +1,95 @@
+package com.flatironschool.javacs;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * Maps keys to nodes with consistent hashing.
+ *
+ * Each node is placed at many points on a ring of 64-bit hashes, and a
+ * key belongs to the first node point at or after the key's hash.  Adding
+ * or removing a node moves only the keys next to its points, about 1/N
+ * of them, which is what lets ShardRebalancer move shards incrementally.
+ *
+ * Nodes are identified by name (e.g. "host:port"), not by position, so
+ * two rings built from the same names agree on every key.
+ *
+ */
+public class ConsistentHashRing {
+
+	/**
+	 * Points per node; enough to keep the shards within a few percent of
+	 * each other.
+	 */
+	public static final int DEFAULT_REPLICAS = 160;
+
+	private final long[] points;
+	private final int[] owners;
+	private final int nodes;
+
+	public ConsistentHashRing(List<String> names) {
+		this(names, DEFAULT_REPLICAS);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param names     Names of the nodes.
+	 * @param replicas  Points per node.
+	 */
+	public ConsistentHashRing(List<String> names, int replicas) {
+		if (names.isEmpty()) {
+			throw new IllegalArgumentException("ring needs at least one node");
+		}
+		nodes = names.size();
+		int n = nodes * replicas;
+
+		// sort (hash, owner) pairs by hash
+		long[][] pairs = new long[n][];
+		for (int node=0; node<nodes; node++) {
+			for (int r=0; r<replicas; r++) {
+				pairs[node * replicas + r] = new long[] {SimHash.hash(names.get(node) + "#" + r), node};
+			}
+		}
+		Arrays.sort(pairs, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] a, long[] b) {
+				return a[0] < b[0] ? -1 : a[0] > b[0] ? 1 : Long.compare(a[1], b[1]);
+			}
+		});
+		points = new long[n];
+		owners = new int[n];
+		for (int i=0; i<n; i++) {
+			points[i] = pairs[i][0];
+			owners[i] = (int) pairs[i][1];
+		}
+	}
+
+	/**
+	 * Returns the index, in the list of names, of the node that owns a key.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public int node(CharSequence key) {
+		if (nodes == 1) {
+			return 0;
+		}
+		int i = Arrays.binarySearch(points, SimHash.hash(key));
+		if (i < 0) {
+			i = -i - 1;
+		}
+		return owners[i == points.length ? 0 : i];
+	}
+
+	/**
+	 * Returns the number of nodes.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return nodes;
+	}
+}
@@ -0,0 +1,117 @@
+package com.flatironschool.javacs;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.select.Elements;
+
+
+/**
+ * Picks out the paragraphs of article text from a page, skipping
+ * navigation, infoboxes, sidebars, references and other boxouts.
+ *
+ */
+public class ContentExtractor {
+
+	// tags whose contents are never article text
+	private static final Set<String> SKIP_TAGS = new HashSet<String>();
+
+	// CSS classes of navigation, reference and boxout elements on Wikipedia
+	private static final Set<String> SKIP_CLASSES = new HashSet<String>();
+
+	// ids of the same
+	private static final Set<String> SKIP_IDS = new HashSet<String>();
+
+	static {
+		for (String tag: new String[] {"table", "script", "style", "nav", "footer"}) {
+			SKIP_TAGS.add(tag);
+		}
+		for (String c: new String[] {"infobox", "navbox", "vertical-navbox", "sidebar",
+				"reflist", "references", "reference", "mw-references-wrap", "hatnote",
+				"metadata", "ambox", "toc", "thumb", "mw-editsection", "noprint",
+				"catlinks", "sistersitebox", "portal", "mw-empty-elt"}) {
+			SKIP_CLASSES.add(c);
+		}
+		for (String id: new String[] {"toc", "catlinks", "mw-navigation", "footer", "references"}) {
+			SKIP_IDS.add(id);
+		}
+	}
+
+	private ContentExtractor() {
+	}
+
+	/**
+	 * Returns the paragraphs of article text on a page.
+	 *
+	 * On Wikipedia this looks only inside #mw-content-text; on other sites
+	 * it looks at the whole body.
+	 *
+	 * @param doc
+	 * @return
+	 */
+	public static Elements paragraphs(Document doc) {
+		Element root = doc.getElementById("mw-content-text");
+		if (root == null) {
+			root = doc.body() != null ? doc.body() : doc;
+		}
+
+		final Elements paragraphs = new Elements();
+		WikiNodeIterable.traverse(root, new WikiNodeIterable.Visitor() {
+			@Override
+			public boolean visit(Node node) {
+				if (!(node instanceof Element)) {
+					return false;
+				}
+				Element element = (Element) node;
+				if (isBoilerplate(element)) {
+					return false;
+				}
+				if (element.tagName().equals("p")) {
+					paragraphs.add(element);
+					return false;
+				}
+				return true;
+			}
+		});
+		return paragraphs;
+	}
+
+	/**
+	 * Returns true if an element holds navigation, references or a boxout
+	 * rather than article text.
+	 *
+	 * @param element
+	 * @return
+	 */
+	public static boolean isBoilerplate(Element element) {
+		if (SKIP_TAGS.contains(element.tagName())) {
+			return true;
+		}
+		String id = element.id();
+		if (id.length() > 0 && SKIP_IDS.contains(id)) {
+			return true;
+		}
+		String classes = element.className();
+		if (classes.length() == 0) {
+			return false;
+		}
+
+		// walk the space-separated class list
+		int start = 0;
+		int n = classes.length();
+		while (start < n) {
+			int end = classes.indexOf(' ', start);
+			if (end < 0) {
+				end = n;
+			}
+			if (end > start && SKIP_CLASSES.contains(classes.substring(start, end))) {
+				return true;
+			}
+			start = end + 1;
+		}
+		return false;
+	}
+}
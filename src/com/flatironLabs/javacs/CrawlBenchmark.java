@@ -0,0 +1,92 @@
+package com.flatironschool.javacs;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.jsoup.select.Elements;
+
+import redis.clients.jedis.Jedis;
+
+
+/**
+ * Measures crawl throughput against a MockWebServer, so runs can be
+ * compared without network access.
+ *
+ * Usage: CrawlBenchmark [pages] [latencyMillis] [errorRate] [fanOut] [dir] [scratchRedis]
+ *
+ * Reports pages per second, and the fetch, parse and index latencies
+ * recorded in Metrics.  Pages go into an InMemoryIndex, unless a scratch
+ * Redis is given as "host:port" or a redis:// URI; that one is wiped
+ * first, so never point it at a real index.  The benchmark stops with an
+ * error if the crawler tries to fetch anything but the mock server.
+ *
+ */
+public class CrawlBenchmark {
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		int pages = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		long latency = args.length > 1 ? Long.parseLong(args[1]) : 20;
+		double errorRate = args.length > 2 ? Double.parseDouble(args[2]) : 0.01;
+		int fanOut = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+		File dir = new File(args.length > 4 ? args[4] : "src/resources/en.wikipedia.org/wiki");
+		String scratchRedis = args.length > 5 ? args[5] : null;
+
+		MockWebServer server = new MockWebServer(dir, latency, latency / 2, errorRate, fanOut, 42);
+		server.start(0);
+		final String prefix = server.url("");
+
+		Jedis jedis = null;
+		SearchIndex index;
+		if (scratchRedis != null) {
+			jedis = ShardedJedisIndex.connect(scratchRedis);
+			JedisIndex jedisIndex = new JedisIndex(jedis);
+			jedisIndex.deleteAllKeys();
+			index = jedisIndex;
+		} else {
+			index = new InMemoryIndex();
+		}
+
+		// anything else would be a live fetch, which makes the run meaningless
+		WikiFetcher fetcher = new WikiFetcher() {
+			@Override
+			public Elements fetchWikipedia(String url) throws IOException {
+				if (!url.startsWith(prefix)) {
+					throw new IllegalStateException("Benchmark tried to fetch " + url
+							+ ", which is not on the mock server");
+				}
+				return super.fetchWikipedia(url);
+			}
+		};
+		fetcher.setMinInterval(0);
+
+		String source = server.url(server.getPages()[0]);
+		WikiCrawler wc = new WikiCrawler(source, index, fetcher);
+
+		long start = System.nanoTime();
+		int count = 0;
+		try {
+			while (count < pages && wc.queueSize() > 0) {
+				if (wc.crawl(false) != null) {
+					count++;
+				}
+			}
+		} finally {
+			server.stop();
+			if (jedis != null) {
+				jedis.close();
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.println(String.format("Crawled %d pages in %.2fs: %.1f pages/sec",
+				count, seconds, count / seconds));
+		Metrics metrics = Metrics.global();
+		System.out.println("fetch: " + metrics.timer("fetch.download"));
+		System.out.println("parse: " + metrics.timer("fetch.parse"));
+		System.out.println("index: " + metrics.timer("index.page"));
+	}
+}
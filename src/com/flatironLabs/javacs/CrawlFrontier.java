@@ -0,0 +1,333 @@
+package com.flatironschool.javacs;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Holds the URLs waiting to be crawled, ordered by estimated importance.
+ *
+ * Importance is estimated online with OPIC (On-line Page Importance
+ * Computation): every page starts out with some "cash", and when a page
+ * is crawled its cash is split evenly among the pages it links to.  Pages
+ * with many in-links from important pages collect the most cash, so they
+ * get crawled first.  The priority of a URL is its cash scaled down by
+ * `depthDecay` for each link between it and the seed.
+ *
+ * The queue is an indexed binary heap over parallel primitive arrays, so
+ * raising the priority of a queued URL takes O(log n) and there is one
+ * small object per URL (its map entry) no matter how many are queued.
+ *
+ * Every URL ever offered is remembered, so a URL is never queued twice.
+ *
+ * A URL that can't be fetched yet, because its host's circuit breaker is
+ * open, can be parked: it keeps its cash, and goes back in the queue
+ * once the wait is over.
+ *
+ */
+public class CrawlFrontier {
+
+	private final double depthDecay;
+
+	// map from URL to id; ids index the arrays below
+	private final Map<String, Integer> ids = new HashMap<String, Integer>();
+	private String[] urls = new String[16];
+	private double[] cash = new double[16];
+	private double[] priority = new double[16];
+	private int[] depth = new int[16];
+
+	// position of each id in the heap, or one of the values below
+	private int[] position = new int[16];
+	private static final int CRAWLED = -1;
+	private static final int PARKED = -2;
+
+	/**
+	 * A URL waiting for its host, and when it may be crawled.
+	 */
+	private static class Parked {
+		final int id;
+		final long until;
+
+		Parked(int id, long until) {
+			this.id = id;
+			this.until = until;
+		}
+	}
+
+	// parked URLs, soonest first
+	private final PriorityQueue<Parked> parked = new PriorityQueue<Parked>(11,
+			(p1, p2) -> Long.compare(p1.until - p2.until, 0));
+
+	// max-heap of ids, ordered by priority
+	private int[] heap = new int[16];
+	private int heapSize = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param depthDecay  Factor applied to the priority for each level of depth,
+	 *                    between 0 (only crawl the seeds) and 1 (no penalty).
+	 */
+	public CrawlFrontier(double depthDecay) {
+		this.depthDecay = depthDecay;
+	}
+
+	/**
+	 * Makes a frontier with a mild depth penalty.
+	 */
+	public CrawlFrontier() {
+		this(0.9);
+	}
+
+	/**
+	 * Adds a seed URL with one unit of cash.
+	 *
+	 * @param url
+	 * @return true if the URL was queued.
+	 */
+	public synchronized boolean addSeed(String url) {
+		return offer(url, 0, 1.0);
+	}
+
+	/**
+	 * Adds cash to a URL, queueing it if it has never been seen.
+	 *
+	 * If the URL is already queued or parked its priority goes up; if it
+	 * has already been crawled the cash is dropped.
+	 *
+	 * @param url
+	 * @param urlDepth  Number of links between the seed and this URL.
+	 * @param amount    Cash to add.
+	 * @return true if the URL was newly queued.
+	 */
+	public synchronized boolean offer(String url, int urlDepth, double amount) {
+		Integer id = ids.get(url);
+		if (id == null) {
+			int newId = ids.size();
+			ensureCapacity(newId + 1);
+			ids.put(url, newId);
+			urls[newId] = url;
+			cash[newId] = amount;
+			depth[newId] = urlDepth;
+			priority[newId] = score(newId);
+
+			position[newId] = heapSize;
+			heap[heapSize++] = newId;
+			siftUp(heapSize - 1);
+			return true;
+		}
+
+		int i = id;
+		if (position[i] == CRAWLED) {
+			return false;
+		}
+		cash[i] += amount;
+		depth[i] = Math.min(depth[i], urlDepth);
+		priority[i] = score(i);
+		if (position[i] >= 0) {
+			siftUp(position[i]);
+		}
+		return false;
+	}
+
+	/**
+	 * Splits the cash of a crawled page among the pages it links to.
+	 *
+	 * @param url    The page that was crawled.
+	 * @param links  The URLs it links to.
+	 * @return Number of URLs that were newly queued.
+	 */
+	public synchronized int distribute(String url, List<String> links) {
+		Integer id = ids.get(url);
+		int parentDepth = 0;
+		double share = 0;
+		if (id != null) {
+			parentDepth = depth[id];
+			if (!links.isEmpty()) {
+				share = cash[id] / links.size();
+				cash[id] = 0;
+				priority[id] = 0;
+				if (position[id] >= 0) {
+					siftDown(position[id]);
+				}
+			}
+		}
+
+		int added = 0;
+		for (String link: links) {
+			if (offer(link, parentDepth + 1, share)) {
+				added++;
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * Removes and returns the queued URL with the highest priority.
+	 *
+	 * @return The URL, or null if nothing is ready to crawl.
+	 */
+	public synchronized String poll() {
+		unpark();
+		if (heapSize == 0) {
+			return null;
+		}
+		int top = heap[0];
+		position[top] = CRAWLED;
+		heapSize--;
+		if (heapSize > 0) {
+			heap[0] = heap[heapSize];
+			position[heap[0]] = 0;
+			siftDown(0);
+		}
+		return urls[top];
+	}
+
+	/**
+	 * Puts back a URL that was polled but couldn't be crawled yet, to be
+	 * queued again, with the same cash, once `delay` has passed.
+	 *
+	 * @param url
+	 * @param delay
+	 * @param unit
+	 * @return true if the URL was parked.
+	 */
+	public synchronized boolean park(String url, long delay, TimeUnit unit) {
+		Integer id = ids.get(url);
+		if (id == null || position[id] != CRAWLED) {
+			return false;
+		}
+		position[id] = PARKED;
+		parked.add(new Parked(id, System.nanoTime() + unit.toNanos(delay)));
+		return true;
+	}
+
+	/**
+	 * Returns how long until poll() will have a URL: 0 if one is queued,
+	 * the wait for the first parked URL if only parked ones are left, and
+	 * -1 if there are none at all.
+	 *
+	 * @param unit
+	 * @return
+	 */
+	public synchronized long timeUntilReady(TimeUnit unit) {
+		unpark();
+		if (heapSize > 0) {
+			return 0;
+		}
+		if (parked.isEmpty()) {
+			return -1;
+		}
+		long nanos = Math.max(0, parked.peek().until - System.nanoTime());
+		return unit.convert(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Moves parked URLs whose wait is over back into the queue.
+	 */
+	private void unpark() {
+		long now = System.nanoTime();
+		while (!parked.isEmpty() && parked.peek().until - now <= 0) {
+			int id = parked.poll().id;
+			position[id] = heapSize;
+			heap[heapSize++] = id;
+			siftUp(heapSize - 1);
+		}
+	}
+
+	/**
+	 * Returns the number of URLs waiting to be crawled, including parked ones.
+	 *
+	 * @return
+	 */
+	public synchronized int size() {
+		return heapSize + parked.size();
+	}
+
+	/**
+	 * Returns true if nothing is waiting to be crawled, parked or not.
+	 *
+	 * @return
+	 */
+	public synchronized boolean isEmpty() {
+		return heapSize == 0 && parked.isEmpty();
+	}
+
+	/**
+	 * Returns true if this URL has ever been offered.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public synchronized boolean contains(String url) {
+		return ids.containsKey(url);
+	}
+
+	/**
+	 * Returns the current priority of a URL, or 0 if it is unknown.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public synchronized double getPriority(String url) {
+		Integer id = ids.get(url);
+		return id == null ? 0 : priority[id];
+	}
+
+	private double score(int id) {
+		return cash[id] * Math.pow(depthDecay, depth[id]);
+	}
+
+	private void ensureCapacity(int n) {
+		if (n <= urls.length) {
+			return;
+		}
+		int capacity = Math.max(n, urls.length * 2);
+		urls = Arrays.copyOf(urls, capacity);
+		cash = Arrays.copyOf(cash, capacity);
+		priority = Arrays.copyOf(priority, capacity);
+		depth = Arrays.copyOf(depth, capacity);
+		position = Arrays.copyOf(position, capacity);
+		heap = Arrays.copyOf(heap, capacity);
+	}
+
+	private void siftUp(int i) {
+		int id = heap[i];
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (priority[heap[parent]] >= priority[id]) {
+				break;
+			}
+			heap[i] = heap[parent];
+			position[heap[i]] = i;
+			i = parent;
+		}
+		heap[i] = id;
+		position[id] = i;
+	}
+
+	private void siftDown(int i) {
+		int id = heap[i];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			if (child + 1 < heapSize && priority[heap[child + 1]] > priority[heap[child]]) {
+				child++;
+			}
+			if (priority[heap[child]] <= priority[id]) {
+				break;
+			}
+			heap[i] = heap[child];
+			position[heap[i]] = i;
+			i = child;
+		}
+		heap[i] = id;
+		position[id] = i;
+	}
+}
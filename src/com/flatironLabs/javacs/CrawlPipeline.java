@@ -0,0 +1,492 @@
+package com.flatironschool.javacs;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jsoup.select.Elements;
+
+import redis.clients.jedis.Jedis;
+
+
+/**
+ * Crawls pages as a pipeline of stages: fetch, parse, count and index.
+ *
+ * Each stage has its own worker threads and reads from a bounded queue.
+ * When a stage falls behind (usually index, waiting on Redis), its queue
+ * fills up and the workers upstream block until there is room, so the
+ * fetchers slow down instead of piling up pages in memory.
+ *
+ * The frontier of URLs waiting to be fetched is a CrawlFrontier, so the
+ * fetchers always take the most important page next.  It is not bounded,
+ * since the parse stage feeds it and blocking there could deadlock the
+ * pipeline.
+ *
+ */
+public class CrawlPipeline {
+
+	/**
+	 * Makes an index for each index worker, since a Jedis connection
+	 * can't be shared between threads.
+	 */
+	public interface IndexFactory {
+		SearchIndex make() throws IOException;
+	}
+
+	/**
+	 * A page on its way through the pipeline.
+	 */
+	static class Page {
+		final String url;
+		String html;
+		Elements paragraphs;
+		TermCounter counter;
+
+		Page(String url) {
+			this.url = url;
+		}
+	}
+
+	/**
+	 * One stage of the pipeline.
+	 *
+	 * Workers take items from the input queue, process them, and put the
+	 * results on the output queue.  A null result drops the item.
+	 *
+	 * Outside this class a stage is read-only: it reports its counters,
+	 * and only the pipeline can start, stop or make one.
+	 */
+	public abstract class Stage<I, O> {
+		private final String name;
+		private final int parallelism;
+		private final BlockingQueue<I> input;
+		private BlockingQueue<O> output;
+
+		private final AtomicLong processed = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+		private final AtomicLong blockedNanos = new AtomicLong();
+		private final List<Thread> workers = new ArrayList<Thread>();
+
+		Stage(String name, int parallelism, BlockingQueue<I> input) {
+			this.name = name;
+			this.parallelism = parallelism;
+			this.input = input;
+		}
+
+		/**
+		 * Processes one item.
+		 *
+		 * @param item
+		 * @return The item for the next stage, or null to drop it.
+		 * @throws Exception
+		 */
+		abstract O process(I item) throws Exception;
+
+		/**
+		 * Waits a short time for the next item.
+		 *
+		 * @return The item, or null if there is nothing to do yet.
+		 * @throws InterruptedException
+		 */
+		I next() throws InterruptedException {
+			return input.poll(100, TimeUnit.MILLISECONDS);
+		}
+
+		void connect(BlockingQueue<O> output) {
+			this.output = output;
+		}
+
+		void start() {
+			for (int i=0; i<parallelism; i++) {
+				Thread thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						work();
+					}
+				}, "crawl-" + name + "-" + i);
+				thread.setDaemon(true);
+				workers.add(thread);
+				thread.start();
+			}
+		}
+
+		void stop() throws InterruptedException {
+			for (Thread thread: workers) {
+				thread.interrupt();
+			}
+			for (Thread thread: workers) {
+				thread.join();
+			}
+		}
+
+		private void work() {
+			try {
+				while (running) {
+					I item = next();
+					if (item == null) {
+						continue;
+					}
+					O result = null;
+					try {
+						result = process(item);
+					} catch (InterruptedException e) {
+						throw e;
+					} catch (Exception e) {
+						failed.incrementAndGet();
+					}
+					processed.incrementAndGet();
+
+					if (result == null || output == null) {
+						// the page leaves the pipeline here
+						inFlight.decrementAndGet();
+						continue;
+					}
+
+					// blocks while the next stage is full; this is the backpressure
+					long start = System.nanoTime();
+					output.put(result);
+					blockedNanos.addAndGet(System.nanoTime() - start);
+				}
+			} catch (InterruptedException e) {
+				// asked to stop
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns the number of worker threads.
+		 *
+		 * @return
+		 */
+		public int getParallelism() {
+			return parallelism;
+		}
+
+		/**
+		 * Returns the number of items waiting in this stage's input queue.
+		 *
+		 * @return
+		 */
+		public int queueDepth() {
+			return input == null ? frontier.size() : input.size();
+		}
+
+		/**
+		 * Returns the number of items this stage has finished processing.
+		 *
+		 * @return
+		 */
+		public long processed() {
+			return processed.get();
+		}
+
+		/**
+		 * Returns the number of items whose processing threw an exception.
+		 *
+		 * @return
+		 */
+		public long failed() {
+			return failed.get();
+		}
+
+		/**
+		 * Returns how long workers have waited for room in the next stage.
+		 *
+		 * @param unit
+		 * @return
+		 */
+		public long blocked(TimeUnit unit) {
+			return unit.convert(blockedNanos.get(), TimeUnit.NANOSECONDS);
+		}
+
+		/**
+		 * Returns the number of items processed per second since the crawl started.
+		 *
+		 * @return
+		 */
+		public double throughput() {
+			double seconds = (System.nanoTime() - startTime) / 1e9;
+			return seconds > 0 ? processed.get() / seconds : 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-6s threads=%d queue=%d processed=%d failed=%d rate=%.1f/s blocked=%dms",
+					name, parallelism, queueDepth(), processed.get(), failed.get(),
+					throughput(), blockedNanos.get() / 1000000);
+		}
+	}
+
+	// URLs waiting to be fetched; also remembers every URL we have ever queued
+	private final CrawlFrontier frontier = new CrawlFrontier();
+
+	// out-links of every page we have parsed
+	private final LinkGraph graph = new LinkGraph();
+
+	// number of URLs that are queued or somewhere in the pipeline
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicLong indexed = new AtomicLong();
+
+	private final List<Stage<?, ?>> stages = new ArrayList<Stage<?, ?>>();
+	// every index the index workers made, closed when the crawl stops
+	private final List<SearchIndex> opened = Collections.synchronizedList(new ArrayList<SearchIndex>());
+	private volatile boolean running;
+	private long startTime;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param source          URL where the crawl starts.
+	 * @param factory         Makes one index per index worker.
+	 * @param queueCapacity   Size of the queue in front of each stage.
+	 * @param fetchThreads
+	 * @param parseThreads
+	 * @param countThreads
+	 * @param indexThreads
+	 */
+	public CrawlPipeline(String source, final IndexFactory factory, int queueCapacity,
+			int fetchThreads, int parseThreads, int countThreads, int indexThreads) {
+		final String baseUri = WikiCrawler.baseUri(source);
+
+		BlockingQueue<Page> fetched = new ArrayBlockingQueue<Page>(queueCapacity);
+		BlockingQueue<Page> parsed = new ArrayBlockingQueue<Page>(queueCapacity);
+		BlockingQueue<Page> counted = new ArrayBlockingQueue<Page>(queueCapacity);
+
+		// each fetch worker has its own fetcher, but they all share the global
+		// HostRateLimiter, so more fetch threads don't mean more requests to a host
+		final ThreadLocal<WikiFetcher> fetchers = new ThreadLocal<WikiFetcher>() {
+			@Override
+			protected WikiFetcher initialValue() {
+				return new WikiFetcher();
+			}
+		};
+		final ThreadLocal<SearchIndex> indexes = new ThreadLocal<SearchIndex>();
+
+		Stage<String, Page> fetch = new Stage<String, Page>("fetch", fetchThreads, null) {
+			@Override
+			String next() throws InterruptedException {
+				String url = frontier.poll();
+				if (url == null) {
+					Thread.sleep(50);
+				}
+				return url;
+			}
+
+			@Override
+			Page process(String url) throws Exception {
+				Page page = new Page(url);
+				try {
+					page.html = fetchers.get().download(url);
+				} catch (HostCircuitBreaker.OpenException e) {
+					// try again once the host's breaker lets requests through
+					if (frontier.park(url, e.getRetryAfter(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS)) {
+						inFlight.incrementAndGet();
+					}
+					return null;
+				}
+				return page;
+			}
+		};
+		Stage<Page, Page> parse = new Stage<Page, Page>("parse", parseThreads, fetched) {
+			@Override
+			Page process(Page page) {
+				page.paragraphs = fetchers.get().parse(page.html, page.url);
+				page.html = null;
+
+				if (page.url.startsWith(baseUri)) {
+					List<String> links = WikiCrawler.internalLinks(page.paragraphs, baseUri);
+					graph.setLinks(page.url, links);
+					inFlight.addAndGet(frontier.distribute(page.url, links));
+				}
+				return page;
+			}
+		};
+		Stage<Page, Page> count = new Stage<Page, Page>("count", countThreads, parsed) {
+			@Override
+			Page process(Page page) {
+				page.counter = new TermCounter(page.url);
+				page.counter.processElements(page.paragraphs);
+				page.paragraphs = null;
+				return page;
+			}
+		};
+		Stage<Page, Page> index = new Stage<Page, Page>("index", indexThreads, counted) {
+			@Override
+			Page process(Page page) throws IOException {
+				SearchIndex searchIndex = indexes.get();
+				if (searchIndex == null) {
+					searchIndex = factory.make();
+					indexes.set(searchIndex);
+					opened.add(searchIndex);
+				}
+				searchIndex.indexTermCounter(page.counter);
+				indexed.incrementAndGet();
+				return null;
+			}
+		};
+		fetch.connect(fetched);
+		parse.connect(parsed);
+		count.connect(counted);
+
+		stages.add(fetch);
+		stages.add(parse);
+		stages.add(count);
+		stages.add(index);
+
+		addSeed(source);
+	}
+
+	/**
+	 * Adds a seed URL to the frontier, unless it has been seen before.
+	 *
+	 * @param url
+	 * @return true if the URL was added.
+	 */
+	public boolean addSeed(String url) {
+		if (!frontier.addSeed(url)) {
+			return false;
+		}
+		inFlight.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Returns the stages, in pipeline order.
+	 *
+	 * @return
+	 */
+	public List<Stage<?, ?>> getStages() {
+		return Collections.unmodifiableList(stages);
+	}
+
+	/**
+	 * Returns the links recorded so far.
+	 *
+	 * @return
+	 */
+	public LinkGraph getLinkGraph() {
+		return graph;
+	}
+
+	/**
+	 * Returns the number of pages that have been indexed.
+	 *
+	 * @return
+	 */
+	public long indexedCount() {
+		return indexed.get();
+	}
+
+	/**
+	 * Crawls until `maxPages` pages have been indexed or there is nothing
+	 * left to crawl.
+	 *
+	 * @param maxPages
+	 * @param reportMillis  How often to print stage statistics; 0 for never.
+	 * @param out           Where to print them.
+	 * @return Number of pages indexed.
+	 * @throws InterruptedException
+	 */
+	public long run(long maxPages, long reportMillis, PrintStream out) throws InterruptedException {
+		running = true;
+		startTime = System.nanoTime();
+		for (Stage<?, ?> stage: stages) {
+			stage.start();
+		}
+
+		long lastReport = System.currentTimeMillis();
+		while (indexed.get() < maxPages && inFlight.get() > 0) {
+			Thread.sleep(50);
+			if (reportMillis > 0 && System.currentTimeMillis() - lastReport >= reportMillis) {
+				printStats(out);
+				lastReport = System.currentTimeMillis();
+			}
+		}
+
+		running = false;
+		for (Stage<?, ?> stage: stages) {
+			stage.stop();
+		}
+		closeIndexes();
+		return indexed.get();
+	}
+
+	/**
+	 * Closes the indexes the index workers made, once they have stopped;
+	 * the next run makes new ones.
+	 */
+	private void closeIndexes() {
+		synchronized (opened) {
+			for (SearchIndex index: opened) {
+				if (index instanceof Closeable) {
+					try {
+						((Closeable) index).close();
+					} catch (IOException e) {
+						System.err.println("Warning: couldn't close an index: " + e);
+					}
+				}
+			}
+			opened.clear();
+		}
+	}
+
+	/**
+	 * Prints queue depth and throughput for each stage.
+	 *
+	 * The bottleneck is usually the first stage whose input queue is full
+	 * while the queue after it is empty.
+	 *
+	 * @param out
+	 */
+	public void printStats(PrintStream out) {
+		out.println("frontier=" + frontier.size() + " indexed=" + indexed.get());
+		for (Stage<?, ?> stage: stages) {
+			out.println("    " + stage);
+		}
+	}
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Jedis jedis = JedisMaker.make();
+		JedisIndex index = new JedisIndex(jedis);
+		index.deleteAllKeys();
+		jedis.close();
+
+		// all the index workers share one detector
+		final DuplicateDetector detector = new DuplicateDetector();
+		IndexFactory factory = new IndexFactory() {
+			@Override
+			public SearchIndex make() throws IOException {
+				JedisIndex index = new JedisIndex(JedisMaker.make());
+				index.setDuplicateDetector(detector);
+				return index;
+			}
+		};
+
+		String source = "https://en.wikipedia.org/wiki/Main_Page";
+		CrawlPipeline pipeline = new CrawlPipeline(source, factory, 100, 4, 2, 2, 2);
+		long count = pipeline.run(10000, 5000, System.out);
+		pipeline.printStats(System.out);
+		System.out.print(Metrics.global().dump());
+		System.out.println("Indexed " + count + " pages");
+
+		// save the links for PageRank
+		pipeline.getLinkGraph().save(new File("linkgraph.bin"));
+	}
+}
@@ -0,0 +1,162 @@
+package com.flatironschool.javacs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Finds pages whose SimHash fingerprints are within a few bits of a page
+ * we have already seen.
+ *
+ * The 64-bit fingerprints are cut into `maxDistance + 1` bands.  If two
+ * fingerprints differ in at most `maxDistance` bits, at least one band
+ * has no differing bits at all, so it is enough to look up each band of
+ * the new fingerprint in a hash table and check the (few) pages that
+ * share it.  A lookup costs maxDistance + 1 hash probes.
+ *
+ */
+public class DuplicateDetector {
+
+	private final int maxDistance;
+	private final int bands;
+	private final int bandBits;
+
+	// map from band number and band value to ids of pages with that band
+	private final Map<Long, List<Integer>> table = new HashMap<Long, List<Integer>>();
+
+	// fingerprint and label of each page, by id
+	private long[] fingerprints = new long[16];
+	private final List<String> labels = new ArrayList<String>();
+	private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxDistance  Largest number of differing bits that still counts
+	 *                     as a duplicate.
+	 */
+	public DuplicateDetector(int maxDistance) {
+		if (maxDistance < 0 || maxDistance > 15) {
+			throw new IllegalArgumentException("maxDistance must be between 0 and 15");
+		}
+		this.maxDistance = maxDistance;
+		this.bands = maxDistance + 1;
+		this.bandBits = 64 / bands;
+	}
+
+	/**
+	 * Makes a detector that treats fingerprints within 3 bits as duplicates.
+	 */
+	public DuplicateDetector() {
+		this(3);
+	}
+
+	/**
+	 * Looks for a near duplicate of a page; if there is none, remembers the page.
+	 *
+	 * @param label        URL of the page.
+	 * @param fingerprint  Its SimHash fingerprint.
+	 * @return The label of the original page, or null if this page is new.
+	 */
+	public synchronized String findOrAdd(String label, long fingerprint) {
+		Integer self = ids.get(label);
+		String original = find(fingerprint, self);
+		if (original != null) {
+			return original;
+		}
+		if (self == null) {
+			add(label, fingerprint);
+		} else {
+			// the page changed since we last saw it
+			remove(self);
+			fingerprints[self] = fingerprint;
+			insert(self);
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the label of a page within maxDistance bits, or null.
+	 *
+	 * @param fingerprint
+	 * @return
+	 */
+	public synchronized String find(long fingerprint) {
+		return find(fingerprint, null);
+	}
+
+	/**
+	 * Returns the number of distinct pages the detector knows about.
+	 *
+	 * @return
+	 */
+	public synchronized int size() {
+		return labels.size();
+	}
+
+	private String find(long fingerprint, Integer exclude) {
+		for (int band=0; band<bands; band++) {
+			List<Integer> candidates = table.get(bandKey(band, fingerprint));
+			if (candidates == null) {
+				continue;
+			}
+			for (int id: candidates) {
+				if (exclude != null && id == exclude) {
+					continue;
+				}
+				if (SimHash.distance(fingerprint, fingerprints[id]) <= maxDistance) {
+					return labels.get(id);
+				}
+			}
+		}
+		return null;
+	}
+
+	private void add(String label, long fingerprint) {
+		int id = labels.size();
+		if (id == fingerprints.length) {
+			fingerprints = Arrays.copyOf(fingerprints, id * 2);
+		}
+		fingerprints[id] = fingerprint;
+		labels.add(label);
+		ids.put(label, id);
+		insert(id);
+	}
+
+	private void insert(int id) {
+		for (int band=0; band<bands; band++) {
+			Long key = bandKey(band, fingerprints[id]);
+			List<Integer> list = table.get(key);
+			if (list == null) {
+				list = new ArrayList<Integer>(1);
+				table.put(key, list);
+			}
+			list.add(id);
+		}
+	}
+
+	private void remove(int id) {
+		for (int band=0; band<bands; band++) {
+			List<Integer> list = table.get(bandKey(band, fingerprints[id]));
+			if (list != null) {
+				list.remove(Integer.valueOf(id));
+			}
+		}
+	}
+
+	/**
+	 * Combines the band number with the bits of the fingerprint in that band.
+	 *
+	 * The last band also takes the leftover bits when 64 doesn't divide evenly.
+	 */
+	private long bandKey(int band, long fingerprint) {
+		int shift = band * bandBits;
+		int width = (band == bands - 1) ? 64 - shift : bandBits;
+		long mask = (width == 64) ? -1L : (1L << width) - 1;
+		long value = (fingerprint >>> shift) & mask;
+		return value * 31 + band;
+	}
+}
@@ -0,0 +1,88 @@
+package com.flatironschool.javacs;
+
+
+/**
+ * Replaces accented Latin letters with their plain ASCII equivalents, so
+ * accented and unaccented spellings of a word count as the same term.
+ *
+ * Covers Latin-1 and Latin Extended-A, which is where almost all the
+ * accented letters on English Wikipedia come from.  Expects lower case
+ * input, and always produces lower case.
+ *
+ */
+public class FoldingFilter implements TokenFilter {
+
+	private static final char FIRST = '\u00C0';
+	private static final char LAST = '\u017F';
+
+	// folded form of each char from FIRST to LAST, or null to leave it alone
+	private static final String[] FOLDED = new String[LAST - FIRST + 1];
+
+	static {
+		fold('\u00C0', '\u00C5', "a"); fold('\u00C6', "ae"); fold('\u00C7', "c");
+		fold('\u00C8', '\u00CB', "e"); fold('\u00CC', '\u00CF', "i"); fold('\u00D0', "d");
+		fold('\u00D1', "n"); fold('\u00D2', '\u00D6', "o"); fold('\u00D8', "o");
+		fold('\u00D9', '\u00DC', "u"); fold('\u00DD', "y"); fold('\u00DE', "th");
+		fold('\u00DF', "ss");
+		fold('\u00E0', '\u00E5', "a"); fold('\u00E6', "ae"); fold('\u00E7', "c");
+		fold('\u00E8', '\u00EB', "e"); fold('\u00EC', '\u00EF', "i"); fold('\u00F0', "d");
+		fold('\u00F1', "n"); fold('\u00F2', '\u00F6', "o"); fold('\u00F8', "o");
+		fold('\u00F9', '\u00FC', "u"); fold('\u00FD', "y"); fold('\u00FE', "th");
+		fold('\u00FF', "y");
+
+		fold('\u0100', '\u0105', "a"); fold('\u0106', '\u010D', "c"); fold('\u010E', '\u0111', "d");
+		fold('\u0112', '\u011B', "e"); fold('\u011C', '\u0123', "g"); fold('\u0124', '\u0127', "h");
+		fold('\u0128', '\u0131', "i"); fold('\u0132', '\u0133', "ij"); fold('\u0134', '\u0135', "j");
+		fold('\u0136', '\u0138', "k"); fold('\u0139', '\u0142', "l"); fold('\u0143', '\u014B', "n");
+		fold('\u014C', '\u0151', "o"); fold('\u0152', '\u0153', "oe"); fold('\u0154', '\u0159', "r");
+		fold('\u015A', '\u0161', "s"); fold('\u0162', '\u0167', "t"); fold('\u0168', '\u0173', "u");
+		fold('\u0174', '\u0175', "w"); fold('\u0176', '\u0178', "y"); fold('\u0179', '\u017E', "z");
+		fold('\u017F', "s");
+	}
+
+	private static void fold(char c, String folded) {
+		FOLDED[c - FIRST] = folded;
+	}
+
+	private static void fold(char from, char to, String folded) {
+		for (char c=from; c<=to; c++) {
+			fold(c, folded);
+		}
+	}
+
+	@Override
+	public boolean filter(Token token) {
+		// most tokens are plain ASCII; check before doing any work
+		int n = token.length();
+		int extra = 0;
+		boolean found = false;
+		for (int i=0; i<n; i++) {
+			char c = token.charAt(i);
+			if (c >= FIRST && c <= LAST && FOLDED[c - FIRST] != null) {
+				found = true;
+				extra += FOLDED[c - FIRST].length() - 1;
+			}
+		}
+		if (!found) {
+			return true;
+		}
+
+		// make room, then fill from the back so nothing is overwritten early
+		for (int i=0; i<extra; i++) {
+			token.append(' ');
+		}
+		int dest = n + extra;
+		for (int i=n-1; i>=0; i--) {
+			char c = token.charAt(i);
+			String folded = (c >= FIRST && c <= LAST) ? FOLDED[c - FIRST] : null;
+			if (folded == null) {
+				token.setCharAt(--dest, c);
+			} else {
+				for (int j=folded.length()-1; j>=0; j--) {
+					token.setCharAt(--dest, folded.charAt(j));
+				}
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,174 @@
+package com.flatironschool.javacs;
+
+import redis.clients.util.SafeEncoder;
+
+
+/**
+ * Encodes the term frequencies stored in each page's TermCounter hash.
+ *
+ * DECIMAL is what the index has always stored: Double.toString of the
+ * frequency, 15 to 20 bytes.  HALF_FLOAT stores it as a 2-byte float16,
+ * big-endian, which is within 0.05% of the value for any frequency above
+ * 6e-5.  The small values keep a page's hash in Redis's compact
+ * listpack encoding as long as it has few enough fields (see
+ * hash-max-listpack-entries), and cut the memory of a large index by
+ * more than half.
+ *
+ * decode() reads either one, telling them apart by length (a decimal is
+ * never shorter than "0.0"), so an index can be switched to HALF_FLOAT
+ * with pages of both kinds in it.  Neither is decoded through a String.
+ *
+ * The encoding used for writing defaults to the system property
+ * index.frequencyEncoding ("decimal" or "half"), or DECIMAL.
+ *
+ */
+public class FrequencyCodec {
+
+	public enum Encoding { DECIMAL, HALF_FLOAT }
+
+	private static volatile Encoding encoding =
+			"half".equalsIgnoreCase(System.getProperty("index.frequencyEncoding"))
+			? Encoding.HALF_FLOAT : Encoding.DECIMAL;
+
+	// powers of ten a double holds exactly
+	private static final double[] POWERS_OF_TEN = new double[23];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i=1; i<POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	private FrequencyCodec() {
+	}
+
+	/**
+	 * Sets how frequencies written from now on are encoded.
+	 *
+	 * @param e
+	 */
+	public static void setEncoding(Encoding e) {
+		encoding = e;
+	}
+
+	public static Encoding getEncoding() {
+		return encoding;
+	}
+
+	/**
+	 * Encodes a frequency with the current encoding.
+	 *
+	 * @param frequency
+	 * @return
+	 */
+	public static byte[] encode(double frequency) {
+		if (encoding == Encoding.HALF_FLOAT) {
+			short half = HalfFloat.fromFloat((float) frequency);
+			return new byte[] {(byte) (half >>> 8), (byte) half};
+		}
+		return SafeEncoder.encode(Double.toString(frequency));
+	}
+
+	/**
+	 * Decodes a stored frequency in either encoding.
+	 *
+	 * @param value  The bytes Redis returned.
+	 * @return
+	 * @throws NumberFormatException if it is neither.
+	 */
+	public static double decode(byte[] value) {
+		if (value.length == 2) {
+			return HalfFloat.toFloat((short) (((value[0] & 0xFF) << 8) | (value[1] & 0xFF)));
+		}
+		return parseDecimal(value);
+	}
+
+	/**
+	 * Parses a decimal such as "0.0123" or "1.5E-4".
+	 *
+	 * Up to 18 significant digits and an exponent that a double can scale
+	 * by exactly are parsed here, correctly rounded; anything else goes to
+	 * Double.parseDouble.
+	 */
+	static double parseDecimal(byte[] value) {
+		int i = 0;
+		int n = value.length;
+		boolean negative = false;
+		if (i < n && (value[i] == '-' || value[i] == '+')) {
+			negative = value[i] == '-';
+			i++;
+		}
+		long digits = 0;
+		int significant = 0;
+		int scale = 0;
+		boolean seenDigit = false;
+		boolean seenPoint = false;
+		for (; i < n; i++) {
+			byte b = value[i];
+			if (b >= '0' && b <= '9') {
+				seenDigit = true;
+				if (digits == 0 && b == '0') {
+					if (seenPoint) {
+						scale--;
+					}
+					continue;
+				}
+				if (significant == 18) {
+					return slowParse(value);
+				}
+				digits = digits * 10 + (b - '0');
+				significant++;
+				if (seenPoint) {
+					scale--;
+				}
+			} else if (b == '.' && !seenPoint) {
+				seenPoint = true;
+			} else {
+				break;
+			}
+		}
+		if (!seenDigit) {
+			return slowParse(value);
+		}
+		if (i < n) {
+			if (value[i] != 'E' && value[i] != 'e') {
+				return slowParse(value);
+			}
+			i++;
+			boolean negativeExponent = false;
+			if (i < n && (value[i] == '-' || value[i] == '+')) {
+				negativeExponent = value[i] == '-';
+				i++;
+			}
+			if (i == n) {
+				return slowParse(value);
+			}
+			int exponent = 0;
+			for (; i < n; i++) {
+				byte b = value[i];
+				if (b < '0' || b > '9' || exponent > 1000) {
+					return slowParse(value);
+				}
+				exponent = exponent * 10 + (b - '0');
+			}
+			scale += negativeExponent ? -exponent : exponent;
+		}
+
+		double result;
+		if (digits == 0) {
+			result = 0;
+		} else if (digits >= (1L << 53) || Math.abs(scale) >= POWERS_OF_TEN.length) {
+			return slowParse(value);
+		} else if (scale < 0) {
+			// both operands are exact, so the quotient is correctly rounded
+			result = digits / POWERS_OF_TEN[-scale];
+		} else {
+			result = digits * POWERS_OF_TEN[scale];
+		}
+		return negative ? -result : result;
+	}
+
+	private static double slowParse(byte[] value) {
+		return Double.parseDouble(SafeEncoder.encode(value));
+	}
+}
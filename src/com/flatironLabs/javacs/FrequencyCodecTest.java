@@ -0,0 +1,150 @@
+package com.flatironschool.javacs;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import redis.clients.util.SafeEncoder;
+
+/**
+ * Checks that FrequencyCodec.parseDecimal gives exactly what
+ * Double.parseDouble does, on the fast path and on every way of falling
+ * back to it.
+ *
+ */
+public class FrequencyCodecTest {
+
+	private final Random random = new Random(17);
+
+	@After
+	public void tearDown() {
+		FrequencyCodec.setEncoding(FrequencyCodec.Encoding.DECIMAL);
+	}
+
+	/**
+	 * Asserts that parseDecimal(s) is Double.parseDouble(s), bit for bit,
+	 * so a wrong sign on zero or a different NaN would fail too.
+	 */
+	private static void checkParse(String s) {
+		double expected = Double.parseDouble(s);
+		double actual = FrequencyCodec.parseDecimal(SafeEncoder.encode(s));
+		assertThat(s, Double.doubleToRawLongBits(actual), is(Double.doubleToRawLongBits(expected)));
+	}
+
+	private static void checkToString(double d) {
+		checkParse(Double.toString(d));
+	}
+
+	@Test
+	public void testFrequencies() {
+		// what TermCounter stores: a count over a page length
+		for (int length=1; length<2000; length++) {
+			for (int count=0; count<=length; count+=1+length/50) {
+				checkToString((double) count / length);
+			}
+		}
+		for (int i=0; i<100000; i++) {
+			checkToString(random.nextDouble());
+		}
+	}
+
+	@Test
+	public void testENotation() {
+		// Double.toString switches to E-notation below 1e-3 and from 1e7
+		for (int i=0; i<100000; i++) {
+			checkToString(random.nextDouble() * 1e-3);
+			checkToString(random.nextDouble() * Math.pow(10, -random.nextInt(30)));
+			checkToString(1e7 + random.nextDouble() * Math.pow(10, random.nextInt(30)));
+		}
+		checkToString(1e-3);
+		checkToString(9.999999999999998E-4);
+		checkToString(1e7);
+		checkToString(9999999.999999998);
+		checkToString(1.5E-4);
+		checkParse("1.5e-4");
+		checkParse("1.5E+4");
+		checkParse("15E-5");
+	}
+
+	@Test
+	public void testAnyDouble() {
+		for (int i=0; i<200000; i++) {
+			checkToString(Double.longBitsToDouble(random.nextLong()));
+		}
+		checkToString(0.0);
+		checkToString(-0.0);
+		checkToString(1.0);
+		checkToString(-1.0);
+		checkToString(Double.MIN_VALUE);
+		checkToString(Double.MIN_NORMAL);
+		checkToString(Double.MAX_VALUE);
+		checkToString(Math.ulp(1.0));
+		checkToString(1.0 - Math.ulp(1.0) / 2);
+	}
+
+	@Test
+	public void testSlowPath() {
+		// more than 18 significant digits
+		checkParse("0.1234567890123456789");
+		checkParse("1234567890123456789.0");
+		checkParse("0.30000000000000000000000001");
+		// 18 digits, but not below 2^53
+		checkParse("9007199254740993");
+		checkParse("0.999999999999999999");
+		checkParse("123456789012345678E-30");
+		// exponents a double can't scale by exactly
+		checkParse("1.0E23");
+		checkParse("1.0E-23");
+		checkParse("4.9E-324");
+		checkParse("2.2250738585072014E-308");
+		checkParse("1.7976931348623157E308");
+		checkParse("1.0E400");
+		checkParse("1.0E-400");
+		checkParse("1.0E99999999999");
+		// leading zeros don't count as significant digits
+		checkParse("0.00000000000000000000012345");
+		checkParse("000000000000000000000000001.5");
+		// not digits at all
+		checkParse("NaN");
+		checkParse("Infinity");
+		checkParse("-Infinity");
+		checkParse("+0.5");
+		checkParse("-0.0");
+		checkParse(".5");
+		checkParse("5.");
+	}
+
+	@Test
+	public void testBadInput() {
+		for (String s: new String[] {"", "-", ".", "E5", "1E", "1E+", "1.5x", "1..5", "1E5.5"}) {
+			try {
+				FrequencyCodec.parseDecimal(SafeEncoder.encode(s));
+				fail("parsed \"" + s + "\"");
+			} catch (NumberFormatException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testEncodings() {
+		FrequencyCodec.setEncoding(FrequencyCodec.Encoding.DECIMAL);
+		for (int i=0; i<10000; i++) {
+			double d = random.nextDouble();
+			assertThat(FrequencyCodec.decode(FrequencyCodec.encode(d)), is(d));
+		}
+
+		FrequencyCodec.setEncoding(FrequencyCodec.Encoding.HALF_FLOAT);
+		for (int i=0; i<10000; i++) {
+			double d = random.nextDouble();
+			byte[] encoded = FrequencyCodec.encode(d);
+			assertThat(encoded.length, is(2));
+			double decoded = FrequencyCodec.decode(encoded);
+			assertThat(Math.abs(decoded - d) <= 0.0005 * d || d < 6.1e-5, is(true));
+		}
+	}
+}
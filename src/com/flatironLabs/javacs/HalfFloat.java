@@ -0,0 +1,87 @@
+package com.flatironschool.javacs;
+
+
+/**
+ * Converts between float and IEEE 754 half precision (float16), stored
+ * in the low 16 bits of a short.
+ *
+ * A half has an 11-bit significand, about three decimal digits, and
+ * normal values from 6.1e-5 to 65504; smaller values down to 6e-8 are
+ * kept with less precision.  Conversion rounds to nearest, ties to even.
+ *
+ */
+public class HalfFloat {
+
+	private HalfFloat() {
+	}
+
+	/**
+	 * Converts a float to the nearest half.
+	 *
+	 * @param f
+	 * @return
+	 */
+	public static short fromFloat(float f) {
+		int bits = Float.floatToRawIntBits(f);
+		int sign = (bits >>> 16) & 0x8000;
+		int exponent = (bits >>> 23) & 0xFF;
+		int mantissa = bits & 0x7FFFFF;
+
+		if (exponent == 0xFF) {
+			// infinity, or NaN with a quiet bit set so it stays NaN
+			return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));
+		}
+		int e = exponent - 127 + 15;
+		if (e >= 0x1F) {
+			return (short) (sign | 0x7C00);
+		}
+		if (e <= 0) {
+			if (e < -10) {
+				return (short) sign;
+			}
+			// subnormal: shift the significand, with its implicit bit, into place
+			int m = mantissa | 0x800000;
+			int shift = 14 - e;
+			int half = m >>> shift;
+			int rest = m & ((1 << shift) - 1);
+			int midpoint = 1 << (shift - 1);
+			if (rest > midpoint || (rest == midpoint && (half & 1) != 0)) {
+				half++;
+			}
+			return (short) (sign | half);
+		}
+		int half = (e << 10) | (mantissa >>> 13);
+		int rest = mantissa & 0x1FFF;
+		if (rest > 0x1000 || (rest == 0x1000 && (half & 1) != 0)) {
+			// may carry into the exponent, which is still the right answer
+			half++;
+		}
+		return (short) (sign | half);
+	}
+
+	/**
+	 * Converts a half to a float, exactly.
+	 *
+	 * @param half
+	 * @return
+	 */
+	public static float toFloat(short half) {
+		int h = half & 0xFFFF;
+		int sign = (h & 0x8000) << 16;
+		int exponent = (h >>> 10) & 0x1F;
+		int mantissa = h & 0x3FF;
+
+		if (exponent == 0x1F) {
+			return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+		}
+		if (exponent == 0) {
+			if (mantissa == 0) {
+				return Float.intBitsToFloat(sign);
+			}
+			// subnormal: mantissa x 2^-24
+			float f = mantissa * 5.9604645e-8f;
+			return sign == 0 ? f : -f;
+		}
+		return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+	}
+}
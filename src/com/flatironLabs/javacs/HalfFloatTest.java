@@ -0,0 +1,98 @@
+package com.flatironschool.javacs;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Checks HalfFloat on every one of the 65536 halves and at the edges of
+ * the subnormal and overflow ranges.
+ *
+ */
+public class HalfFloatTest {
+
+	private static final short MAX_VALUE = 0x7BFF;
+	private static final short INFINITY = 0x7C00;
+	private static final short MIN_NORMAL = 0x0400;
+
+	private static String hex(int half) {
+		return String.format("0x%04X", half & 0xFFFF);
+	}
+
+	@Test
+	public void testRoundTrip() {
+		for (int h=0; h<0x10000; h++) {
+			short half = (short) h;
+			float f = HalfFloat.toFloat(half);
+			if ((h & 0x7C00) == 0x7C00 && (h & 0x3FF) != 0) {
+				// NaNs stay NaN, though not with the same payload
+				assertThat(hex(h), Float.isNaN(f), is(true));
+				assertThat(hex(h), Float.isNaN(HalfFloat.toFloat(HalfFloat.fromFloat(f))), is(true));
+			} else {
+				assertThat(hex(h), HalfFloat.fromFloat(f), is(half));
+			}
+		}
+	}
+
+	@Test
+	public void testRounding() {
+		// halfway between two neighbouring halves goes to the even one, and
+		// anything off the midpoint goes to the nearer one
+		for (int h=0; h<MAX_VALUE; h++) {
+			float low = HalfFloat.toFloat((short) h);
+			float high = HalfFloat.toFloat((short) (h + 1));
+			float middle = (low + high) / 2;
+			short even = (short) ((h & 1) == 0 ? h : h + 1);
+			assertThat(hex(h), HalfFloat.fromFloat(middle), is(even));
+			assertThat(hex(h), HalfFloat.fromFloat(Math.nextDown(middle)), is((short) h));
+			assertThat(hex(h), HalfFloat.fromFloat(Math.nextUp(middle)), is((short) (h + 1)));
+			assertThat(hex(h), HalfFloat.fromFloat(-middle), is((short) (even | 0x8000)));
+		}
+	}
+
+	@Test
+	public void testSubnormal() {
+		float smallest = (float) Math.pow(2, -24);
+		assertThat(HalfFloat.toFloat((short) 1), is(smallest));
+		assertThat(HalfFloat.fromFloat(smallest), is((short) 1));
+		// half the smallest is a tie, and 0 is even
+		assertThat(HalfFloat.fromFloat(smallest / 2), is((short) 0));
+		assertThat(HalfFloat.fromFloat(Math.nextUp(smallest / 2)), is((short) 1));
+		assertThat(HalfFloat.fromFloat(smallest / 4), is((short) 0));
+		assertThat(HalfFloat.fromFloat(Float.MIN_VALUE), is((short) 0));
+		assertThat(HalfFloat.fromFloat(-Float.MIN_VALUE), is((short) 0x8000));
+
+		float normal = (float) Math.pow(2, -14);
+		assertThat(HalfFloat.toFloat(MIN_NORMAL), is(normal));
+		assertThat(HalfFloat.fromFloat(normal), is(MIN_NORMAL));
+		assertThat(HalfFloat.toFloat((short) 0x03FF), is(normal - smallest));
+		// between the largest subnormal and the smallest normal
+		assertThat(HalfFloat.fromFloat(normal - smallest / 2), is(MIN_NORMAL));
+		assertThat(HalfFloat.fromFloat(Math.nextDown(normal - smallest / 2)), is((short) 0x03FF));
+	}
+
+	@Test
+	public void testOverflow() {
+		assertThat(HalfFloat.toFloat(MAX_VALUE), is(65504f));
+		assertThat(HalfFloat.fromFloat(65504f), is(MAX_VALUE));
+		// 65520 is halfway to the next power of two, and MAX_VALUE is odd
+		assertThat(HalfFloat.fromFloat(Math.nextDown(65520f)), is(MAX_VALUE));
+		assertThat(HalfFloat.fromFloat(65520f), is(INFINITY));
+		assertThat(HalfFloat.fromFloat(65536f), is(INFINITY));
+		assertThat(HalfFloat.fromFloat(Float.MAX_VALUE), is(INFINITY));
+		assertThat(HalfFloat.fromFloat(-65520f), is((short) (INFINITY | 0x8000)));
+
+		assertThat(HalfFloat.fromFloat(Float.POSITIVE_INFINITY), is(INFINITY));
+		assertThat(HalfFloat.fromFloat(Float.NEGATIVE_INFINITY), is((short) (INFINITY | 0x8000)));
+		assertThat(HalfFloat.toFloat(INFINITY), is(Float.POSITIVE_INFINITY));
+		assertThat(Float.isNaN(HalfFloat.toFloat(HalfFloat.fromFloat(Float.NaN))), is(true));
+	}
+
+	@Test
+	public void testZero() {
+		assertThat(HalfFloat.fromFloat(0f), is((short) 0));
+		assertThat(HalfFloat.fromFloat(-0f), is((short) 0x8000));
+		assertThat(Float.floatToRawIntBits(HalfFloat.toFloat((short) 0x8000)), is(Float.floatToRawIntBits(-0f)));
+	}
+}
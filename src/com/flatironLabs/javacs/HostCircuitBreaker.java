@@ -0,0 +1,226 @@
+package com.flatironschool.javacs;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Stops fetching from hosts that keep failing, for a while.
+ *
+ * Each host starts closed (requests go through).  After `threshold`
+ * failures in a row it opens: requests are refused without touching the
+ * network until a cooldown passes.  Then one trial request is let
+ * through; if it succeeds the host is closed again, and if it fails the
+ * host opens for twice as long, up to `maxCooldown`.
+ *
+ * Failures are what the caller reports; WikiFetcher reports timeouts,
+ * connection errors and 5xx responses, not 404s.  One breaker is shared
+ * by all the fetchers that use global(), so every fetch thread learns
+ * about a bad host at once.
+ *
+ */
+public class HostCircuitBreaker {
+
+	private static final HostCircuitBreaker GLOBAL = new HostCircuitBreaker(5, 30, 600, TimeUnit.SECONDS);
+
+	// how often to check back while a trial request is running
+	private static final long TRIAL_POLL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private static final Metrics.Counter OPENED = Metrics.global().counter("fetch.breaker.opened");
+	private static final Metrics.Counter REFUSED = Metrics.global().counter("fetch.breaker.refused");
+
+	/**
+	 * Thrown instead of fetching from a host whose breaker is open.
+	 */
+	public static class OpenException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		private final String host;
+		private final long retryAfterNanos;
+
+		public OpenException(String host, long retryAfterNanos) {
+			super("Host is parked after repeated failures: " + host);
+			this.host = host;
+			this.retryAfterNanos = retryAfterNanos;
+		}
+
+		public String getHost() {
+			return host;
+		}
+
+		/**
+		 * Returns how long to wait before trying the host again.
+		 *
+		 * @param unit
+		 * @return
+		 */
+		public long getRetryAfter(TimeUnit unit) {
+			return unit.convert(retryAfterNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private static class State {
+		int failures;
+		long openUntil;
+		long cooldown;
+		// start of the trial request while half open, or 0
+		long trialStart;
+	}
+
+	private final int threshold;
+	private final long cooldownNanos;
+	private final long maxCooldownNanos;
+	private final ConcurrentMap<String, State> hosts = new ConcurrentHashMap<String, State>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param threshold    Failures in a row that open the breaker.
+	 * @param cooldown     How long it stays open the first time.
+	 * @param maxCooldown  The most it stays open.
+	 * @param unit
+	 */
+	public HostCircuitBreaker(int threshold, long cooldown, long maxCooldown, TimeUnit unit) {
+		this.threshold = threshold;
+		this.cooldownNanos = unit.toNanos(cooldown);
+		this.maxCooldownNanos = unit.toNanos(maxCooldown);
+	}
+
+	/**
+	 * Returns the breaker shared by WikiFetchers: 5 failures, 30 seconds
+	 * to 10 minutes open.
+	 *
+	 * @return
+	 */
+	public static HostCircuitBreaker global() {
+		return GLOBAL;
+	}
+
+	private State state(String host) {
+		State state = hosts.get(host);
+		if (state == null) {
+			State created = new State();
+			state = hosts.putIfAbsent(host, created);
+			if (state == null) {
+				state = created;
+			}
+		}
+		return state;
+	}
+
+	/**
+	 * Checks whether a request to a host may go ahead; if so, the caller
+	 * must report how it went with success() or failure().
+	 *
+	 * @param host
+	 * @return False if the host is parked.
+	 */
+	public boolean allow(String host) {
+		State state = state(host);
+		synchronized (state) {
+			if (state.openUntil == 0) {
+				return true;
+			}
+			long now = System.nanoTime();
+			// one trial at a time; a trial that never reported gets replaced
+			if (now - state.openUntil >= 0
+					&& (state.trialStart == 0 || now - state.trialStart >= state.cooldown)) {
+				state.trialStart = now;
+				return true;
+			}
+		}
+		REFUSED.increment();
+		return false;
+	}
+
+	/**
+	 * Returns how long until allow() may let a request to a host through:
+	 * 0 if the breaker is closed, the rest of the cooldown if it is open,
+	 * and a short while if a trial request is running, since that will
+	 * usually settle it soon.
+	 *
+	 * @param host
+	 * @param unit
+	 * @return
+	 */
+	public long retryAfter(String host, TimeUnit unit) {
+		State state = hosts.get(host);
+		if (state == null) {
+			return 0;
+		}
+		long nanos;
+		synchronized (state) {
+			if (state.openUntil == 0) {
+				return 0;
+			}
+			long now = System.nanoTime();
+			if (now - state.openUntil < 0) {
+				nanos = state.openUntil - now;
+			} else if (state.trialStart != 0) {
+				nanos = Math.min(TRIAL_POLL_NANOS, state.trialStart + state.cooldown - now);
+			} else {
+				nanos = 0;
+			}
+		}
+		return unit.convert(Math.max(0, nanos), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Reports that a request to a host worked, which closes its breaker.
+	 *
+	 * @param host
+	 */
+	public void success(String host) {
+		State state = state(host);
+		synchronized (state) {
+			state.failures = 0;
+			state.openUntil = 0;
+			state.cooldown = 0;
+			state.trialStart = 0;
+		}
+	}
+
+	/**
+	 * Reports that a request to a host failed.
+	 *
+	 * @param host
+	 */
+	public void failure(String host) {
+		State state = state(host);
+		synchronized (state) {
+			state.failures++;
+			if (state.openUntil != 0 && state.trialStart == 0) {
+				// a request that started before the breaker opened
+				return;
+			}
+			boolean trialFailed = state.trialStart != 0;
+			if (!trialFailed && state.failures < threshold) {
+				return;
+			}
+			state.cooldown = state.cooldown == 0 ? cooldownNanos
+					: Math.min(maxCooldownNanos, state.cooldown * 2);
+			state.openUntil = System.nanoTime() + state.cooldown;
+			state.trialStart = 0;
+		}
+		OPENED.increment();
+	}
+
+	/**
+	 * Returns true if a host's breaker is open, including while a trial
+	 * request is running.
+	 *
+	 * @param host
+	 * @return
+	 */
+	public boolean isOpen(String host) {
+		State state = hosts.get(host);
+		if (state == null) {
+			return false;
+		}
+		synchronized (state) {
+			return state.openUntil != 0;
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package com.flatironschool.javacs;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Spaces out requests to each host.
+ *
+ * Each request takes the next free slot for its host, at least
+ * `interval` after the one before, and waits for it.  Threads that ask
+ * at the same time get successive slots, so a host sees no more than one
+ * request per interval however many threads are fetching from it.
+ *
+ * One limiter is shared by all the fetchers that use global(), like the
+ * HostCircuitBreaker, so adding fetch threads doesn't add load on a host.
+ *
+ */
+public class HostRateLimiter {
+
+	private static final HostRateLimiter GLOBAL = new HostRateLimiter(1, TimeUnit.SECONDS);
+
+	private static final Metrics.Histogram WAIT_TIME = Metrics.global().timer("fetch.rateLimit.wait");
+
+	private static class State {
+		// when the next request may start
+		long next;
+
+		State(long now) {
+			this.next = now;
+		}
+	}
+
+	private final long intervalNanos;
+	private final ConcurrentMap<String, State> hosts = new ConcurrentHashMap<String, State>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param interval  Least time between requests to a host; 0 for no limit.
+	 * @param unit
+	 */
+	public HostRateLimiter(long interval, TimeUnit unit) {
+		this.intervalNanos = unit.toNanos(interval);
+	}
+
+	/**
+	 * Returns the limiter shared by WikiFetchers: one request per second
+	 * to each host.
+	 *
+	 * @return
+	 */
+	public static HostRateLimiter global() {
+		return GLOBAL;
+	}
+
+	private State state(String host, long now) {
+		State state = hosts.get(host);
+		if (state == null) {
+			State created = new State(now);
+			state = hosts.putIfAbsent(host, created);
+			if (state == null) {
+				state = created;
+			}
+		}
+		return state;
+	}
+
+	/**
+	 * Waits until a request to a host may start.
+	 *
+	 * @param host
+	 * @throws InterruptedException
+	 */
+	public void acquire(String host) throws InterruptedException {
+		if (intervalNanos <= 0) {
+			return;
+		}
+		long now = System.nanoTime();
+		State state = state(host, now);
+		long slot;
+		synchronized (state) {
+			slot = now - state.next >= 0 ? now : state.next;
+			state.next = slot + intervalNanos;
+		}
+		long wait = slot - now;
+		if (wait > 0) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+		WAIT_TIME.record(wait);
+	}
+}
@@ -0,0 +1,677 @@
+package com.flatironschool.javacs;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.jsoup.select.Elements;
+
+
+/**
+ * An index held in the JVM, split into shards by document, that runs each
+ * query on all the shards in parallel.
+ *
+ * Pages get document ids in the order they are indexed.  The ids are cut
+ * into ranges of RANGE_SIZE, and the ranges are dealt to the shards in
+ * turn, so the shards stay the same size while the index grows.  Each
+ * shard has its own postings: for every term, the shard's pages that
+ * contain it, in document order, with their term frequencies.
+ *
+ * search() evaluates a query on every shard at once with fork/join, the
+ * same way Query.evaluate combines WikiSearch results, but by merging
+ * sorted arrays instead of building HashMaps.  Each shard keeps only its
+ * own k best pages, and those are merged, so a query that matches much
+ * of the index costs about 1/shards of the single threaded version.
+ *
+ * Re-indexing a page marks its old copy deleted; the space is not
+ * reclaimed until the index is rebuilt.
+ *
+ */
+public class InMemoryIndex implements SearchIndex {
+
+	private static final Metrics METRICS = Metrics.global();
+	private static final Metrics.Histogram SEARCH_TIME = METRICS.timer("query.inMemory.latency");
+	private static final Metrics.Histogram SEARCH_RESULTS = METRICS.histogram("query.inMemory.results");
+	private static final Metrics.Histogram INDEX_TIME = METRICS.timer("index.page");
+
+	// consecutive document ids that go to the same shard
+	static final int RANGE_SIZE = 1024;
+
+	private final Shard[] shards;
+	private final ForkJoinPool pool;
+	private final AtomicInteger nextId = new AtomicInteger();
+	private final ConcurrentMap<String, Location> locations = new ConcurrentHashMap<String, Location>();
+	private final ConcurrentMap<String, String> aliases = new ConcurrentHashMap<String, String>();
+	private final List<IndexListener> listeners = new CopyOnWriteArrayList<IndexListener>();
+
+	/**
+	 * Constructor with one shard per core, searched on the common fork/join pool.
+	 */
+	public InMemoryIndex() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructor that searches on the common fork/join pool.
+	 *
+	 * @param shards
+	 */
+	public InMemoryIndex(int shards) {
+		this(shards, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param shards  Number of shards; about the number of cores is right.
+	 * @param pool    Where the shards are searched.
+	 */
+	public InMemoryIndex(int shards, ForkJoinPool pool) {
+		if (shards < 1) {
+			throw new IllegalArgumentException("shards " + shards);
+		}
+		this.shards = new Shard[shards];
+		for (int i=0; i<shards; i++) {
+			this.shards[i] = new Shard();
+		}
+		this.pool = pool;
+	}
+
+	/**
+	 * Builds an index from a snapshot written by JedisIndex.exportSnapshot.
+	 *
+	 * @param file
+	 * @param shards
+	 * @return
+	 * @throws IOException
+	 */
+	public static InMemoryIndex load(File file, int shards) throws IOException {
+		final InMemoryIndex index = new InMemoryIndex(shards);
+		IndexSnapshot.read(file, new IndexSnapshot.Visitor() {
+			private String url;
+			private String[] terms;
+			private double[] frequencies;
+			private int size;
+
+			@Override
+			public void startDocument(String url, int size) {
+				this.url = url;
+				this.terms = new String[size];
+				this.frequencies = new double[size];
+				this.size = 0;
+			}
+
+			@Override
+			public void term(String term, byte[] value) {
+				terms[size] = term;
+				frequencies[size] = FrequencyCodec.decode(value);
+				size++;
+			}
+
+			@Override
+			public void endDocument() {
+				index.add(url, terms, frequencies, size);
+			}
+
+			@Override
+			public void postings(String term, String[] urls) {
+				// rebuilt from the documents
+			}
+
+			@Override
+			public void alias(String url, String original) {
+				index.aliases.put(url, original);
+			}
+
+			@Override
+			public void staticRank(String url, byte[] value) {
+			}
+		});
+		return index;
+	}
+
+	/**
+	 * Returns the number of shards.
+	 *
+	 * @return
+	 */
+	public int shardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * Returns the number of pages in the index, not counting deleted copies.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return locations.size();
+	}
+
+	/**
+	 * Returns the number of postings held, including those of deleted copies.
+	 *
+	 * @return
+	 */
+	public long postingsCount() {
+		long count = 0;
+		for (Shard shard: shards) {
+			shard.lock.readLock().lock();
+			try {
+				for (Postings postings: shard.postings.values()) {
+					count += postings.size;
+				}
+			} finally {
+				shard.lock.readLock().unlock();
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public boolean isIndexed(String url) {
+		return locations.containsKey(url) || aliases.containsKey(url);
+	}
+
+	@Override
+	public void indexPage(String url, Elements paragraphs) {
+		long start = System.nanoTime();
+		TermCounter tc = new TermCounter(url);
+		tc.processElements(paragraphs);
+		indexTermCounter(tc);
+		INDEX_TIME.recordSince(start);
+	}
+
+	@Override
+	public void indexTermCounter(TermCounter tc) {
+		TermFrequencies frequencies = tc.seal();
+		int n = frequencies.size();
+		String[] terms = new String[n];
+		double[] values = new double[n];
+		for (int i=0; i<n; i++) {
+			terms[i] = frequencies.term(i);
+			values[i] = frequencies.frequency(i);
+		}
+		add(frequencies.getLabel(), terms, values, n);
+
+		for (IndexListener listener: listeners) {
+			listener.pageIndexed(frequencies);
+		}
+	}
+
+	@Override
+	public void addIndexListener(IndexListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Adds a page to the shard that owns its new document id, and deletes
+	 * its previous copy, if any.
+	 */
+	private void add(String url, String[] terms, double[] frequencies, int n) {
+		int id = nextId.getAndIncrement();
+		int s = (id / RANGE_SIZE) % shards.length;
+		Shard shard = shards[s];
+		int doc;
+		shard.lock.writeLock().lock();
+		try {
+			doc = shard.urls.size();
+			shard.urls.add(url);
+			for (int i=0; i<n; i++) {
+				Postings postings = shard.postings.get(terms[i]);
+				if (postings == null) {
+					postings = new Postings();
+					shard.postings.put(terms[i], postings);
+				}
+				postings.add(doc, frequencies[i]);
+			}
+		} finally {
+			shard.lock.writeLock().unlock();
+		}
+
+		Location old = locations.put(url, new Location(s, doc));
+		if (old != null) {
+			Shard previous = shards[old.shard];
+			previous.lock.writeLock().lock();
+			try {
+				previous.deleted.set(old.doc);
+			} finally {
+				previous.lock.writeLock().unlock();
+			}
+		}
+	}
+
+	@Override
+	public Map<String, Double> getCounts(String term) {
+		Map<String, Double> map = new HashMap<String, Double>();
+		for (Shard shard: shards) {
+			shard.lock.readLock().lock();
+			try {
+				Hits hits = shard.lookup(term);
+				for (int i=0; i<hits.size; i++) {
+					map.put(shard.urls.get(hits.docs[i]), hits.scores[i]);
+				}
+			} finally {
+				shard.lock.readLock().unlock();
+			}
+		}
+		return map;
+	}
+
+	@Override
+	public Map<String, Map<String, Double>> getCounts(Collection<String> terms) {
+		Map<String, Map<String, Double>> result = new HashMap<String, Map<String, Double>>();
+		for (String term: terms) {
+			if (!result.containsKey(term)) {
+				result.put(term, getCounts(term));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Runs a query and returns its k best results.
+	 *
+	 * @param text  A query such as "java and programming".
+	 * @param k
+	 * @return List of entries with URL and relevance, highest first.
+	 */
+	public List<Entry<String, Double>> search(String text, int k) {
+		return search(Query.parse(text), k);
+	}
+
+	/**
+	 * Runs a query on every shard in parallel and merges their k best
+	 * results.  Scores are the same as Query.evaluate over getCounts.
+	 *
+	 * @param query
+	 * @param k
+	 * @return List of entries with URL and relevance, highest first.
+	 */
+	public List<Entry<String, Double>> search(Query query, int k) {
+		long start = System.nanoTime();
+		List<Entry<String, Double>> result = new ArrayList<Entry<String, Double>>();
+		if (k > 0) {
+			result = pool.invoke(new SearchTask(query, k));
+		}
+		SEARCH_TIME.recordSince(start);
+		SEARCH_RESULTS.record(result.size());
+		QueryTrace trace = QueryTrace.current();
+		if (trace != null) {
+			trace.phase("search " + shards.length + " shards", start);
+			trace.size("results", result.size());
+		}
+		return result;
+	}
+
+	/**
+	 * Runs a query and returns all of its results.
+	 *
+	 * @param query
+	 * @return
+	 */
+	public WikiSearch evaluate(Query query) {
+		Map<String, Double> map = new HashMap<String, Double>();
+		for (Entry<String, Double> entry: search(query, Integer.MAX_VALUE)) {
+			map.put(entry.getKey(), entry.getValue());
+		}
+		return new WikiSearch(map);
+	}
+
+	/**
+	 * Forks one task per shard and merges what they find.
+	 */
+	private class SearchTask extends RecursiveTask<List<Entry<String, Double>>> {
+		private static final long serialVersionUID = 1L;
+
+		private final Query query;
+		private final int k;
+
+		SearchTask(Query query, int k) {
+			this.query = query;
+			this.k = k;
+		}
+
+		@Override
+		protected List<Entry<String, Double>> compute() {
+			List<ShardTask> tasks = new ArrayList<ShardTask>(shards.length);
+			for (Shard shard: shards) {
+				tasks.add(new ShardTask(shard, query, k));
+			}
+			invokeAll(tasks);
+
+			PriorityQueue<Entry<String, Double>> heap =
+					new PriorityQueue<Entry<String, Double>>(11, SCORE_ORDER);
+			for (ShardTask task: tasks) {
+				for (Entry<String, Double> entry: task.join()) {
+					offer(heap, k, entry);
+				}
+			}
+			List<Entry<String, Double>> result = new ArrayList<Entry<String, Double>>(heap);
+			Collections.sort(result, Collections.reverseOrder(SCORE_ORDER));
+			return result;
+		}
+	}
+
+	/**
+	 * Evaluates a query on one shard and keeps its k best pages.
+	 */
+	private static class ShardTask extends RecursiveTask<List<Entry<String, Double>>> {
+		private static final long serialVersionUID = 1L;
+
+		private final Shard shard;
+		private final Query query;
+		private final int k;
+
+		ShardTask(Shard shard, Query query, int k) {
+			this.shard = shard;
+			this.query = query;
+			this.k = k;
+		}
+
+		@Override
+		protected List<Entry<String, Double>> compute() {
+			shard.lock.readLock().lock();
+			try {
+				Hits hits = shard.evaluate(query);
+				PriorityQueue<Entry<String, Double>> heap =
+						new PriorityQueue<Entry<String, Double>>(11, SCORE_ORDER);
+				for (int i=0; i<hits.size; i++) {
+					if (heap.size() < k || hits.scores[i] > heap.peek().getValue()) {
+						offer(heap, k, new SimpleEntry<String, Double>(
+								shard.urls.get(hits.docs[i]), hits.scores[i]));
+					}
+				}
+				return new ArrayList<Entry<String, Double>>(heap);
+			} finally {
+				shard.lock.readLock().unlock();
+			}
+		}
+	}
+
+	private static final Comparator<Entry<String, Double>> SCORE_ORDER =
+			new Comparator<Entry<String, Double>>() {
+		@Override
+		public int compare(Entry<String, Double> e1, Entry<String, Double> e2) {
+			return Double.compare(e1.getValue(), e2.getValue());
+		}
+	};
+
+	/**
+	 * Adds a result to a bounded min-heap, evicting the worst if it is full.
+	 */
+	private static void offer(PriorityQueue<Entry<String, Double>> heap, int k,
+			Entry<String, Double> entry) {
+		if (heap.size() < k) {
+			heap.add(entry);
+		} else if (entry.getValue() > heap.peek().getValue()) {
+			heap.poll();
+			heap.add(entry);
+		}
+	}
+
+	/**
+	 * Where a page's current copy is.
+	 */
+	private static class Location {
+		final int shard;
+		final int doc;
+
+		Location(int shard, int doc) {
+			this.shard = shard;
+			this.doc = doc;
+		}
+	}
+
+	/**
+	 * The pages of one shard and their postings.  Documents are numbered
+	 * from 0 within the shard.
+	 */
+	private static class Shard {
+		final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		final List<String> urls = new ArrayList<String>();
+		final Map<String, Postings> postings = new HashMap<String, Postings>();
+		final BitSet deleted = new BitSet();
+
+		/**
+		 * Returns the live pages that contain a term.
+		 */
+		Hits lookup(String term) {
+			Postings p = postings.get(term);
+			if (p == null) {
+				return Hits.EMPTY;
+			}
+			if (deleted.isEmpty()) {
+				return new Hits(p.docs, p.scores, p.size);
+			}
+			Hits hits = new Hits(p.size);
+			for (int i=0; i<p.size; i++) {
+				if (!deleted.get(p.docs[i])) {
+					hits.add(p.docs[i], p.scores[i]);
+				}
+			}
+			return hits;
+		}
+
+		/**
+		 * Mirrors Query.evaluate.
+		 */
+		Hits evaluate(Query query) {
+			Map<String, Hits> results = new HashMap<String, Hits>();
+			for (String term: query.terms()) {
+				results.put(term, lookup(term));
+			}
+
+			List<String> left = query.getLeft();
+			Hits a = words(left, results);
+			if (query.getOperator() == Query.Operator.WORDS) {
+				return a;
+			}
+
+			List<String> right = query.getRight();
+			if (right.isEmpty()) {
+				return a;
+			}
+			Hits b = words(right, results);
+			if (left.isEmpty()) {
+				return query.getOperator() == Query.Operator.MINUS ? a : b;
+			}
+
+			switch (query.getOperator()) {
+			case OR:
+				return a.or(b);
+			case AND:
+				return a.and(b);
+			default:
+				return a.minus(b);
+			}
+		}
+
+		/**
+		 * Mirrors Query.words: pages with every word count twice.
+		 */
+		private static Hits words(List<String> terms, Map<String, Hits> results) {
+			if (terms.isEmpty()) {
+				return Hits.EMPTY;
+			}
+			Hits intersect = results.get(terms.get(0));
+			if (terms.size() == 1) {
+				return intersect;
+			}
+			Hits union = intersect;
+			for (int i=1; i<terms.size(); i++) {
+				Hits next = results.get(terms.get(i));
+				intersect = intersect.and(next);
+				union = union.or(next);
+			}
+			return intersect.or(union);
+		}
+	}
+
+	/**
+	 * The pages that contain a term, in document order, and the term's
+	 * frequency in each.  Only appended to, under the shard's write lock.
+	 */
+	private static class Postings {
+		int[] docs = new int[4];
+		double[] scores = new double[4];
+		int size;
+
+		void add(int doc, double score) {
+			if (size == docs.length) {
+				int capacity = size + (size >> 1);
+				int[] newDocs = new int[capacity];
+				double[] newScores = new double[capacity];
+				System.arraycopy(docs, 0, newDocs, 0, size);
+				System.arraycopy(scores, 0, newScores, 0, size);
+				docs = newDocs;
+				scores = newScores;
+			}
+			docs[size] = doc;
+			scores[size] = score;
+			size++;
+		}
+	}
+
+	/**
+	 * A search result within a shard: pages in document order and their
+	 * relevance.  The operations merge two of them like the WikiSearch
+	 * methods of the same name.
+	 */
+	private static class Hits {
+		static final Hits EMPTY = new Hits(0);
+
+		final int[] docs;
+		final double[] scores;
+		int size;
+
+		Hits(int capacity) {
+			this(new int[capacity], new double[capacity], 0);
+		}
+
+		Hits(int[] docs, double[] scores, int size) {
+			this.docs = docs;
+			this.scores = scores;
+			this.size = size;
+		}
+
+		void add(int doc, double score) {
+			docs[size] = doc;
+			scores[size] = score;
+			size++;
+		}
+
+		Hits or(Hits that) {
+			Hits result = new Hits(size + that.size);
+			int i = 0, j = 0;
+			while (i < size && j < that.size) {
+				if (docs[i] < that.docs[j]) {
+					result.add(docs[i], scores[i]);
+					i++;
+				} else if (docs[i] > that.docs[j]) {
+					result.add(that.docs[j], that.scores[j]);
+					j++;
+				} else {
+					result.add(docs[i], scores[i] + that.scores[j]);
+					i++;
+					j++;
+				}
+			}
+			for (; i<size; i++) {
+				result.add(docs[i], scores[i]);
+			}
+			for (; j<that.size; j++) {
+				result.add(that.docs[j], that.scores[j]);
+			}
+			return result;
+		}
+
+		Hits and(Hits that) {
+			Hits result = new Hits(Math.min(size, that.size));
+			int i = 0, j = 0;
+			while (i < size && j < that.size) {
+				if (docs[i] < that.docs[j]) {
+					i++;
+				} else if (docs[i] > that.docs[j]) {
+					j++;
+				} else {
+					result.add(docs[i], scores[i] + that.scores[j]);
+					i++;
+					j++;
+				}
+			}
+			return result;
+		}
+
+		Hits minus(Hits that) {
+			Hits result = new Hits(size);
+			int j = 0;
+			for (int i=0; i<size; i++) {
+				while (j < that.size && that.docs[j] < docs[i]) {
+					j++;
+				}
+				if (j == that.size || that.docs[j] != docs[i]) {
+					result.add(docs[i], scores[i]);
+				}
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Loads a snapshot and runs queries from standard input against it,
+	 * printing the best results of each and how long it took.
+	 *
+	 * Usage: InMemoryIndex SNAPSHOT [SHARDS]
+	 *
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: InMemoryIndex SNAPSHOT [SHARDS]");
+			System.exit(1);
+		}
+		int shards = args.length > 1 ? Integer.parseInt(args[1])
+				: Runtime.getRuntime().availableProcessors();
+		long start = System.nanoTime();
+		InMemoryIndex index = load(new File(args[0]), shards);
+		System.out.println(String.format("loaded %d pages, %d postings into %d shards in %.2fs",
+				index.size(), index.postingsCount(), shards, (System.nanoTime() - start) / 1e9));
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.trim().isEmpty()) {
+				continue;
+			}
+			start = System.nanoTime();
+			List<Entry<String, Double>> results = index.search(line.trim(), 10);
+			double millis = (System.nanoTime() - start) / 1e6;
+			for (Entry<String, Double> entry: results) {
+				System.out.println(entry);
+			}
+			System.out.println(String.format("%.2f ms", millis));
+		}
+		System.out.println("latency: " + METRICS.timer("query.inMemory.latency"));
+	}
+}
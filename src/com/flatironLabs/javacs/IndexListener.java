@@ -0,0 +1,34 @@
+package com.flatironschool.javacs;
+
+import java.util.Collection;
+
+
+/**
+ * Is told about every page an index stores or drops, for structures that have to
+ * track the index, such as a spelling dictionary or a cache.
+ *
+ * Listeners are called on the indexing thread, after the page has been
+ * written, so they should be quick and thread-safe.
+ *
+ */
+public interface IndexListener {
+
+	/**
+	 * Called after a page's terms have been written to the index.  The
+	 * page may have been indexed before, in which case its terms replace
+	 * the old ones.
+	 *
+	 * @param frequencies  The page's terms; getLabel() is its URL.
+	 */
+	void pageIndexed(TermFrequencies frequencies);
+
+	/**
+	 * Called after a page that was indexed has been taken out of the
+	 * index again, for example because it turned out to be a duplicate
+	 * of another page when it was indexed a second time.
+	 *
+	 * @param url
+	 * @param terms  The terms it had.
+	 */
+	void pageRemoved(String url, Collection<String> terms);
+}
@@ -0,0 +1,462 @@
+package com.flatironschool.javacs;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+
+/**
+ * Reads and writes index snapshots: everything in a JedisIndex, in a
+ * compact binary file.
+ *
+ * A snapshot is a header followed by records, each starting with a tag:
+ *
+ *   DOCUMENT  url, n, n x (term, value)     one TermCounter hash
+ *   POSTINGS  term, n, n x url              one URLSet
+ *   ALIAS     url, original                 one entry of Aliases
+ *   RANK      url, value                    one entry of PageRank
+ *   END       documents, postings
+ *
+ * Numbers are varints.  Each distinct URL and term is written once, the
+ * first time it appears; after that it is referred to by its index.
+ * Values are the bytes Redis stored, copied as-is; term frequencies can
+ * be in either FrequencyCodec encoding.
+ *
+ * Use JedisIndex.exportSnapshot and importSnapshot to move an index in
+ * and out of Redis, or read() with a Visitor to load it somewhere else.
+ *
+ */
+public class IndexSnapshot {
+
+	private static final int MAGIC = 0x49445853;  // "IDXS"
+	private static final int VERSION = 1;
+
+	private static final int END = 0;
+	private static final int DOCUMENT = 1;
+	private static final int POSTINGS = 2;
+	private static final int ALIAS = 3;
+	private static final int RANK = 4;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private IndexSnapshot() {
+	}
+
+	/**
+	 * Receives the contents of a snapshot as it is read.
+	 *
+	 * Each distinct URL and term is decoded once, so the same String is
+	 * passed every time it appears.
+	 */
+	public interface Visitor {
+
+		/**
+		 * Called at the start of a page's term counts, followed by `size`
+		 * calls to term() and one to endDocument().
+		 */
+		void startDocument(String url, int size);
+
+		/**
+		 * One term of the current page and its stored frequency, which
+		 * FrequencyCodec.decode reads.
+		 */
+		void term(String term, byte[] value);
+
+		void endDocument();
+
+		/**
+		 * The URLs of the pages that contain a term.
+		 */
+		void postings(String term, String[] urls);
+
+		/**
+		 * A page recorded as a duplicate of another.
+		 */
+		void alias(String url, String original);
+
+		/**
+		 * The stored static rank of a page.
+		 */
+		void staticRank(String url, byte[] value);
+	}
+
+	/**
+	 * Writes a snapshot.  Call the record methods in any order, then
+	 * finish().  Closing a writer that wasn't finished deletes the file, so
+	 * a failed export never leaves a snapshot that looks complete.
+	 */
+	public static class Writer implements Closeable {
+		private final File file;
+		private final DataOutputStream out;
+		private final Map<ByteBuffer, Integer> urls = new HashMap<ByteBuffer, Integer>();
+		private final Map<ByteBuffer, Integer> terms = new HashMap<ByteBuffer, Integer>();
+		private long documents;
+		private long postings;
+		private boolean finished;
+		private boolean closed;
+
+		public Writer(File file) throws IOException {
+			this.file = file;
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+		}
+
+		/**
+		 * Writes the term counts of a page.
+		 *
+		 * @param url
+		 * @param fields  Map from term to stored frequency, as Redis returns them.
+		 * @throws IOException
+		 */
+		public void document(byte[] url, Map<byte[], byte[]> fields) throws IOException {
+			out.writeByte(DOCUMENT);
+			ref(urls, url);
+			writeVarint(fields.size());
+			for (Entry<byte[], byte[]> field: fields.entrySet()) {
+				ref(terms, field.getKey());
+				writeBytes(field.getValue());
+			}
+			documents++;
+		}
+
+		/**
+		 * Writes the URLs of the pages that contain a term.
+		 *
+		 * @param term
+		 * @param members
+		 * @throws IOException
+		 */
+		public void postings(byte[] term, Collection<byte[]> members) throws IOException {
+			out.writeByte(POSTINGS);
+			ref(terms, term);
+			writeVarint(members.size());
+			for (byte[] url: members) {
+				ref(urls, url);
+			}
+			postings++;
+		}
+
+		public void alias(byte[] url, byte[] original) throws IOException {
+			out.writeByte(ALIAS);
+			ref(urls, url);
+			ref(urls, original);
+		}
+
+		public void staticRank(byte[] url, byte[] value) throws IOException {
+			out.writeByte(RANK);
+			ref(urls, url);
+			writeBytes(value);
+		}
+
+		public long documents() {
+			return documents;
+		}
+
+		public long postings() {
+			return postings;
+		}
+
+		/**
+		 * Writes the index of a string, and the string itself if this is
+		 * the first time it appears.
+		 */
+		private void ref(Map<ByteBuffer, Integer> table, byte[] bytes) throws IOException {
+			ByteBuffer key = ByteBuffer.wrap(bytes);
+			Integer id = table.get(key);
+			if (id != null) {
+				writeVarint(id);
+				return;
+			}
+			writeVarint(table.size());
+			table.put(key, table.size());
+			writeBytes(bytes);
+		}
+
+		private void writeBytes(byte[] bytes) throws IOException {
+			writeVarint(bytes.length);
+			out.write(bytes);
+		}
+
+		private void writeVarint(long n) throws IOException {
+			while ((n & ~0x7FL) != 0) {
+				out.writeByte((int) (n & 0x7F) | 0x80);
+				n >>>= 7;
+			}
+			out.writeByte((int) n);
+		}
+
+		/**
+		 * Writes the END record and closes the file.
+		 *
+		 * @throws IOException
+		 */
+		public void finish() throws IOException {
+			out.writeByte(END);
+			writeVarint(documents);
+			writeVarint(postings);
+			out.close();
+			finished = true;
+			closed = true;
+		}
+
+		/**
+		 * Does nothing after finish(); otherwise abandons the snapshot and
+		 * deletes the file.
+		 */
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				out.close();
+			} finally {
+				if (!finished) {
+					file.delete();
+				}
+			}
+		}
+	}
+
+	// takes the place of the real visitor while the file is checked
+	private static final Visitor CHECK = new Visitor() {
+		@Override
+		public void startDocument(String url, int size) {
+		}
+
+		@Override
+		public void term(String term, byte[] value) {
+		}
+
+		@Override
+		public void endDocument() {
+		}
+
+		@Override
+		public void postings(String term, String[] urls) {
+		}
+
+		@Override
+		public void alias(String url, String original) {
+		}
+
+		@Override
+		public void staticRank(String url, byte[] value) {
+		}
+	};
+
+	/**
+	 * Reads a snapshot and passes its contents to a visitor.
+	 *
+	 * The whole file is checked first, down to the counts at the end, so
+	 * the visitor sees nothing of a truncated or corrupt snapshot.  The
+	 * check skips over values and strings without decoding them.  The file
+	 * is memory-mapped, so it must be smaller than 2GB.
+	 *
+	 * @param file
+	 * @param visitor
+	 * @return The number of documents read.
+	 * @throws IOException
+	 */
+	public static long read(File file, Visitor visitor) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			new Reader(buffer.duplicate(), file, false).read(CHECK);
+			return new Reader(buffer, file, true).read(visitor);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static class Reader {
+		private final ByteBuffer in;
+		private final File file;
+		private final List<String> urls = new ArrayList<String>();
+		private final List<String> terms = new ArrayList<String>();
+		private final boolean decode;
+		private byte[] scratch = new byte[256];
+
+		/**
+		 * @param decode  False to only check the file: strings and values
+		 *                are skipped, and null is passed in their place.
+		 */
+		Reader(ByteBuffer in, File file, boolean decode) {
+			this.in = in;
+			this.file = file;
+			this.decode = decode;
+		}
+
+		long read(Visitor visitor) throws IOException {
+			if (in.remaining() < 8 || in.getInt() != MAGIC) {
+				throw new IOException("Not an index snapshot: " + file);
+			}
+			int version = in.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported snapshot version " + version + ": " + file);
+			}
+
+			long documents = 0;
+			long postings = 0;
+			while (true) {
+				if (!in.hasRemaining()) {
+					throw truncated();
+				}
+				int tag = in.get();
+				switch (tag) {
+				case DOCUMENT:
+					String url = ref(urls);
+					int size = count();
+					visitor.startDocument(url, size);
+					for (int i=0; i<size; i++) {
+						String term = ref(terms);
+						visitor.term(term, readBytes());
+					}
+					visitor.endDocument();
+					documents++;
+					break;
+				case POSTINGS:
+					String term = ref(terms);
+					String[] members = new String[count()];
+					for (int i=0; i<members.length; i++) {
+						members[i] = ref(urls);
+					}
+					visitor.postings(term, members);
+					postings++;
+					break;
+				case ALIAS:
+					String alias = ref(urls);
+					visitor.alias(alias, ref(urls));
+					break;
+				case RANK:
+					String ranked = ref(urls);
+					visitor.staticRank(ranked, readBytes());
+					break;
+				case END:
+					long expected = readVarint();
+					if (expected != documents) {
+						throw new IOException("Snapshot has " + documents + " documents, expected "
+								+ expected + ": " + file);
+					}
+					long expectedPostings = readVarint();
+					if (expectedPostings != postings) {
+						throw new IOException("Snapshot has " + postings + " postings, expected "
+								+ expectedPostings + ": " + file);
+					}
+					return documents;
+				default:
+					throw new IOException("Bad record tag " + tag + " in " + file);
+				}
+			}
+		}
+
+		private IOException truncated() {
+			return new IOException("Snapshot is truncated: " + file);
+		}
+
+		private String ref(List<String> table) throws IOException {
+			long id = readVarint();
+			if (id < table.size()) {
+				return table.get((int) id);
+			}
+			if (id != table.size()) {
+				throw new IOException("Bad string reference " + id + " in " + file);
+			}
+			int length = count();
+			if (!decode) {
+				in.position(in.position() + length);
+				table.add(null);
+				return null;
+			}
+			if (length > scratch.length) {
+				scratch = new byte[Math.max(length, scratch.length * 2)];
+			}
+			in.get(scratch, 0, length);
+			String s = new String(scratch, 0, length, UTF8);
+			table.add(s);
+			return s;
+		}
+
+		private byte[] readBytes() throws IOException {
+			int length = count();
+			if (!decode) {
+				in.position(in.position() + length);
+				return null;
+			}
+			byte[] bytes = new byte[length];
+			in.get(bytes);
+			return bytes;
+		}
+
+		/**
+		 * Reads a length or number of entries, each of which takes at least
+		 * a byte, so it can't be more than what is left of the file.
+		 */
+		private int count() throws IOException {
+			long n = readVarint();
+			if (n > in.remaining()) {
+				throw truncated();
+			}
+			return (int) n;
+		}
+
+		private long readVarint() throws IOException {
+			long n = 0;
+			int shift = 0;
+			int b;
+			do {
+				if (!in.hasRemaining() || shift > 63) {
+					throw truncated();
+				}
+				b = in.get();
+				n |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return n;
+		}
+	}
+
+	/**
+	 * Exports or imports the index in Redis.
+	 *
+	 * Usage: IndexSnapshot export|import FILE
+	 *
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2 || !(args[0].equals("export") || args[0].equals("import"))) {
+			System.err.println("Usage: IndexSnapshot export|import FILE");
+			System.exit(1);
+		}
+		File file = new File(args[1]);
+		JedisIndex index = new JedisIndex(JedisMaker.make());
+
+		long start = System.nanoTime();
+		long documents;
+		if (args[0].equals("export")) {
+			documents = index.exportSnapshot(file);
+		} else {
+			documents = index.importSnapshot(file);
+		}
+		System.out.println(String.format("%sed %d pages (%d bytes) in %.1fs", args[0], documents,
+				file.length(), (System.nanoTime() - start) / 1e9));
+	}
+}
@@ -1,6 +1,13 @@
 package com.flatironschool.javacs;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -8,20 +15,47 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.jsoup.select.Elements;
 
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
 import redis.clients.jedis.Transaction;
+import redis.clients.util.SafeEncoder;
 
 /**
  * Represents a Redis-backed web search index.
  * 
  */
-public class JedisIndex {
+public class JedisIndex implements SearchIndex, Closeable {
+
+	private static final Metrics METRICS = Metrics.global();
+	private static final Metrics.Histogram INDEX_TIME = METRICS.timer("index.page");
+	private static final Metrics.Histogram COUNT_TIME = METRICS.timer("index.count");
+	private static final Metrics.Histogram PUSH_TIME = METRICS.timer("index.push");
+	private static final Metrics.Histogram PAGE_TERMS = METRICS.histogram("index.terms");
+	private static final Metrics.Counter DUPLICATES = METRICS.counter("index.duplicates");
+	private static final Metrics.Histogram LOOKUP_TIME = METRICS.timer("index.getCounts");
+
+	// Redis round trips made by each operation
+	private static final Metrics.Histogram IS_INDEXED_TRIPS = METRICS.histogram("redis.roundTrips.isIndexed");
+	private static final Metrics.Histogram GET_COUNTS_TRIPS = METRICS.histogram("redis.roundTrips.getCounts");
+	private static final Metrics.Histogram GET_COUNTS_BATCH_TRIPS = METRICS.histogram("redis.roundTrips.getCountsBatch");
+	private static final Metrics.Histogram GET_COUNTS_FASTER_TRIPS = METRICS.histogram("redis.roundTrips.getCountsFaster");
+	private static final Metrics.Histogram PUSH_TRIPS = METRICS.histogram("redis.roundTrips.push");
 
 	private Jedis jedis;
 
+	// finds near-duplicate pages; null means every page is indexed
+	private DuplicateDetector detector;
+
+	// told about every page pushed to the index
+	private final List<IndexListener> listeners = new CopyOnWriteArrayList<IndexListener>();
+
 	/**
 	 * Constructor.
 	 * 
@@ -30,13 +64,31 @@ public class JedisIndex {
 	public JedisIndex(Jedis jedis) {
 		this.jedis = jedis;
 	}
+
+	@Override
+	public void addIndexListener(IndexListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Turns on near-duplicate detection.
+	 * 
+	 * Pages whose SimHash is close to a page already indexed are not pushed
+	 * to Redis; they are recorded as aliases of the original instead.  The
+	 * detector can be shared by several indexes that write to the same Redis.
+	 * 
+	 * @param detector  The detector, or null to index every page.
+	 */
+	public void setDuplicateDetector(DuplicateDetector detector) {
+		this.detector = detector;
+	}
 	
 	/**
 	 * Returns the Redis key for a given search term.
 	 * 
 	 * @return Redis key.
 	 */
-	private String urlSetKey(String term) {
+	static String urlSetKey(String term) {
 		return "URLSet:" + term;
 	}
 	
@@ -45,19 +97,44 @@ public class JedisIndex {
 	 * 
 	 * @return Redis key.
 	 */
-	private String termCounterKey(String url) {
+	static String termCounterKey(String url) {
 		return "TermCounter:" + url;
 	}
 
 	/**
-	 * Checks whether we have a TermCounter for a given URL.
+	 * Returns the Redis key for the hash that maps duplicate URLs to originals.
+	 * 
+	 * @return Redis key.
+	 */
+	static String aliasKey() {
+		return "Aliases";
+	}
+
+	/**
+	 * Checks whether we have a TermCounter for a given URL, or have
+	 * recorded it as a duplicate of another page.
 	 * 
 	 * @param url
 	 * @return
 	 */
 	public boolean isIndexed(String url) {
 		String redisKey = termCounterKey(url);
-		return jedis.exists(redisKey);
+		if (jedis.exists(redisKey)) {
+			IS_INDEXED_TRIPS.record(1);
+			return true;
+		}
+		IS_INDEXED_TRIPS.record(2);
+		return jedis.hexists(aliasKey(), url);
+	}
+
+	/**
+	 * Returns the URL of the page that `url` duplicates, or null.
+	 * 
+	 * @param url
+	 * @return
+	 */
+	public String getAlias(String url) {
+		return jedis.hget(aliasKey(), url);
 	}
 	
 	/**
@@ -77,7 +154,12 @@ public class JedisIndex {
 	 * @return Set of URLs.
 	 */
 	public Set<String> getURLs(String term) {
+		long start = System.nanoTime();
 		Set<String> set = jedis.smembers(urlSetKey(term));
+		QueryTrace trace = QueryTrace.current();
+		if (trace != null) {
+			trace.redis("SMEMBERS " + urlSetKey(term), start);
+		}
 		return set;
 	}
 
@@ -88,15 +170,89 @@ public class JedisIndex {
 	 * @return Map from URL to count.
 	 */
 	public Map<String, Double> getCounts(String term) {
+		long start = System.nanoTime();
 		Map<String, Double> map = new HashMap<String, Double>();
 		Set<String> urls = getURLs(term);
 		for (String url: urls) {
 			Double count = getCount(url, term);
 			map.put(url, count);
 		}
+		GET_COUNTS_TRIPS.record(1 + urls.size());
+		LOOKUP_TIME.recordSince(start);
 		return map;
 	}
 
+	/**
+	 * Looks up several terms in two round trips, however many there are:
+	 * one pipeline for the URLSets, and one for the frequencies.
+	 * 
+	 * @param terms
+	 * @return Map from each term to its map from URL to count.
+	 */
+	public Map<String, Map<String, Double>> getCounts(Collection<String> terms) {
+		long start = System.nanoTime();
+		Map<String, Map<String, Double>> counts =
+				lookup(jedis, new ArrayList<String>(new LinkedHashSet<String>(terms)));
+		GET_COUNTS_BATCH_TRIPS.record(2);
+		LOOKUP_TIME.recordSince(start);
+		return counts;
+	}
+
+	/**
+	 * Looks up terms with two pipelines; shared with ShardedJedisIndex.
+	 * 
+	 * @param jedis
+	 * @param terms  Distinct terms.
+	 * @return Map from each term, in order, to its map from URL to count.
+	 */
+	static Map<String, Map<String, Double>> lookup(Jedis jedis, List<String> terms) {
+		long start = System.nanoTime();
+		Pipeline p = jedis.pipelined();
+		List<Response<Set<String>>> sets = new ArrayList<Response<Set<String>>>();
+		for (String term: terms) {
+			sets.add(p.smembers(urlSetKey(term)));
+		}
+		p.sync();
+		QueryTrace trace = QueryTrace.current();
+		if (trace != null) {
+			trace.redis("PIPELINE " + terms.size() + " x SMEMBERS URLSet:*", start);
+		}
+
+		long hgetStart = System.nanoTime();
+		int lookups = 0;
+		List<List<String>> urls = new ArrayList<List<String>>();
+		List<List<Response<byte[]>>> values = new ArrayList<List<Response<byte[]>>>();
+		p = jedis.pipelined();
+		for (int i=0; i<terms.size(); i++) {
+			List<String> termUrls = new ArrayList<String>(sets.get(i).get());
+			List<Response<byte[]>> termValues = new ArrayList<Response<byte[]>>(termUrls.size());
+			byte[] field = SafeEncoder.encode(terms.get(i));
+			for (String url: termUrls) {
+				termValues.add(p.hget(SafeEncoder.encode(termCounterKey(url)), field));
+			}
+			urls.add(termUrls);
+			values.add(termValues);
+			lookups += termUrls.size();
+		}
+		p.sync();
+		if (trace != null) {
+			trace.redis("PIPELINE " + lookups + " x HGET TermCounter:*", hgetStart);
+		}
+
+		Map<String, Map<String, Double>> counts = new LinkedHashMap<String, Map<String, Double>>();
+		for (int i=0; i<terms.size(); i++) {
+			Map<String, Double> map = new HashMap<String, Double>();
+			for (int j=0; j<urls.get(i).size(); j++) {
+				byte[] value = values.get(i).get(j).get();
+				if (value != null) {
+					map.put(urls.get(i).get(j), FrequencyCodec.decode(value));
+				}
+			}
+			counts.put(terms.get(i), map);
+		}
+		return counts;
+	}
+
 	/**
 	 * Looks up a term and returns a map from URL to count.
 	 * 
@@ -104,27 +260,34 @@ public class JedisIndex {
 	 * @return Map from URL to count.
 	 */
 	public Map<String, Double> getCountsFaster(String term) {
+		long start = System.nanoTime();
+
 		// convert the set of strings to a list so we get the
 		// same traversal order every time
 		List<String> urls = new ArrayList<String>();
 		urls.addAll(getURLs(term));
 
 		// construct a transaction to perform all lookups
+		long execStart = System.nanoTime();
 		Transaction t = jedis.multi();
+		byte[] field = SafeEncoder.encode(term);
 		for (String url: urls) {
-			String redisKey = termCounterKey(url);
-			t.hget(redisKey, term);
+			t.hget(SafeEncoder.encode(termCounterKey(url)), field);
 		}
 		List<Object> res = t.exec();
+		QueryTrace trace = QueryTrace.current();
+		if (trace != null) {
+			trace.redis("MULTI " + urls.size() + " x HGET TermCounter:* " + term + " EXEC", execStart);
+		}
 
 		// iterate the results and make the map
 		Map<String, Double> map = new HashMap<String, Double>();
 		int i = 0;
 		for (String url: urls) {
-			System.out.println(url);
-			Double count = new Double((String) res.get(i++));
-			map.put(url, count);
+			map.put(url, FrequencyCodec.decode((byte[]) res.get(i++)));
 		}
+		GET_COUNTS_FASTER_TRIPS.record(2);
+		LOOKUP_TIME.recordSince(start);
 		return map;
 	}
 
@@ -136,9 +299,14 @@ public class JedisIndex {
 	 * @return
 	 */
 	public Double getCount(String url, String term) {
+		long start = System.nanoTime();
 		String redisKey = termCounterKey(url);
-		String count = jedis.hget(redisKey, term);
-		return new Double(count);
+		byte[] count = jedis.hget(SafeEncoder.encode(redisKey), SafeEncoder.encode(term));
+		QueryTrace trace = QueryTrace.current();
+		if (trace != null) {
+			trace.redis("HGET " + redisKey + " " + term, start);
+		}
+		return FrequencyCodec.decode(count);
 	}
 
 	/**
@@ -148,52 +316,452 @@ public class JedisIndex {
 	 * @param paragraphs  Collection of elements that should be indexed.
 	 */
 	public void indexPage(String url, Elements paragraphs) {
-		System.out.println("Indexing " + url);
+		long start = System.nanoTime();
 		
 		// make a TermCounter and count the terms in the paragraphs
 		TermCounter tc = new TermCounter(url);
 		tc.processElements(paragraphs);
+		COUNT_TIME.recordSince(start);
 
-      double size  = 0;
-
-      for (String entry : tc.keySet()) {
-         size += tc.get(entry);
-      } 
+		indexTermCounter(tc);
+		INDEX_TIME.recordSince(start);
+	}
 
-      for( String term: tc.keySet() ) {
-         tc.put( term, tc.get(term) / size);
-      }
+	/**
+	 * Adds a TermCounter to the index.
+	 *
+	 * Used by callers that have already counted the terms on a page.
+	 *
+	 * @param tc
+	 */
+	public void indexTermCounter(TermCounter tc) {
+		TermFrequencies frequencies = tc.seal();
+		if (detector != null) {
+			String original = detector.findOrAdd(tc.getLabel(), SimHash.fingerprint(frequencies));
+			if (original != null) {
+				DUPLICATES.increment();
+				recordAlias(tc.getLabel(), original);
+				return;
+			}
+		}
 
 		// push the contents of the TermCounter to Redis
 		pushTermCounterToRedis(tc);
 	}
 
+	/**
+	 * Records a page as a duplicate of another.
+	 *
+	 * If the page was indexed before as a page of its own, its
+	 * TermCounter and its URLSet entries are removed in the same
+	 * transaction as the alias is written, so it is never both.
+	 *
+	 * @param url
+	 * @param original
+	 */
+	private void recordAlias(String url, String original) {
+		byte[] urlBytes = SafeEncoder.encode(url);
+		byte[] hashname = SafeEncoder.encode(termCounterKey(url));
+		List<String> oldTerms = new ArrayList<String>();
+		for (byte[] term: jedis.hkeys(hashname)) {
+			oldTerms.add(SafeEncoder.encode(term));
+		}
+
+		Transaction t = jedis.multi();
+		t.hset(aliasKey(), url, original);
+		if (!oldTerms.isEmpty()) {
+			t.del(hashname);
+			for (String term: oldTerms) {
+				t.srem(SafeEncoder.encode(urlSetKey(term)), urlBytes);
+			}
+		}
+		t.exec();
+
+		if (!oldTerms.isEmpty()) {
+			for (IndexListener listener: listeners) {
+				listener.pageRemoved(url, oldTerms);
+			}
+		}
+	}
+
 	/**
 	 * Pushes the contents of the TermCounter to Redis.
 	 * 
+	 * Seals the TermCounter, and stores the frequency of each term (its
+	 * count divided by the total count) rather than the raw count.
+	 * 
+	 * Terms and URLSet keys are sent as the bytes cached in the
+	 * TermDictionary, so only the frequencies are encoded per page.
+	 * 
 	 * @param tc
 	 * @return List of return values from Redis.
 	 */
 	public List<Object> pushTermCounterToRedis(TermCounter tc) {
+		long start = System.nanoTime();
+		TermFrequencies frequencies = tc.seal();
+		TermDictionary dictionary = frequencies.getDictionary();
+		boolean cachedKeys = dictionary.getKeyPrefix().equals(urlSetKey(""));
 		Transaction t = jedis.multi();
 		
 		String url = tc.getLabel();
-		String hashname = termCounterKey(url);
+		byte[] urlBytes = SafeEncoder.encode(url);
+		byte[] hashname = SafeEncoder.encode(termCounterKey(url));
 		
 		// if this page has already been indexed; delete the old hash
 		t.del(hashname);
 
 		// for each term, add an entry in the termcounter and a new
 		// member of the index
-		for (String term: tc.keySet()) {
-			Double count = tc.get(term);
-			t.hset(hashname, term, count.toString());
-			t.sadd(urlSetKey(term), url);
+		for (int i=0; i<frequencies.size(); i++) {
+			int id = frequencies.termId(i);
+			byte[] setKey = cachedKeys ? dictionary.keyBytes(id)
+					: SafeEncoder.encode(urlSetKey(dictionary.term(id)));
+			t.hset(hashname, dictionary.termBytes(id), FrequencyCodec.encode(frequencies.frequency(i)));
+			t.sadd(setKey, urlBytes);
 		}
 		List<Object> res = t.exec();
+		PUSH_TRIPS.record(1);
+		for (IndexListener listener: listeners) {
+			listener.pageIndexed(frequencies);
+		}
+		PAGE_TERMS.record(frequencies.size());
+		PUSH_TIME.recordSince(start);
 		return res;
 	}
 
+	/**
+	 * Returns the Redis key for the hash that maps URLs to static rank.
+	 * 
+	 * @return Redis key.
+	 */
+	private String staticRankKey() {
+		return "PageRank";
+	}
+
+	/**
+	 * Replaces the static rank of every page.
+	 * 
+	 * @param ranks  Map from URL to rank, e.g. from PageRank.
+	 */
+	public void storeStaticRanks(Map<String, Double> ranks) {
+		Transaction t = jedis.multi();
+		t.del(staticRankKey());
+		for (Entry<String, Double> entry: ranks.entrySet()) {
+			t.hset(staticRankKey(), entry.getKey(), entry.getValue().toString());
+		}
+		t.exec();
+	}
+
+	/**
+	 * Loads the static rank of every page.
+	 * 
+	 * @return
+	 */
+	public StaticRank getStaticRanks() {
+		Map<String, Double> ranks = new HashMap<String, Double>();
+		for (Entry<String, String> entry: jedis.hgetAll(staticRankKey()).entrySet()) {
+			ranks.put(entry.getKey(), Double.valueOf(entry.getValue()));
+		}
+		return new StaticRank(ranks);
+	}
+
+	/**
+	 * Returns the number of pages each indexed term appears in.
+	 *
+	 * The URLSets are found with SCAN and counted with one pipelined round
+	 * trip per batch, so this can seed a SpellingIndex from a live index.
+	 *
+	 * @return Map from term to document frequency.
+	 */
+	public Map<String, Integer> documentFrequencies() {
+		String prefix = urlSetKey("");
+		Map<String, Integer> frequencies = new HashMap<String, Integer>();
+		ScanParams params = new ScanParams().match(urlSetKey("*")).count(1000);
+		String cursor = ScanParams.SCAN_POINTER_START;
+		do {
+			ScanResult<String> scan = jedis.scan(cursor, params);
+			List<String> keys = scan.getResult();
+			Pipeline p = jedis.pipelined();
+			List<Response<Long>> sizes = new ArrayList<Response<Long>>(keys.size());
+			for (String key: keys) {
+				sizes.add(p.scard(key));
+			}
+			p.sync();
+			for (int i=0; i<keys.size(); i++) {
+				long size = sizes.get(i).get();
+				if (size > 0) {
+					frequencies.put(keys.get(i).substring(prefix.length()), (int) size);
+				}
+			}
+			cursor = scan.getStringCursor();
+		} while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+		return frequencies;
+	}
+
+	/**
+	 * Writes the whole index to a snapshot file: the TermCounter of every
+	 * page, every URLSet, the aliases and the static ranks.
+	 * 
+	 * Keys are read with SCAN, a batch at a time, and each batch is fetched
+	 * in one pipelined round trip, so this is safe to run against a live
+	 * index.  Pages indexed while it runs may or may not be included.
+	 * 
+	 * @param file
+	 * @return Number of pages written.
+	 * @throws IOException
+	 */
+	public long exportSnapshot(File file) throws IOException {
+		byte[] counterPrefix = SafeEncoder.encode(termCounterKey(""));
+		byte[] setPrefix = SafeEncoder.encode(urlSetKey(""));
+
+		IndexSnapshot.Writer writer = new IndexSnapshot.Writer(file);
+		try {
+			ScanParams params = new ScanParams().count(1000);
+			byte[] cursor = ScanParams.SCAN_POINTER_START_BINARY;
+			do {
+				ScanResult<byte[]> scan = jedis.scan(cursor, params);
+				List<byte[]> keys = scan.getResult();
+				List<Response<?>> responses = new ArrayList<Response<?>>(keys.size());
+				Pipeline p = jedis.pipelined();
+				for (byte[] key: keys) {
+					if (startsWith(key, counterPrefix)) {
+						responses.add(p.hgetAll(key));
+					} else if (startsWith(key, setPrefix)) {
+						responses.add(p.smembers(key));
+					} else {
+						responses.add(null);
+					}
+				}
+				p.sync();
+
+				for (int i=0; i<keys.size(); i++) {
+					byte[] key = keys.get(i);
+					Response<?> response = responses.get(i);
+					if (response == null) {
+						continue;
+					}
+					if (startsWith(key, counterPrefix)) {
+						@SuppressWarnings("unchecked")
+						Map<byte[], byte[]> fields = (Map<byte[], byte[]>) response.get();
+						writer.document(suffix(key, counterPrefix), fields);
+					} else {
+						@SuppressWarnings("unchecked")
+						Set<byte[]> members = (Set<byte[]>) response.get();
+						writer.postings(suffix(key, setPrefix), members);
+					}
+				}
+				cursor = scan.getCursorAsBytes();
+			} while (!Arrays.equals(cursor, ScanParams.SCAN_POINTER_START_BINARY));
+
+			for (Entry<byte[], byte[]> entry: jedis.hgetAll(SafeEncoder.encode(aliasKey())).entrySet()) {
+				writer.alias(entry.getKey(), entry.getValue());
+			}
+			for (Entry<byte[], byte[]> entry: jedis.hgetAll(SafeEncoder.encode(staticRankKey())).entrySet()) {
+				writer.staticRank(entry.getKey(), entry.getValue());
+			}
+			writer.finish();
+		} finally {
+			// deletes the file if the export failed part way
+			writer.close();
+		}
+		return writer.documents();
+	}
+
+	private static boolean startsWith(byte[] key, byte[] prefix) {
+		if (key.length < prefix.length) {
+			return false;
+		}
+		for (int i=0; i<prefix.length; i++) {
+			if (key[i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static byte[] suffix(byte[] key, byte[] prefix) {
+		return Arrays.copyOfRange(key, prefix.length, key.length);
+	}
+
+	/**
+	 * Loads a snapshot written by exportSnapshot.
+	 * 
+	 * Pages and terms in the snapshot replace the ones in Redis; anything
+	 * else in Redis is left alone, so call deleteAllKeys first to get an
+	 * exact copy.  Nothing is written unless the whole file checks out.
+	 * Writes are pipelined and sent in batches.  Decimal frequencies
+	 * are converted if the FrequencyCodec is writing half floats.
+	 * 
+	 * @param file
+	 * @return Number of pages loaded.
+	 * @throws IOException
+	 */
+	public long importSnapshot(File file) throws IOException {
+		SnapshotLoader loader = new SnapshotLoader();
+		try {
+			return IndexSnapshot.read(file, loader);
+		} finally {
+			// read the replies even on failure, or the next command on
+			// this connection would get one of them
+			loader.pipeline.sync();
+		}
+	}
+
+	/**
+	 * Writes the contents of a snapshot to Redis with a pipeline.
+	 */
+	private class SnapshotLoader implements IndexSnapshot.Visitor {
+		private static final int BATCH = 10000;
+
+		private final Pipeline pipeline = jedis.pipelined();
+		private final TermDictionary dictionary = TermDictionary.global();
+		private final boolean cachedKeys = dictionary.getKeyPrefix().equals(urlSetKey(""));
+		private final byte[] aliasKey = SafeEncoder.encode(aliasKey());
+		private final byte[] staticRankKey = SafeEncoder.encode(staticRankKey());
+
+		// the reader passes the same String for every use of a URL
+		private final Map<String, byte[]> urlBytes = new IdentityHashMap<String, byte[]>();
+		private byte[] hashname;
+		private int pending;
+
+		private byte[] url(String url) {
+			byte[] bytes = urlBytes.get(url);
+			if (bytes == null) {
+				bytes = SafeEncoder.encode(url);
+				urlBytes.put(url, bytes);
+			}
+			return bytes;
+		}
+
+		private void sent(int commands) {
+			pending += commands;
+			if (pending >= BATCH) {
+				pipeline.sync();
+				pending = 0;
+			}
+		}
+
+		@Override
+		public void startDocument(String url, int size) {
+			hashname = SafeEncoder.encode(termCounterKey(url));
+			pipeline.del(hashname);
+			sent(1);
+		}
+
+		@Override
+		public void term(String term, byte[] value) {
+			// stored in the current encoding, whichever one the snapshot has
+			if (FrequencyCodec.getEncoding() == FrequencyCodec.Encoding.HALF_FLOAT && value.length != 2) {
+				value = FrequencyCodec.encode(FrequencyCodec.decode(value));
+			}
+			pipeline.hset(hashname, dictionary.termBytes(dictionary.id(term)), value);
+			sent(1);
+		}
+
+		@Override
+		public void endDocument() {
+			hashname = null;
+		}
+
+		@Override
+		public void postings(String term, String[] urls) {
+			byte[] key = cachedKeys ? dictionary.keyBytes(dictionary.id(term))
+					: SafeEncoder.encode(urlSetKey(term));
+			byte[][] members = new byte[urls.length][];
+			for (int i=0; i<urls.length; i++) {
+				members[i] = url(urls[i]);
+			}
+			pipeline.del(key);
+			if (members.length > 0) {
+				pipeline.sadd(key, members);
+			}
+			sent(1 + members.length);
+		}
+
+		@Override
+		public void alias(String url, String original) {
+			pipeline.hset(aliasKey, url(url), url(original));
+			sent(1);
+		}
+
+		@Override
+		public void staticRank(String url, byte[] value) {
+			pipeline.hset(staticRankKey, url(url), value);
+			sent(1);
+		}
+	}
+
+	/**
+	 * Re-analyzes the terms of every indexed page with a new Analyzer.
+	 * 
+	 * Each stored term is run through the analyzer; terms that become the
+	 * same term have their frequencies added, terms that become stop words
+	 * are dropped, and the frequencies of each page are scaled to add up
+	 * to 1 again.  The URLSets are updated to match.
+	 * 
+	 * Pages are rewritten one transaction at a time, so the index can be
+	 * searched while this runs.
+	 * 
+	 * @param analyzer
+	 * @return Number of pages rewritten.
+	 */
+	public int reanalyze(Analyzer analyzer) {
+		int pages = 0;
+		Token token = new Token();
+		ScanParams params = new ScanParams().match(termCounterKey("*")).count(1000);
+		String cursor = ScanParams.SCAN_POINTER_START;
+		do {
+			ScanResult<String> scan = jedis.scan(cursor, params);
+			for (String hashname: scan.getResult()) {
+				String url = hashname.substring(termCounterKey("").length());
+				reanalyzePage(url, analyzer, token);
+				pages++;
+			}
+			cursor = scan.getStringCursor();
+		} while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+		return pages;
+	}
+
+	private void reanalyzePage(String url, Analyzer analyzer, Token token) {
+		String hashname = termCounterKey(url);
+		Map<String, Double> old = new HashMap<String, Double>();
+		for (Entry<byte[], byte[]> entry: jedis.hgetAll(SafeEncoder.encode(hashname)).entrySet()) {
+			old.put(SafeEncoder.encode(entry.getKey()), FrequencyCodec.decode(entry.getValue()));
+		}
+
+		final Map<String, Double> updated = new HashMap<String, Double>();
+		double total = 0;
+		for (Entry<String, Double> entry: old.entrySet()) {
+			final double frequency = entry.getValue();
+			final List<String> terms = new ArrayList<String>(1);
+			analyzer.analyze(entry.getKey(), token, new Analyzer.TermSink() {
+				@Override
+				public void term(Token term) {
+					terms.add(term.toString());
+				}
+			});
+			for (String term: terms) {
+				Double sum = updated.get(term);
+				updated.put(term, sum == null ? frequency : sum + frequency);
+				total += frequency;
+			}
+		}
+
+		Transaction t = jedis.multi();
+		for (String term: old.keySet()) {
+			if (!updated.containsKey(term)) {
+				t.srem(urlSetKey(term), url);
+			}
+		}
+		t.del(hashname);
+		for (Entry<String, Double> entry: updated.entrySet()) {
+			t.hset(SafeEncoder.encode(hashname), SafeEncoder.encode(entry.getKey()),
+					FrequencyCodec.encode(entry.getValue() / total));
+			t.sadd(urlSetKey(entry.getKey()), url);
+		}
+		t.exec();
+	}
+
 	/**
 	 * Prints the contents of the index.
 	 * 
@@ -288,6 +856,14 @@ public class JedisIndex {
 		t.exec();
 	}
 
+	/**
+	 * Closes the connection to Redis.
+	 */
+	@Override
+	public void close() {
+		jedis.close();
+	}
+
 	/**
 	 * Deletes all keys from the database.
 	 * 
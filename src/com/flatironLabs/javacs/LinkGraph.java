@@ -0,0 +1,195 @@
+package com.flatironschool.javacs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Records the links between crawled pages.
+ *
+ * Every URL gets a dense int docId, and the out-links of each page are
+ * kept as a sorted int array of docIds, so a graph with millions of edges
+ * costs a few bytes per edge.
+ *
+ */
+public class LinkGraph {
+
+	private static final int MAGIC = 0x4c4e4b47;  // "LNKG"
+
+	private static final int[] NO_LINKS = new int[0];
+
+	private final Map<String, Integer> ids = new HashMap<String, Integer>();
+	private final List<String> urls = new ArrayList<String>();
+	private int[][] outLinks = new int[16][];
+
+	/**
+	 * Returns the docId of a URL, assigning a new one if needed.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public synchronized int docId(String url) {
+		Integer id = ids.get(url);
+		if (id != null) {
+			return id;
+		}
+		int newId = urls.size();
+		ids.put(url, newId);
+		urls.add(url);
+		if (newId == outLinks.length) {
+			outLinks = Arrays.copyOf(outLinks, newId * 2);
+		}
+		return newId;
+	}
+
+	/**
+	 * Returns the docId of a URL, or -1 if it isn't in the graph.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public synchronized int lookup(String url) {
+		Integer id = ids.get(url);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Returns the URL with a given docId.
+	 *
+	 * @param docId
+	 * @return
+	 */
+	public synchronized String url(int docId) {
+		return urls.get(docId);
+	}
+
+	/**
+	 * Records the out-links of a page, replacing any recorded before.
+	 *
+	 * Duplicate links and links from the page to itself are dropped.
+	 *
+	 * @param url
+	 * @param links
+	 */
+	public synchronized void setLinks(String url, List<String> links) {
+		int source = docId(url);
+		int[] targets = new int[links.size()];
+		for (int i=0; i<targets.length; i++) {
+			targets[i] = docId(links.get(i));
+		}
+		Arrays.sort(targets);
+
+		int n = 0;
+		for (int i=0; i<targets.length; i++) {
+			if (targets[i] != source && (n == 0 || targets[i] != targets[n-1])) {
+				targets[n++] = targets[i];
+			}
+		}
+		outLinks[source] = Arrays.copyOf(targets, n);
+	}
+
+	/**
+	 * Returns the docIds a page links to.
+	 *
+	 * The array belongs to the graph and must not be modified.
+	 *
+	 * @param docId
+	 * @return
+	 */
+	public synchronized int[] outLinks(int docId) {
+		int[] links = outLinks[docId];
+		return links == null ? NO_LINKS : links;
+	}
+
+	/**
+	 * Returns the number of pages in the graph, crawled or not.
+	 *
+	 * @return
+	 */
+	public synchronized int size() {
+		return urls.size();
+	}
+
+	/**
+	 * Returns the number of links in the graph.
+	 *
+	 * @return
+	 */
+	public synchronized long edgeCount() {
+		long count = 0;
+		for (int i=0; i<urls.size(); i++) {
+			count += outLinks(i).length;
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the graph to a file.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public synchronized void save(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(urls.size());
+			for (String url: urls) {
+				out.writeUTF(url);
+			}
+			for (int i=0; i<urls.size(); i++) {
+				int[] links = outLinks(i);
+				out.writeInt(links.length);
+				for (int link: links) {
+					out.writeInt(link);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads a graph written by save.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static LinkGraph load(File file) throws IOException {
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a link graph file: " + file);
+			}
+			LinkGraph graph = new LinkGraph();
+			int n = in.readInt();
+			for (int i=0; i<n; i++) {
+				graph.docId(in.readUTF());
+			}
+			for (int i=0; i<n; i++) {
+				int[] links = new int[in.readInt()];
+				for (int j=0; j<links.length; j++) {
+					links[j] = in.readInt();
+				}
+				graph.outLinks[i] = links;
+			}
+			return graph;
+		} finally {
+			in.close();
+		}
+	}
+}
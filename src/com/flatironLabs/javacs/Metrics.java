@@ -0,0 +1,329 @@
+package com.flatironschool.javacs;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+
+/**
+ * Counters and latency histograms for the crawler, the index and search.
+ *
+ * Recording a value is a few atomic increments and never allocates, so
+ * metrics can stay on in production.  The global registry publishes every
+ * metric over JMX as it is created, under the domain
+ * com.flatironschool.javacs, and dump() returns them all as text.
+ *
+ * Metric names are dotted paths, e.g. "fetch.download" or
+ * "redis.roundTrips.getCounts".
+ *
+ */
+public class Metrics {
+
+	private static final String DOMAIN = "com.flatironschool.javacs";
+
+	private static final Metrics GLOBAL = new Metrics(true);
+
+	/**
+	 * What a Counter looks like over JMX.
+	 */
+	public interface CounterMBean {
+		long getCount();
+	}
+
+	/**
+	 * What a Histogram looks like over JMX; values are in its unit.
+	 */
+	public interface HistogramMBean {
+		long getCount();
+		String getUnit();
+		double getMean();
+		double getP50();
+		double getP90();
+		double getP99();
+		double getP999();
+		double getMax();
+	}
+
+	/**
+	 * A count that only goes up.
+	 */
+	public static class Counter implements CounterMBean {
+		private final AtomicLong count = new AtomicLong();
+
+		public void increment() {
+			count.incrementAndGet();
+		}
+
+		public void add(long n) {
+			count.addAndGet(n);
+		}
+
+		@Override
+		public long getCount() {
+			return count.get();
+		}
+
+		@Override
+		public String toString() {
+			return Long.toString(getCount());
+		}
+	}
+
+	/**
+	 * Records non-negative long values (usually nanoseconds) in log-linear
+	 * buckets, the way HdrHistogram does: each power of two is split into
+	 * 32 equal buckets, so a percentile is within about 3% of the true
+	 * value whatever the range.
+	 *
+	 * The bucket array is fixed, so recording never allocates or locks.
+	 * Reads are not atomic across buckets; a percentile computed while
+	 * values are being recorded may be off by the values in flight.
+	 */
+	public static class Histogram implements HistogramMBean {
+		private static final int SUB_BITS = 5;
+		private static final int SUB_COUNT = 1 << SUB_BITS;
+		private static final int BUCKETS = 2 * SUB_COUNT + (63 - SUB_BITS) * SUB_COUNT;
+
+		private final String unit;
+		private final double scale;
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong sum = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+
+		/**
+		 * Constructor.
+		 *
+		 * @param unit   Name of the unit values are reported in.
+		 * @param scale  Multiplies recorded values to get that unit.
+		 */
+		public Histogram(String unit, double scale) {
+			this.unit = unit;
+			this.scale = scale;
+		}
+
+		/**
+		 * Records a value; negative values count as 0.
+		 *
+		 * @param value
+		 */
+		public void record(long value) {
+			if (value < 0) {
+				value = 0;
+			}
+			buckets.incrementAndGet(index(value));
+			count.incrementAndGet();
+			sum.addAndGet(value);
+			long m;
+			while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+			}
+		}
+
+		/**
+		 * Records the nanoseconds since `start`, a value of System.nanoTime().
+		 *
+		 * @param start
+		 */
+		public void recordSince(long start) {
+			record(System.nanoTime() - start);
+		}
+
+		private static int index(long value) {
+			if (value < 2 * SUB_COUNT) {
+				return (int) value;
+			}
+			int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+			int top = (int) (value >>> shift);
+			return 2 * SUB_COUNT + (shift - 1) * SUB_COUNT + (top - SUB_COUNT);
+		}
+
+		// the middle of the range of values in a bucket
+		private static double midpoint(int index) {
+			if (index < 2 * SUB_COUNT) {
+				return index;
+			}
+			int shift = (index - 2 * SUB_COUNT) / SUB_COUNT + 1;
+			long top = (index - 2 * SUB_COUNT) % SUB_COUNT + SUB_COUNT;
+			return (double) top * (1L << shift) + ((1L << shift) - 1) / 2.0;
+		}
+
+		/**
+		 * Returns the value at a percentile, in this histogram's unit.
+		 *
+		 * @param p  Between 0 and 100.
+		 * @return
+		 */
+		public double percentile(double p) {
+			long n = count.get();
+			if (n == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(p / 100 * n));
+			long seen = 0;
+			for (int i=0; i<BUCKETS; i++) {
+				seen += buckets.get(i);
+				if (seen >= rank) {
+					return Math.min(midpoint(i), max.get()) * scale;
+				}
+			}
+			return max.get() * scale;
+		}
+
+		@Override
+		public long getCount() {
+			return count.get();
+		}
+
+		@Override
+		public String getUnit() {
+			return unit;
+		}
+
+		@Override
+		public double getMean() {
+			long n = count.get();
+			return n == 0 ? 0 : (double) sum.get() / n * scale;
+		}
+
+		@Override
+		public double getP50() {
+			return percentile(50);
+		}
+
+		@Override
+		public double getP90() {
+			return percentile(90);
+		}
+
+		@Override
+		public double getP99() {
+			return percentile(99);
+		}
+
+		@Override
+		public double getP999() {
+			return percentile(99.9);
+		}
+
+		@Override
+		public double getMax() {
+			return max.get() * scale;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("n=%d mean=%.2f%s p50=%.2f p90=%.2f p99=%.2f p999=%.2f max=%.2f",
+					getCount(), getMean(), unit, getP50(), getP90(), getP99(), getP999(), getMax());
+		}
+	}
+
+	private final boolean jmx;
+	private final Map<String, Counter> counters = new TreeMap<String, Counter>();
+	private final Map<String, Histogram> histograms = new TreeMap<String, Histogram>();
+
+	/**
+	 * Makes a registry.
+	 *
+	 * @param jmx  Whether to publish its metrics over JMX.
+	 */
+	public Metrics(boolean jmx) {
+		this.jmx = jmx;
+	}
+
+	/**
+	 * Returns the registry the rest of the code records into.
+	 *
+	 * @return
+	 */
+	public static Metrics global() {
+		return GLOBAL;
+	}
+
+	/**
+	 * Returns the counter with the given name, making it if needed.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public synchronized Counter counter(String name) {
+		Counter counter = counters.get(name);
+		if (counter == null) {
+			counter = new Counter();
+			counters.put(name, counter);
+			register(name, counter, CounterMBean.class);
+		}
+		return counter;
+	}
+
+	/**
+	 * Returns the histogram of durations with the given name, making it if
+	 * needed.  Record nanoseconds; it reports milliseconds.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public Histogram timer(String name) {
+		return histogram(name, "ms", 1e-6);
+	}
+
+	/**
+	 * Returns the histogram of sizes or counts with the given name, making
+	 * it if needed.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public Histogram histogram(String name) {
+		return histogram(name, "", 1);
+	}
+
+	private synchronized Histogram histogram(String name, String unit, double scale) {
+		Histogram histogram = histograms.get(name);
+		if (histogram == null) {
+			histogram = new Histogram(unit, scale);
+			histograms.put(name, histogram);
+			register(name, histogram, HistogramMBean.class);
+		}
+		return histogram;
+	}
+
+	private <T> void register(String name, T metric, Class<T> type) {
+		if (!jmx) {
+			return;
+		}
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(DOMAIN + ":type=Metrics,name=" + ObjectName.quote(name));
+			if (!server.isRegistered(objectName)) {
+				server.registerMBean(new StandardMBean(metric, type), objectName);
+			}
+		} catch (Exception e) {
+			// JMX is a convenience; the metric still works without it
+		}
+	}
+
+	/**
+	 * Returns every metric as text, one per line, sorted by name.
+	 *
+	 * @return
+	 */
+	public synchronized String dump() {
+		StringBuilder sb = new StringBuilder();
+		for (Entry<String, Counter> entry: counters.entrySet()) {
+			sb.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+		}
+		for (Entry<String, Histogram> entry: histograms.entrySet()) {
+			if (entry.getValue().getCount() > 0) {
+				sb.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,217 @@
+package com.flatironschool.javacs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * Serves a directory of saved HTML pages over HTTP on localhost, so the
+ * crawler can be run and timed without touching the network.
+ *
+ * A request for /wiki/NAME returns the file NAME from the directory.  The
+ * server can be told to add latency, fail some requests, and add extra
+ * links to other pages in the directory so the crawl doesn't run dry.
+ * The random choices come from a seed, so two runs with the same settings
+ * see the same pages, links and errors.
+ *
+ */
+public class MockWebServer {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File dir;
+	private final String[] pages;
+	private final long latencyMillis;
+	private final long jitterMillis;
+	private final double errorRate;
+	private final int fanOut;
+	private final long seed;
+
+	// number of requests so far for each page
+	private final ConcurrentMap<String, AtomicInteger> requests =
+			new ConcurrentHashMap<String, AtomicInteger>();
+
+	private HttpServer server;
+	private ExecutorService executor;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param dir            Directory of HTML files to serve.
+	 * @param latencyMillis  Delay before every response.
+	 * @param jitterMillis   Extra random delay, up to this much.
+	 * @param errorRate      Fraction of requests that get a 503.
+	 * @param fanOut         Number of extra links added to each page.
+	 * @param seed           Seed for the random choices.
+	 */
+	public MockWebServer(File dir, long latencyMillis, long jitterMillis,
+			double errorRate, int fanOut, long seed) {
+		this.dir = dir;
+		this.latencyMillis = latencyMillis;
+		this.jitterMillis = jitterMillis;
+		this.errorRate = errorRate;
+		this.fanOut = fanOut;
+		this.seed = seed;
+
+		String[] names = dir.list();
+		if (names == null) {
+			throw new IllegalArgumentException("Not a directory: " + dir);
+		}
+		Arrays.sort(names);
+		this.pages = names;
+	}
+
+	/**
+	 * Starts serving on the given port.
+	 *
+	 * @param port  Port number, or 0 to pick a free one.
+	 * @throws IOException
+	 */
+	public void start(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		server.createContext("/wiki/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				serve(exchange);
+			}
+		});
+
+		// enough threads that the artificial latency doesn't serialize requests
+		executor = Executors.newFixedThreadPool(32);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * Stops the server.
+	 */
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Returns the port the server is listening on.
+	 *
+	 * @return
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Returns the URL of a page in the directory.
+	 *
+	 * @param name  File name, e.g. "Java_(programming_language)".
+	 * @return
+	 */
+	public String url(String name) {
+		return "http://localhost:" + getPort() + "/wiki/" + name;
+	}
+
+	/**
+	 * Returns the names of the pages being served.
+	 *
+	 * @return
+	 */
+	public String[] getPages() {
+		return pages.clone();
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		String name = URLDecoder.decode(
+				exchange.getRequestURI().getRawPath().substring("/wiki/".length()), "UTF-8");
+
+		// seed from the page name and how many times it has been requested,
+		// so each request behaves the same way every run
+		int attempt = attempts(name);
+		Random random = new Random(seed ^ name.hashCode() ^ (attempt * 0x9E3779B97F4A7C15L));
+		long delay = latencyMillis;
+		if (jitterMillis > 0) {
+			delay += (long) (random.nextDouble() * jitterMillis);
+		}
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		File file = new File(dir, name);
+		if (random.nextDouble() < errorRate) {
+			send(exchange, 503, "Service Unavailable".getBytes(UTF8));
+			return;
+		}
+		if (name.contains("/") || !file.isFile()) {
+			send(exchange, 404, "Not Found".getBytes(UTF8));
+			return;
+		}
+
+		String html = new String(Files.readAllBytes(file.toPath()), UTF8);
+		send(exchange, 200, addLinks(html, new Random(seed ^ name.hashCode())).getBytes(UTF8));
+	}
+
+	/**
+	 * Adds a paragraph of `fanOut` links to other pages in the directory,
+	 * at the start of the article text so the crawler follows them.
+	 */
+	private String addLinks(String html, Random random) {
+		if (fanOut <= 0 || pages.length == 0) {
+			return html;
+		}
+		StringBuilder sb = new StringBuilder("<p>");
+		for (int i=0; i<fanOut; i++) {
+			String target = pages[random.nextInt(pages.length)];
+			sb.append("<a href=\"/wiki/").append(target).append("\">").append(target).append("</a> ");
+		}
+		sb.append("</p>");
+
+		int content = html.indexOf("id=\"mw-content-text\"");
+		if (content >= 0) {
+			int open = html.indexOf('>', content) + 1;
+			return html.substring(0, open) + sb + html.substring(open);
+		}
+		int end = html.lastIndexOf("</body>");
+		if (end < 0) {
+			return html + sb;
+		}
+		return html.substring(0, end) + sb + html.substring(end);
+	}
+
+	private int attempts(String name) {
+		AtomicInteger count = requests.get(name);
+		if (count == null) {
+			AtomicInteger newCount = new AtomicInteger();
+			count = requests.putIfAbsent(name, newCount);
+			if (count == null) {
+				count = newCount;
+			}
+		}
+		return count.getAndIncrement();
+	}
+
+	private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+}
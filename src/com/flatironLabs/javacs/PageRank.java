@@ -0,0 +1,216 @@
+package com.flatironschool.javacs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import redis.clients.jedis.Jedis;
+
+
+/**
+ * Computes PageRank over a LinkGraph by parallel power iteration.
+ *
+ * The graph is first turned around into compressed in-link arrays, so
+ * each iteration can compute the new rank of a page by pulling from the
+ * pages that link to it.  Every page is written by exactly one task, so
+ * the iterations need no locking, and everything lives in primitive
+ * arrays.
+ *
+ */
+public class PageRank {
+
+	// ranges smaller than this are computed without forking
+	private static final int THRESHOLD = 4096;
+
+	private final int n;
+	private final int[] outDegree;
+	private final int[] inOffsets;
+	private final int[] inSources;
+	private final double damping;
+
+	private double[] rank;
+	private double[] next;
+	private final double[] contribution;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param graph
+	 * @param damping  Probability of following a link rather than jumping; usually 0.85.
+	 */
+	public PageRank(LinkGraph graph, double damping) {
+		this.damping = damping;
+		this.n = graph.size();
+		this.outDegree = new int[n];
+
+		// count in-links, then lay them out in one array (CSR)
+		int[] inDegree = new int[n];
+		for (int i=0; i<n; i++) {
+			int[] links = graph.outLinks(i);
+			outDegree[i] = links.length;
+			for (int target: links) {
+				inDegree[target]++;
+			}
+		}
+		inOffsets = new int[n + 1];
+		for (int i=0; i<n; i++) {
+			inOffsets[i+1] = inOffsets[i] + inDegree[i];
+		}
+		inSources = new int[inOffsets[n]];
+		int[] fill = new int[n];
+		for (int i=0; i<n; i++) {
+			for (int target: graph.outLinks(i)) {
+				inSources[inOffsets[target] + fill[target]++] = i;
+			}
+		}
+
+		rank = new double[n];
+		next = new double[n];
+		contribution = new double[n];
+		for (int i=0; i<n; i++) {
+			rank[i] = 1.0 / n;
+		}
+	}
+
+	/**
+	 * Iterates until the ranks change by less than `tolerance` in total, or
+	 * `maxIterations` is reached.
+	 *
+	 * @param pool
+	 * @param maxIterations
+	 * @param tolerance
+	 * @return Number of iterations run.
+	 */
+	public int run(ForkJoinPool pool, int maxIterations, double tolerance) {
+		for (int iteration=1; iteration<=maxIterations; iteration++) {
+			// rank held by pages with no out-links is spread over every page
+			double dangling = pool.invoke(new Contribute(0, n));
+			double base = (1 - damping) / n + damping * dangling / n;
+
+			double delta = pool.invoke(new Pull(0, n, base));
+			double[] tmp = rank;
+			rank = next;
+			next = tmp;
+
+			if (delta < tolerance) {
+				return iteration;
+			}
+		}
+		return maxIterations;
+	}
+
+	/**
+	 * Returns the rank of each docId; the ranks add up to 1.
+	 *
+	 * @return
+	 */
+	public double[] getRanks() {
+		return rank;
+	}
+
+	/**
+	 * Computes each page's share of rank for its out-links, and returns the
+	 * total rank of pages with no out-links.
+	 */
+	private class Contribute extends RecursiveTask<Double> {
+		private static final long serialVersionUID = 1L;
+
+		private final int from, to;
+
+		Contribute(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Double compute() {
+			if (to - from > THRESHOLD) {
+				int mid = (from + to) >>> 1;
+				Contribute left = new Contribute(from, mid);
+				left.fork();
+				double right = new Contribute(mid, to).compute();
+				return left.join() + right;
+			}
+			double dangling = 0;
+			for (int i=from; i<to; i++) {
+				if (outDegree[i] == 0) {
+					dangling += rank[i];
+					contribution[i] = 0;
+				} else {
+					contribution[i] = rank[i] / outDegree[i];
+				}
+			}
+			return dangling;
+		}
+	}
+
+	/**
+	 * Computes the new rank of each page from its in-links, and returns the
+	 * total change.
+	 */
+	private class Pull extends RecursiveTask<Double> {
+		private static final long serialVersionUID = 1L;
+
+		private final int from, to;
+		private final double base;
+
+		Pull(int from, int to, double base) {
+			this.from = from;
+			this.to = to;
+			this.base = base;
+		}
+
+		@Override
+		protected Double compute() {
+			if (to - from > THRESHOLD) {
+				int mid = (from + to) >>> 1;
+				Pull left = new Pull(from, mid, base);
+				left.fork();
+				double right = new Pull(mid, to, base).compute();
+				return left.join() + right;
+			}
+			double delta = 0;
+			for (int i=from; i<to; i++) {
+				double sum = 0;
+				for (int j=inOffsets[i]; j<inOffsets[i+1]; j++) {
+					sum += contribution[inSources[j]];
+				}
+				next[i] = base + damping * sum;
+				delta += Math.abs(next[i] - rank[i]);
+			}
+			return delta;
+		}
+	}
+
+	/**
+	 * Computes PageRank for a saved link graph and stores it in the index.
+	 *
+	 * @param args  Path of the link graph file written by WikiCrawler.
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		String filename = args.length > 0 ? args[0] : "linkgraph.bin";
+		LinkGraph graph = LinkGraph.load(new File(filename));
+		System.out.println("Loaded " + graph.size() + " pages, " + graph.edgeCount() + " links");
+
+		long start = System.currentTimeMillis();
+		PageRank pageRank = new PageRank(graph, 0.85);
+		int iterations = pageRank.run(new ForkJoinPool(), 100, 1e-9);
+		System.out.println("Converged after " + iterations + " iterations in "
+				+ (System.currentTimeMillis() - start) + " ms");
+
+		double[] ranks = pageRank.getRanks();
+		Map<String, Double> map = new HashMap<String, Double>();
+		for (int i=0; i<ranks.length; i++) {
+			map.put(graph.url(i), ranks[i]);
+		}
+
+		Jedis jedis = JedisMaker.make();
+		JedisIndex index = new JedisIndex(jedis);
+		index.storeStaticRanks(map);
+		jedis.close();
+	}
+}
@@ -0,0 +1,401 @@
+package com.flatironschool.javacs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+
+/**
+ * Keeps the postings of frequently searched terms in memory, so they
+ * don't have to be fetched from Redis on every query.
+ *
+ * The cache holds decoded postings (URL and frequency arrays), not whole
+ * query results, and is bounded by an estimate of the bytes they use.
+ *
+ * Admission is TinyLFU: every lookup, hit or miss, is counted in a small
+ * count-min sketch, and when the cache is full a new term only gets in if
+ * it has been looked up more often than the entries it would push out.
+ * A term seen once only sets a bit in the doorkeeper, so one-off lookups
+ * (a scan, a burst of rare terms) neither pollute the cache nor the
+ * sketch.  The counts are halved now and then so old popularity fades.
+ *
+ * When a page is indexed, its terms are dropped, and so is every cached
+ * term whose postings list the page, since a re-indexed page may no
+ * longer contain it; register the cache with SearchIndex.addIndexListener,
+ * as CachingSearchIndex does.
+ * Writes that don't go through the listeners, such as JedisIndex.reanalyze
+ * or importSnapshot, need a clear().
+ *
+ */
+public class PostingsCache implements IndexListener {
+
+	private static final Metrics.Counter HITS = Metrics.global().counter("cache.postings.hits");
+	private static final Metrics.Counter MISSES = Metrics.global().counter("cache.postings.misses");
+	private static final Metrics.Counter REJECTED = Metrics.global().counter("cache.postings.rejected");
+	private static final Metrics.Counter EVICTIONS = Metrics.global().counter("cache.postings.evictions");
+	private static final Metrics.Counter INVALIDATIONS = Metrics.global().counter("cache.postings.invalidations");
+
+	/**
+	 * The pages that contain a term, and the term's frequency on each,
+	 * sorted by URL.
+	 */
+	public static class Postings {
+		private final String[] urls;
+		private final double[] scores;
+		private final long bytes;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param term
+		 * @param map  Map from URL to term frequency, as getCounts returns it.
+		 */
+		public Postings(String term, Map<String, Double> map) {
+			urls = new String[map.size()];
+			scores = new double[map.size()];
+			long size = 64 + 2L * term.length();
+			List<Entry<String, Double>> sorted = new ArrayList<Entry<String, Double>>(map.entrySet());
+			Collections.sort(sorted, Entry.comparingByKey());
+			int i = 0;
+			for (Entry<String, Double> entry: sorted) {
+				urls[i] = entry.getKey();
+				scores[i] = entry.getValue();
+				// reference, double, and the String itself
+				size += 16 + 40 + 2L * urls[i].length();
+				i++;
+			}
+			bytes = size;
+		}
+
+		public int size() {
+			return urls.length;
+		}
+
+		public String url(int i) {
+			return urls[i];
+		}
+
+		public double score(int i) {
+			return scores[i];
+		}
+
+		/**
+		 * Checks whether a page contains the term.
+		 */
+		public boolean contains(String url) {
+			return Arrays.binarySearch(urls, url) >= 0;
+		}
+
+		/**
+		 * Returns an estimate of the memory used, in bytes.
+		 */
+		public long bytes() {
+			return bytes;
+		}
+
+		/**
+		 * Returns a new map from URL to term frequency, which the caller
+		 * may change.
+		 */
+		public Map<String, Double> toMap() {
+			Map<String, Double> map = new HashMap<String, Double>(urls.length * 4 / 3 + 1);
+			for (int i=0; i<urls.length; i++) {
+				map.put(urls[i], scores[i]);
+			}
+			return map;
+		}
+	}
+
+	/**
+	 * Approximate counts of how often each term was looked up: a
+	 * count-min sketch of 4-bit counters behind a one-bit doorkeeper.
+	 */
+	static class FrequencySketch {
+		private static final int DEPTH = 4;
+		private static final int MAX = 15;
+		private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+		private final byte[][] counters;
+		private final BitSet doorkeeper;
+		private final int mask;
+		private final int sampleSize;
+		private int additions;
+
+		FrequencySketch(int width) {
+			int w = Integer.highestOneBit(Math.max(64, width - 1)) << 1;
+			counters = new byte[DEPTH][w];
+			doorkeeper = new BitSet(w * 2);
+			mask = w - 1;
+			sampleSize = 10 * w;
+		}
+
+		private static int index(int hash, int seed, int mask) {
+			int h = (hash ^ seed) * 0x9E3779B1;
+			return (h ^ (h >>> 16)) & mask;
+		}
+
+		void increment(Object key) {
+			int hash = key.hashCode();
+			int bit1 = index(hash, SEEDS[0], 2 * mask + 1);
+			int bit2 = index(hash, SEEDS[1], 2 * mask + 1);
+			if (!doorkeeper.get(bit1) || !doorkeeper.get(bit2)) {
+				doorkeeper.set(bit1);
+				doorkeeper.set(bit2);
+			} else {
+				for (int d=0; d<DEPTH; d++) {
+					int i = index(hash, SEEDS[d], mask);
+					if (counters[d][i] < MAX) {
+						counters[d][i]++;
+					}
+				}
+			}
+			if (++additions == sampleSize) {
+				reset();
+			}
+		}
+
+		int frequency(Object key) {
+			int hash = key.hashCode();
+			int min = MAX;
+			for (int d=0; d<DEPTH; d++) {
+				min = Math.min(min, counters[d][index(hash, SEEDS[d], mask)]);
+			}
+			boolean seen = doorkeeper.get(index(hash, SEEDS[0], 2 * mask + 1))
+					&& doorkeeper.get(index(hash, SEEDS[1], 2 * mask + 1));
+			return seen ? min + 1 : min;
+		}
+
+		/**
+		 * Halves every count and forgets the doorkeeper.
+		 */
+		private void reset() {
+			for (byte[] row: counters) {
+				for (int i=0; i<row.length; i++) {
+					row[i] >>= 1;
+				}
+			}
+			doorkeeper.clear();
+			additions = 0;
+		}
+	}
+
+	private final long maxBytes;
+	private long bytes;
+	private final LinkedHashMap<String, Postings> entries = new LinkedHashMap<String, Postings>(16, 0.75f, true);
+	private final FrequencySketch sketch;
+
+	// bumped by every invalidation; each bucket of terms remembers its last
+	// one, so a put of postings read before it can be refused
+	private static final int STAMPS = 4096;
+	private long version;
+	private final long[] stamps = new long[STAMPS];
+	private long cleared;
+
+	// the last RECENT pages indexed and the version when each was, so a put
+	// of postings read before a page was re-indexed can be refused too
+	private static final int RECENT = 1024;
+	private final String[] recentUrls = new String[RECENT];
+	private final long[] recentVersions = new long[RECENT];
+	private long indexedCount;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxBytes  Roughly how much memory the postings may use.
+	 */
+	public PostingsCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+		// about one counter per kilobyte cached, a typical posting list size
+		this.sketch = new FrequencySketch((int) Math.min(1 << 24, Math.max(1024, maxBytes / 1024)));
+	}
+
+	/**
+	 * Looks up the postings of a term, and counts the lookup.
+	 *
+	 * @param term
+	 * @return The postings, or null if they aren't cached.
+	 */
+	public synchronized Postings get(String term) {
+		sketch.increment(term);
+		Postings postings = entries.get(term);
+		if (postings == null) {
+			MISSES.increment();
+		} else {
+			HITS.increment();
+		}
+		return postings;
+	}
+
+	/**
+	 * Returns a number that grows whenever a term is invalidated.  Read it
+	 * before fetching postings and pass it to put().
+	 *
+	 * @return
+	 */
+	public synchronized long version() {
+		return version;
+	}
+
+	/**
+	 * Offers the postings of a term to the cache.
+	 *
+	 * @param term
+	 * @param postings
+	 * @param version   What version() returned before the postings were fetched;
+	 *                  if the term was invalidated since, they may be stale and
+	 *                  are not cached.
+	 * @return True if the postings were cached.
+	 */
+	public synchronized boolean put(String term, Postings postings, long version) {
+		if (stamps[bucket(term)] > version || cleared > version || postings.bytes() > maxBytes
+				|| indexedSince(postings, version)) {
+			REJECTED.increment();
+			return false;
+		}
+		Postings old = entries.remove(term);
+		if (old != null) {
+			bytes -= old.bytes();
+		}
+
+		// find the least recently used entries that would have to go
+		long needed = bytes + postings.bytes() - maxBytes;
+		List<String> victims = new ArrayList<String>();
+		if (needed > 0) {
+			int frequency = sketch.frequency(term);
+			Iterator<Entry<String, Postings>> it = entries.entrySet().iterator();
+			while (needed > 0) {
+				Entry<String, Postings> victim = it.next();
+				if (sketch.frequency(victim.getKey()) >= frequency) {
+					REJECTED.increment();
+					return false;
+				}
+				victims.add(victim.getKey());
+				needed -= victim.getValue().bytes();
+			}
+		}
+		for (String victim: victims) {
+			bytes -= entries.remove(victim).bytes();
+			EVICTIONS.increment();
+		}
+		entries.put(term, postings);
+		bytes += postings.bytes();
+		return true;
+	}
+
+	private static int bucket(String term) {
+		int h = term.hashCode();
+		return (h ^ (h >>> 16)) & (STAMPS - 1);
+	}
+
+	/**
+	 * Drops a term.
+	 *
+	 * @param term
+	 */
+	public synchronized void invalidate(String term) {
+		stamps[bucket(term)] = ++version;
+		Postings old = entries.remove(term);
+		if (old != null) {
+			bytes -= old.bytes();
+			INVALIDATIONS.increment();
+		}
+	}
+
+	/**
+	 * Drops the terms of a page that was just indexed, and any term whose
+	 * cached postings list the page.
+	 */
+	@Override
+	public synchronized void pageIndexed(TermFrequencies frequencies) {
+		for (int i=0; i<frequencies.size(); i++) {
+			invalidate(frequencies.term(i));
+		}
+
+		// terms the page had before and may have lost
+		invalidatePage(frequencies.getLabel());
+	}
+
+	/**
+	 * Drops the terms of a page that was taken out of the index, and any
+	 * term whose cached postings list the page.
+	 */
+	@Override
+	public synchronized void pageRemoved(String url, Collection<String> terms) {
+		for (String term: terms) {
+			invalidate(term);
+		}
+		invalidatePage(url);
+	}
+
+	/**
+	 * Drops every entry that lists a page, and remembers the page so a
+	 * lookup that started before this can't put it back.
+	 */
+	private void invalidatePage(String url) {
+		List<String> stale = new ArrayList<String>();
+		for (Entry<String, Postings> entry: entries.entrySet()) {
+			if (entry.getValue().contains(url)) {
+				stale.add(entry.getKey());
+			}
+		}
+		for (String term: stale) {
+			invalidate(term);
+		}
+
+		int slot = (int) (indexedCount++ % RECENT);
+		recentUrls[slot] = url;
+		recentVersions[slot] = ++version;
+	}
+
+	/**
+	 * Checks whether a page in the postings was indexed after `version`.
+	 */
+	private boolean indexedSince(Postings postings, long version) {
+		long n = Math.min(indexedCount, RECENT);
+		for (long i=1; i<=n; i++) {
+			int slot = (int) ((indexedCount - i) % RECENT);
+			if (recentVersions[slot] <= version) {
+				return false;
+			}
+			if (postings.contains(recentUrls[slot])) {
+				return true;
+			}
+		}
+		// more pages were indexed since than we remember
+		return indexedCount > RECENT;
+	}
+
+	/**
+	 * Drops everything, keeping the lookup counts.
+	 */
+	public synchronized void clear() {
+		cleared = ++version;
+		entries.clear();
+		bytes = 0;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the estimated bytes used by the cached postings.
+	 *
+	 * @return
+	 */
+	public synchronized long bytes() {
+		return bytes;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+}
@@ -0,0 +1,247 @@
+package com.flatironschool.javacs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * A parsed search query.
+ *
+ * A query is either a list of words, or two lists of words joined by one
+ * of the operators "or", "and" or "minus".  Words go through the same
+ * Analyzer as page text, so a query term matches the term it would have
+ * been indexed under.
+ *
+ * A list of words scores each page by the sum of the relevance of every
+ * word it contains, counted twice if it contains all of them.
+ *
+ */
+public class Query {
+
+	public enum Operator {
+		WORDS(null), OR(" or "), AND(" and "), MINUS(" minus ");
+
+		private final String keyword;
+
+		Operator(String keyword) {
+			this.keyword = keyword;
+		}
+	}
+
+	/**
+	 * Looks up the results for a single analyzed term.
+	 */
+	public interface TermLookup {
+		WikiSearch search(String term);
+	}
+
+	private final String text;
+	private final Operator operator;
+	private final List<String> left;
+	private final List<String> right;
+
+	private Query(String text, Operator operator, List<String> left, List<String> right) {
+		this.text = text;
+		this.operator = operator;
+		this.left = left;
+		this.right = right;
+	}
+
+	/**
+	 * Parses a query with the standard analyzer.
+	 *
+	 * @param text
+	 * @return
+	 */
+	public static Query parse(String text) {
+		return parse(text, Analyzer.standard());
+	}
+
+	/**
+	 * Parses a query.
+	 *
+	 * @param text
+	 * @param analyzer  Should be the analyzer the index was built with.
+	 * @return
+	 */
+	public static Query parse(String text, Analyzer analyzer) {
+		for (Operator operator: Operator.values()) {
+			if (operator.keyword == null) {
+				continue;
+			}
+			int i = indexOfIgnoreCase(text, operator.keyword);
+			if (i >= 0) {
+				List<String> left = analyzer.terms(text.substring(0, i));
+				List<String> right = analyzer.terms(text.substring(i + operator.keyword.length()));
+				return new Query(text, operator, left, right);
+			}
+		}
+		return new Query(text, Operator.WORDS, analyzer.terms(text), Collections.<String>emptyList());
+	}
+
+	/**
+	 * Finds a keyword in text, ignoring case.
+	 *
+	 * This doesn't search text.toLowerCase(), because lower-casing can
+	 * change the length of a string ("\u0130" becomes two chars) and the
+	 * index would not line up with the original.
+	 *
+	 * @return The index in text, or -1.
+	 */
+	private static int indexOfIgnoreCase(String text, String keyword) {
+		for (int i=0; i<=text.length()-keyword.length(); i++) {
+			if (text.regionMatches(true, i, keyword, 0, keyword.length())) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	public Operator getOperator() {
+		return operator;
+	}
+
+	/**
+	 * Returns every distinct term in the query, in order.
+	 *
+	 * @return
+	 */
+	public Set<String> terms() {
+		Set<String> terms = new LinkedHashSet<String>(left);
+		terms.addAll(right);
+		return terms;
+	}
+
+	/**
+	 * Returns a copy of this query with some of its terms replaced, for
+	 * example by their spelling corrections.
+	 *
+	 * The text of the new query is its terms, joined by the operator.
+	 *
+	 * @param replacements  Map from a term to the term to use instead;
+	 *                      terms that aren't in it are kept.
+	 * @return
+	 */
+	public Query rewrite(Map<String, String> replacements) {
+		List<String> newLeft = replace(left, replacements);
+		List<String> newRight = replace(right, replacements);
+		StringBuilder sb = new StringBuilder(join(newLeft));
+		if (operator != Operator.WORDS) {
+			sb.append(operator.keyword).append(join(newRight));
+		}
+		return new Query(sb.toString(), operator, newLeft, newRight);
+	}
+
+	private static List<String> replace(List<String> terms, Map<String, String> replacements) {
+		List<String> replaced = new ArrayList<String>(terms.size());
+		for (String term: terms) {
+			String replacement = replacements.get(term);
+			replaced.add(replacement == null ? term : replacement);
+		}
+		return replaced;
+	}
+
+	private static String join(List<String> terms) {
+		StringBuilder sb = new StringBuilder();
+		for (String term: terms) {
+			if (sb.length() > 0) {
+				sb.append(' ');
+			}
+			sb.append(term);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Computes the results of the query.
+	 *
+	 * Each distinct term is looked up once.
+	 *
+	 * @param lookup
+	 * @return
+	 */
+	public WikiSearch evaluate(TermLookup lookup) {
+		Map<String, WikiSearch> results = new HashMap<String, WikiSearch>();
+		for (String term: terms()) {
+			results.put(term, lookup.search(term));
+		}
+
+		WikiSearch a = words(left, results);
+		if (operator == Operator.WORDS) {
+			return a;
+		}
+
+		// an operand with no terms (say, only stop words) doesn't restrict anything
+		if (right.isEmpty()) {
+			return a;
+		}
+		WikiSearch b = words(right, results);
+		if (left.isEmpty()) {
+			return operator == Operator.MINUS ? a : b;
+		}
+
+		switch (operator) {
+		case OR:
+			return a.or(b);
+		case AND:
+			return a.and(b);
+		default:
+			return a.minus(b);
+		}
+	}
+
+	/**
+	 * Combines the results for a list of words.
+	 */
+	private static WikiSearch words(List<String> terms, Map<String, WikiSearch> results) {
+		if (terms.isEmpty()) {
+			return new WikiSearch(new HashMap<String, Double>());
+		}
+		WikiSearch intersect = results.get(terms.get(0));
+		if (terms.size() == 1) {
+			return intersect;
+		}
+		WikiSearch union = intersect;
+		for (int i=1; i<terms.size(); i++) {
+			WikiSearch next = results.get(terms.get(i));
+			intersect = intersect.and(next);
+			union = union.or(next);
+		}
+		return intersect.or(union);
+	}
+
+	@Override
+	public String toString() {
+		if (operator == Operator.WORDS) {
+			return left.toString();
+		}
+		return left + operator.keyword + right;
+	}
+
+	/**
+	 * Returns the terms of the left operand (or all of them, for a list of words).
+	 *
+	 * @return
+	 */
+	public List<String> getLeft() {
+		return new ArrayList<String>(left);
+	}
+
+	/**
+	 * Returns the terms of the right operand, empty for a list of words.
+	 *
+	 * @return
+	 */
+	public List<String> getRight() {
+		return new ArrayList<String>(right);
+	}
+}
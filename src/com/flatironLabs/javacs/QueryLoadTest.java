@@ -0,0 +1,394 @@
+package com.flatironschool.javacs;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Measures end-to-end query throughput and latency.
+ *
+ * Queries come from a log, replayed in order, or are made up of terms
+ * drawn from the indexed vocabulary with a Zipf distribution, so popular
+ * terms come up as often as they would from real users.  They go either
+ * to WikiSearch.searchTerms, with one JedisIndex per thread, or to an
+ * HTTP endpoint.
+ *
+ * Closed loop: each of N threads sends a query as soon as the last one
+ * comes back.  This finds the most the index can do, but a slow query
+ * holds back the ones behind it, so the latencies look better than users
+ * would see.
+ *
+ * Open loop: queries are sent at a fixed rate whether or not earlier ones
+ * are done, and latency is measured from when a query was due, so time
+ * spent waiting for a thread counts.  Raise the rate until latency climbs
+ * to find the QPS ceiling.
+ *
+ * Usage: QueryLoadTest closed|open THREADS SECONDS [RATE] [zipf:EXPONENT|FILE] [URL]
+ *
+ * URL is a template such as http://localhost:8080/search?q=%s; without
+ * one, queries go to the Redis named in redis_url.txt.
+ *
+ */
+public class QueryLoadTest {
+
+	/**
+	 * Makes the queries to send.
+	 */
+	public interface QuerySource {
+		String next(Random random);
+	}
+
+	/**
+	 * Runs one query; made once per thread.
+	 */
+	public interface Target {
+		/**
+		 * @return Number of results, or bytes of response.
+		 */
+		int execute(String query) throws Exception;
+	}
+
+	/**
+	 * Makes a Target for each thread.
+	 */
+	public interface TargetFactory {
+		Target make() throws IOException;
+	}
+
+	/**
+	 * What a run measured.
+	 */
+	public static class Report {
+		private final String mode;
+		private final Metrics.Histogram latency = new Metrics.Histogram("ms", 1e-6);
+		private final AtomicLong completed = new AtomicLong();
+		private final AtomicLong errors = new AtomicLong();
+		private final AtomicLong results = new AtomicLong();
+		private double seconds;
+
+		Report(String mode) {
+			this.mode = mode;
+		}
+
+		public Metrics.Histogram getLatency() {
+			return latency;
+		}
+
+		public long getCompleted() {
+			return completed.get();
+		}
+
+		public long getErrors() {
+			return errors.get();
+		}
+
+		public double getThroughput() {
+			return completed.get() / seconds;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %d queries in %.1fs, %.1f queries/sec, %d errors, %.1f results/query%n"
+					+ "latency ms: p50=%.2f p95=%.2f p99=%.2f p999=%.2f max=%.2f mean=%.2f%n",
+					mode, completed.get(), seconds, getThroughput(), errors.get(),
+					completed.get() == 0 ? 0.0 : (double) results.get() / completed.get(),
+					latency.getP50(), latency.percentile(95), latency.getP99(), latency.getP999(),
+					latency.getMax(), latency.getMean());
+		}
+	}
+
+	private final QuerySource source;
+	private final TargetFactory factory;
+	private final long seed;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param source
+	 * @param factory
+	 * @param seed     Seeds the random numbers, so runs send the same queries.
+	 */
+	public QueryLoadTest(QuerySource source, TargetFactory factory, long seed) {
+		this.source = source;
+		this.factory = factory;
+		this.seed = seed;
+	}
+
+	/**
+	 * Makes queries of one to three terms, each drawn from the vocabulary
+	 * by popularity; one query in ten joins two terms with an operator.
+	 *
+	 * @param frequencies  Map from term to document frequency.
+	 * @param exponent     Of the Zipf distribution over terms ranked by frequency.
+	 * @return
+	 */
+	public static QuerySource zipf(Map<String, Integer> frequencies, double exponent) {
+		List<Entry<String, Integer>> entries = new ArrayList<Entry<String, Integer>>(frequencies.entrySet());
+		Collections.sort(entries, (e1, e2) -> e2.getValue().compareTo(e1.getValue()));
+		final String[] terms = new String[entries.size()];
+		for (int i=0; i<terms.length; i++) {
+			terms[i] = entries.get(i).getKey();
+		}
+		final ZipfDistribution zipf = new ZipfDistribution(terms.length, exponent);
+		final String[] operators = {" and ", " or ", " minus "};
+		return random -> {
+			String first = terms[zipf.sample(random) - 1];
+			if (random.nextInt(10) == 0) {
+				return first + operators[random.nextInt(operators.length)] + terms[zipf.sample(random) - 1];
+			}
+			StringBuilder sb = new StringBuilder(first);
+			int words = 1 + random.nextInt(3);
+			for (int i=1; i<words; i++) {
+				sb.append(' ').append(terms[zipf.sample(random) - 1]);
+			}
+			return sb.toString();
+		};
+	}
+
+	/**
+	 * Replays the queries in a file, one per line, from the start again
+	 * when they run out.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static QuerySource replay(File file) throws IOException {
+		final List<String> queries = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (!line.trim().isEmpty()) {
+					queries.add(line.trim());
+				}
+			}
+		} finally {
+			in.close();
+		}
+		if (queries.isEmpty()) {
+			throw new IOException("No queries in " + file);
+		}
+		final AtomicInteger next = new AtomicInteger();
+		return random -> queries.get((next.getAndIncrement() & Integer.MAX_VALUE) % queries.size());
+	}
+
+	/**
+	 * Sends queries to WikiSearch.searchTerms with a new index per thread.
+	 *
+	 * @param indexes
+	 * @return
+	 */
+	public static TargetFactory search(final CrawlPipeline.IndexFactory indexes) {
+		return () -> {
+			final SearchIndex index = indexes.make();
+			return query -> WikiSearch.searchTerms(query, index).sort().size();
+		};
+	}
+
+	/**
+	 * Sends queries to an HTTP endpoint and reads the whole response.
+	 *
+	 * @param template  A URL with %s where the encoded query goes.
+	 * @return
+	 */
+	public static TargetFactory http(final String template) {
+		return () -> query -> {
+			URL url = new URL(String.format(template, URLEncoder.encode(query, "UTF-8")));
+			HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+			conn.setConnectTimeout(5000);
+			conn.setReadTimeout(30000);
+			int status = conn.getResponseCode();
+			if (status != HttpURLConnection.HTTP_OK) {
+				conn.disconnect();
+				throw new IOException("HTTP " + status + " for " + url);
+			}
+			InputStream in = conn.getInputStream();
+			byte[] buffer = new byte[8192];
+			int total = 0;
+			int n;
+			try {
+				while ((n = in.read(buffer)) > 0) {
+					total += n;
+				}
+			} finally {
+				in.close();
+			}
+			return total;
+		};
+	}
+
+	/**
+	 * Runs `threads` threads, each sending its next query as soon as the
+	 * last one returns.
+	 *
+	 * @param threads
+	 * @param seconds  How long to measure.
+	 * @param warmup   Seconds to run first without measuring.
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public Report closedLoop(int threads, double seconds, double warmup) throws InterruptedException {
+		final Report report = new Report("closed loop, " + threads + " threads");
+		final long measureFrom = System.nanoTime() + (long) (warmup * 1e9);
+		final long end = measureFrom + (long) (seconds * 1e9);
+
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int t=0; t<threads; t++) {
+			final Random random = new Random(seed + t);
+			Thread worker = new Thread(() -> {
+				Target target = makeTarget(report);
+				if (target == null) {
+					return;
+				}
+				long now;
+				while ((now = System.nanoTime()) < end) {
+					run(target, source.next(random), now, now >= measureFrom ? report : null);
+				}
+			}, "load-" + t);
+			workers.add(worker);
+			worker.start();
+		}
+		for (Thread worker: workers) {
+			worker.join();
+		}
+		report.seconds = seconds;
+		return report;
+	}
+
+	/**
+	 * Sends `rate` queries per second, spread evenly, to a pool of
+	 * `threads` threads; queries wait in a queue when every thread is
+	 * busy, and the wait counts toward their latency.
+	 *
+	 * @param rate     Queries per second.
+	 * @param threads
+	 * @param seconds  How long to measure.
+	 * @param warmup   Seconds to run first without measuring.
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public Report openLoop(double rate, int threads, double seconds, double warmup)
+			throws InterruptedException {
+		final Report report = new Report(String.format("open loop, %.0f/sec, %d threads", rate, threads));
+		final ThreadLocal<Target> targets = new ThreadLocal<Target>();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+		Random random = new Random(seed);
+		long interval = (long) (1e9 / rate);
+		long start = System.nanoTime();
+		long measureFrom = start + (long) (warmup * 1e9);
+		long end = measureFrom + (long) (seconds * 1e9);
+		for (long due = start; due < end; due += interval) {
+			long wait = due - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			final String query = source.next(random);
+			final long intended = due;
+			final Report measured = due >= measureFrom ? report : null;
+			pool.execute(() -> {
+				Target target = targets.get();
+				if (target == null) {
+					target = makeTarget(report);
+					if (target == null) {
+						return;
+					}
+					targets.set(target);
+				}
+				run(target, query, intended, measured);
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		report.seconds = (System.nanoTime() - measureFrom) / 1e9;
+		return report;
+	}
+
+	private Target makeTarget(Report report) {
+		try {
+			return factory.make();
+		} catch (IOException e) {
+			report.errors.incrementAndGet();
+			System.err.println("Can't make target: " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Runs one query and, if `report` isn't null, records it there.
+	 */
+	private static void run(Target target, String query, long start, Report report) {
+		try {
+			int results = target.execute(query);
+			if (report != null) {
+				report.latency.recordSince(start);
+				report.completed.incrementAndGet();
+				report.results.addAndGet(results);
+			}
+		} catch (Exception e) {
+			if (report != null) {
+				report.errors.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3 || !(args[0].equals("closed") || args[0].equals("open"))) {
+			System.err.println("Usage: QueryLoadTest closed|open THREADS SECONDS [RATE] "
+					+ "[zipf:EXPONENT|FILE] [URL]");
+			System.exit(1);
+		}
+		int threads = Integer.parseInt(args[1]);
+		double seconds = Double.parseDouble(args[2]);
+		double rate = args.length > 3 ? Double.parseDouble(args[3]) : 100;
+		String from = args.length > 4 ? args[4] : "zipf:1.0";
+
+		CrawlPipeline.IndexFactory indexes = () -> new JedisIndex(JedisMaker.make());
+		QuerySource source;
+		if (from.startsWith("zipf:")) {
+			Map<String, Integer> frequencies = new JedisIndex(JedisMaker.make()).documentFrequencies();
+			if (frequencies.isEmpty()) {
+				System.err.println("The index is empty");
+				System.exit(1);
+			}
+			source = zipf(frequencies, Double.parseDouble(from.substring(5)));
+		} else {
+			source = replay(new File(from));
+		}
+		TargetFactory factory = args.length > 5 ? http(args[5]) : search(indexes);
+
+		// keep the slow query log from flooding the output
+		SlowQueryLog.global().setOutput(null);
+
+		QueryLoadTest test = new QueryLoadTest(source, factory, 42);
+		double warmup = Math.min(5, seconds / 5);
+		Report report = args[0].equals("closed")
+				? test.closedLoop(threads, seconds, warmup)
+				: test.openLoop(rate, threads, seconds, warmup);
+		System.out.print(report);
+	}
+}
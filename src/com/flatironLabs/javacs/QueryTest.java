@@ -0,0 +1,42 @@
+package com.flatironschool.javacs;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Checks how Query.parse splits a query at its operator.
+ *
+ */
+public class QueryTest {
+
+	private final Analyzer analyzer = Analyzer.standard();
+
+	@Test
+	public void testOperators() {
+		Query query = Query.parse("java AND programming");
+		assertThat(query.getOperator(), is(Query.Operator.AND));
+		assertThat(query.getLeft(), is(analyzer.terms("java")));
+		assertThat(query.getRight(), is(analyzer.terms("programming")));
+
+		assertThat(Query.parse("java Or coffee").getOperator(), is(Query.Operator.OR));
+		assertThat(Query.parse("java minus island").getOperator(), is(Query.Operator.MINUS));
+		assertThat(Query.parse("java programming").getOperator(), is(Query.Operator.WORDS));
+		assertThat(Query.parse("").getOperator(), is(Query.Operator.WORDS));
+	}
+
+	@Test
+	public void testLowerCaseChangesLength() {
+		// a capital dotted I lower-cases to two chars, which used to shift the split
+		Query query = Query.parse("\u0130\u0130 and x");
+		assertThat(query.getOperator(), is(Query.Operator.AND));
+		assertThat(query.getLeft(), is(analyzer.terms("\u0130\u0130")));
+		assertThat(query.getRight(), is(analyzer.terms("x")));
+
+		query = Query.parse("\u0130stanbul \u0130zmir and turkey");
+		assertThat(query.getOperator(), is(Query.Operator.AND));
+		assertThat(query.getLeft(), is(analyzer.terms("\u0130stanbul \u0130zmir")));
+		assertThat(query.getRight(), is(analyzer.terms("turkey")));
+	}
+}
@@ -0,0 +1,238 @@
+package com.flatironschool.javacs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Records where the time went while answering one query: each phase,
+ * every Redis command with its duration, and the sizes of intermediate
+ * results.
+ *
+ * Tracing is off unless setEnabled(true) is called or the system property
+ * queryTrace is true.  A trace belongs to the thread that began it, and
+ * the code being traced finds it with current(), which returns null when
+ * nothing is being traced, so untraced queries pay for one ThreadLocal
+ * lookup per event and build no strings.
+ *
+ * When a trace finishes it is handed to the SlowQueryLog, which keeps it
+ * if the query took too long.
+ *
+ */
+public class QueryTrace {
+
+	// at most this many events are kept; later ones are only counted
+	private static final int MAX_EVENTS = 1000;
+
+	private static volatile boolean enabled = Boolean.getBoolean("queryTrace");
+
+	private static final ThreadLocal<QueryTrace> CURRENT = new ThreadLocal<QueryTrace>();
+
+	/**
+	 * Something that happened during a query.
+	 */
+	public static class Event {
+		public enum Kind { PHASE, REDIS, SIZE }
+
+		private final Kind kind;
+		private final String name;
+		private final long offset;
+		private final long value;
+
+		Event(Kind kind, String name, long offset, long value) {
+			this.kind = kind;
+			this.name = name;
+			this.offset = offset;
+			this.value = value;
+		}
+
+		public Kind getKind() {
+			return kind;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns nanoseconds from the start of the query to the start of
+		 * the event.
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		/**
+		 * Returns the duration in nanoseconds, or the size for a SIZE event.
+		 */
+		public long getValue() {
+			return value;
+		}
+
+		@Override
+		public String toString() {
+			if (kind == Kind.SIZE) {
+				return String.format("%9.3fms  %-6s %s = %d", offset / 1e6, kind, name, value);
+			}
+			return String.format("%9.3fms  %-6s %s (%.3fms)", offset / 1e6, kind, name, value / 1e6);
+		}
+	}
+
+	private final String query;
+	private final long start = System.nanoTime();
+	private long end;
+	private long idle;
+	private final List<Event> events = new ArrayList<Event>();
+	private int dropped;
+	private int redisCommands;
+	private long redisNanos;
+
+	private QueryTrace(String query) {
+		this.query = query;
+	}
+
+	/**
+	 * Turns tracing on or off for queries that begin after this call.
+	 *
+	 * @param on
+	 */
+	public static void setEnabled(boolean on) {
+		enabled = on;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Starts tracing a query on this thread.
+	 *
+	 * Returns null, and starts nothing, if tracing is off or this thread
+	 * is already tracing a query; in that case the events go to the
+	 * trace that is already running.
+	 *
+	 * @param query
+	 * @return The new trace, which the caller must finish().
+	 */
+	public static QueryTrace begin(String query) {
+		if (!enabled || CURRENT.get() != null) {
+			return null;
+		}
+		QueryTrace trace = new QueryTrace(query);
+		CURRENT.set(trace);
+		return trace;
+	}
+
+	/**
+	 * Returns the trace running on this thread, or null.
+	 *
+	 * @return
+	 */
+	public static QueryTrace current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Records a phase that started at `startNanos` (from System.nanoTime)
+	 * and ends now.
+	 *
+	 * @param name
+	 * @param startNanos
+	 */
+	public void phase(String name, long startNanos) {
+		add(Event.Kind.PHASE, name, startNanos, System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Records a Redis command that started at `startNanos` and ends now.
+	 *
+	 * @param command  The command and its arguments.
+	 * @param startNanos
+	 */
+	public void redis(String command, long startNanos) {
+		long nanos = System.nanoTime() - startNanos;
+		redisCommands++;
+		redisNanos += nanos;
+		add(Event.Kind.REDIS, command, startNanos, nanos);
+	}
+
+	/**
+	 * Records the size of an intermediate result.
+	 *
+	 * @param name
+	 * @param size
+	 */
+	public void size(String name, long size) {
+		add(Event.Kind.SIZE, name, System.nanoTime(), size);
+	}
+
+	/**
+	 * Records time that doesn't count against the query, such as a
+	 * deliberate pause between requests to another server.
+	 *
+	 * @param startNanos
+	 */
+	public void idle(long startNanos) {
+		idle += System.nanoTime() - startNanos;
+	}
+
+	private void add(Event.Kind kind, String name, long at, long value) {
+		if (events.size() < MAX_EVENTS) {
+			events.add(new Event(kind, name, at - start, value));
+		} else {
+			dropped++;
+		}
+	}
+
+	/**
+	 * Stops the trace, detaches it from this thread, and passes it to the
+	 * slow query log.
+	 */
+	public void finish() {
+		end = System.nanoTime();
+		if (CURRENT.get() == this) {
+			CURRENT.remove();
+		}
+		SlowQueryLog.global().offer(this);
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	/**
+	 * Returns the time the query took in nanoseconds, not counting idle
+	 * time; if it hasn't finished, the time so far.
+	 *
+	 * @return
+	 */
+	public long getNanos() {
+		return (end == 0 ? System.nanoTime() : end) - start - idle;
+	}
+
+	public List<Event> getEvents() {
+		return new ArrayList<Event>(events);
+	}
+
+	public int getRedisCommands() {
+		return redisCommands;
+	}
+
+	public long getRedisNanos() {
+		return redisNanos;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("query \"%s\": %.3fms, %d Redis commands (%.3fms), %.3fms idle%n",
+				query, getNanos() / 1e6, redisCommands, redisNanos / 1e6, idle / 1e6));
+		for (Event event: events) {
+			sb.append("  ").append(event).append(String.format("%n"));
+		}
+		if (dropped > 0) {
+			sb.append(String.format("  ... %d more events%n", dropped));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,34 @@
+package com.flatironschool.javacs;
+
+import java.io.IOException;
+
+import redis.clients.jedis.Jedis;
+
+
+/**
+ * Migrates an existing index to the current standard Analyzer, so pages
+ * indexed before a change to the analyzer match the new query terms
+ * without being crawled again.
+ *
+ */
+public class Reindexer {
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		Jedis jedis = JedisMaker.make();
+		JedisIndex index = new JedisIndex(jedis);
+
+		int before = index.urlSetKeys().size();
+		long start = System.currentTimeMillis();
+		int pages = index.reanalyze(Analyzer.standard());
+		int after = index.urlSetKeys().size();
+
+		System.out.println("Rewrote " + pages + " pages in "
+				+ (System.currentTimeMillis() - start) + " ms");
+		System.out.println("Distinct terms: " + before + " -> " + after);
+		jedis.close();
+	}
+}
@@ -0,0 +1,66 @@
+package com.flatironschool.javacs;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.jsoup.select.Elements;
+
+
+/**
+ * An index of pages that can be looked up by term.
+ *
+ * JedisIndex keeps the whole index in one Redis; ShardedJedisIndex spreads
+ * it over several.  The crawler and WikiSearch work with either.
+ *
+ */
+public interface SearchIndex {
+
+	/**
+	 * Checks whether a page has been indexed, or recorded as a duplicate.
+	 *
+	 * @param url
+	 * @return
+	 */
+	boolean isIndexed(String url);
+
+	/**
+	 * Counts the terms in a page and adds it to the index.
+	 *
+	 * @param url
+	 * @param paragraphs
+	 */
+	void indexPage(String url, Elements paragraphs);
+
+	/**
+	 * Adds a page whose terms have already been counted.
+	 *
+	 * @param tc
+	 */
+	void indexTermCounter(TermCounter tc);
+
+	/**
+	 * Looks up a term and returns a map from URL to term frequency.
+	 *
+	 * @param term
+	 * @return
+	 */
+	Map<String, Double> getCounts(String term);
+
+	/**
+	 * Looks up several terms at once.
+	 *
+	 * Implementations can fetch the terms together, so this is usually
+	 * faster than calling getCounts once per term.
+	 *
+	 * @param terms
+	 * @return Map from each term to its map from URL to term frequency.
+	 */
+	Map<String, Map<String, Double>> getCounts(Collection<String> terms);
+
+	/**
+	 * Registers a listener to be told about every page indexed from now on.
+	 *
+	 * @param listener
+	 */
+	void addIndexListener(IndexListener listener);
+}
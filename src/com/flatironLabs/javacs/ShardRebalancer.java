@@ -0,0 +1,200 @@
+package com.flatironschool.javacs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.util.SafeEncoder;
+
+
+/**
+ * Moves the data of a ShardedJedisIndex when shards are added or removed.
+ *
+ * Every hash field and set member in the old shards is checked against
+ * the ring built from the new shard names, and the ones that belong
+ * somewhere else are copied to their new shard and then deleted from the
+ * old one.  With consistent hashing only about 1/N of the data moves when
+ * a shard is added.
+ *
+ * Data is copied before it is deleted, so a page is never missing from
+ * the index; while the rebalancer runs, some entries are briefly on two
+ * shards, which only matters to DOCUMENT partitioning, where a URL can be
+ * returned by two shards with the same frequency.  Stop the crawler while
+ * rebalancing, or pages it indexes may land on the old shards.
+ *
+ * Usage: ShardRebalancer TERM|DOCUMENT old1,old2,... new1,new2,...
+ *
+ */
+public class ShardRebalancer {
+
+	private final ShardedJedisIndex.Partitioning partitioning;
+	private final List<String> newNames;
+	private final ConsistentHashRing newRing;
+	private final Map<String, Jedis> connections = new HashMap<String, Jedis>();
+
+	private long moved;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param partitioning  Must be what the index was built with.
+	 * @param newNames      Names ("host:port") of the shards after rebalancing.
+	 */
+	public ShardRebalancer(ShardedJedisIndex.Partitioning partitioning, List<String> newNames) {
+		this.partitioning = partitioning;
+		this.newNames = new ArrayList<String>(newNames);
+		this.newRing = new ConsistentHashRing(newNames);
+	}
+
+	private Jedis connection(String name) {
+		Jedis jedis = connections.get(name);
+		if (jedis == null) {
+			jedis = ShardedJedisIndex.connect(name);
+			connections.put(name, jedis);
+		}
+		return jedis;
+	}
+
+	/**
+	 * Moves everything on an old shard that belongs on another shard.
+	 *
+	 * @param oldName
+	 * @return Number of hash fields and set members moved.
+	 */
+	public long drain(String oldName) {
+		long before = moved;
+		Jedis source = connection(oldName);
+		ScanParams params = new ScanParams().count(500);
+		String cursor = ScanParams.SCAN_POINTER_START;
+		do {
+			ScanResult<String> scan = source.scan(cursor, params);
+			moveKeys(oldName, source, scan.getResult());
+			cursor = scan.getStringCursor();
+		} while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+		return moved - before;
+	}
+
+	/**
+	 * Moves the misplaced contents of a batch of keys.
+	 */
+	private void moveKeys(String oldName, Jedis source, List<String> keys) {
+		String counterPrefix = JedisIndex.termCounterKey("");
+		String setPrefix = JedisIndex.urlSetKey("");
+
+		// read every key we know how to route, in one round trip
+		List<String> hashes = new ArrayList<String>();
+		List<String> sets = new ArrayList<String>();
+		Pipeline p = source.pipelined();
+		List<Response<Map<byte[], byte[]>>> hashContents = new ArrayList<Response<Map<byte[], byte[]>>>();
+		List<Response<Set<String>>> setContents = new ArrayList<Response<Set<String>>>();
+		for (String key: keys) {
+			if (key.startsWith(counterPrefix) || key.equals(ShardedJedisIndex.pagesKey())
+					|| key.equals(JedisIndex.aliasKey())) {
+				hashes.add(key);
+				hashContents.add(p.hgetAll(SafeEncoder.encode(key)));
+			} else if (key.startsWith(setPrefix)) {
+				sets.add(key);
+				setContents.add(p.smembers(key));
+			}
+		}
+		p.sync();
+
+		// group what has to move by destination
+		Map<String, Pipeline> writes = new HashMap<String, Pipeline>();
+		Pipeline deletes = source.pipelined();
+		// hash values are copied as bytes, since frequencies may be binary
+		for (int i=0; i<hashes.size(); i++) {
+			String key = hashes.get(i);
+			byte[] keyBytes = SafeEncoder.encode(key);
+			for (Entry<byte[], byte[]> field: hashContents.get(i).get().entrySet()) {
+				String name = SafeEncoder.encode(field.getKey());
+				String target = newNames.get(ownerOfField(key, name, counterPrefix));
+				if (!target.equals(oldName)) {
+					pipeline(writes, target).hset(keyBytes, field.getKey(), field.getValue());
+					deletes.hdel(keyBytes, field.getKey());
+					moved++;
+				}
+			}
+		}
+		for (int i=0; i<sets.size(); i++) {
+			String key = sets.get(i);
+			String term = key.substring(setPrefix.length());
+			for (String url: setContents.get(i).get()) {
+				String target = newNames.get(partitioning.shard(newRing, term, url));
+				if (!target.equals(oldName)) {
+					pipeline(writes, target).sadd(key, url);
+					deletes.srem(key, url);
+					moved++;
+				}
+			}
+		}
+
+		// copy first, then delete
+		for (Pipeline write: writes.values()) {
+			write.sync();
+		}
+		deletes.sync();
+	}
+
+	private Pipeline pipeline(Map<String, Pipeline> writes, String target) {
+		Pipeline p = writes.get(target);
+		if (p == null) {
+			p = connection(target).pipelined();
+			writes.put(target, p);
+		}
+		return p;
+	}
+
+	/**
+	 * Returns the new shard of a field in one of the hashes.
+	 */
+	private int ownerOfField(String key, String field, String counterPrefix) {
+		if (key.startsWith(counterPrefix)) {
+			// field is a term of the page
+			return partitioning.shard(newRing, field, key.substring(counterPrefix.length()));
+		}
+		// Pages and Aliases are keyed by URL
+		return newRing.node(field);
+	}
+
+	/**
+	 * Closes the connections.
+	 */
+	public void close() {
+		for (Jedis jedis: connections.values()) {
+			jedis.close();
+		}
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		if (args.length != 3) {
+			System.err.println("Usage: ShardRebalancer TERM|DOCUMENT old1,old2,... new1,new2,...");
+			System.exit(1);
+		}
+		ShardedJedisIndex.Partitioning partitioning = ShardedJedisIndex.Partitioning.valueOf(args[0]);
+		List<String> oldNames = Arrays.asList(args[1].split(","));
+		List<String> newNames = Arrays.asList(args[2].split(","));
+
+		ShardRebalancer rebalancer = new ShardRebalancer(partitioning, newNames);
+		for (String name: new LinkedHashSet<String>(oldNames)) {
+			long start = System.nanoTime();
+			long n = rebalancer.drain(name);
+			System.out.println(String.format("%s: moved %d entries in %.1fs", name, n,
+					(System.nanoTime() - start) / 1e9));
+		}
+		rebalancer.close();
+	}
+}
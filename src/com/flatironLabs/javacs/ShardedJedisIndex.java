@@ -0,0 +1,508 @@
+package com.flatironschool.javacs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.jsoup.select.Elements;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * A search index spread over several Redis servers.
+ *
+ * Each shard uses the same keys as JedisIndex.  Which shard a piece of
+ * data goes to is decided by a ConsistentHashRing over the shard names,
+ * in one of two ways:
+ *
+ * TERM partitioning puts each term on one shard: its URLSet, and its
+ * field in the TermCounter of every page that contains it.  Looking up
+ * a term is then one shard, two round trips; indexing a page writes to
+ * every shard.
+ *
+ * DOCUMENT partitioning puts each page on one shard: its TermCounter,
+ * and its URL in the URLSets of its terms.  Indexing a page writes to one
+ * shard; looking up a term asks every shard and merges the answers.
+ *
+ * Either way, the shards are asked in parallel.  Each page also gets an
+ * entry in the "Pages" hash, and duplicates in "Aliases", on the shard
+ * that owns its URL, so isIndexed is one round trip to one shard.
+ *
+ * A Jedis connection can't be shared between threads, so each shard's
+ * connection is used by one thread at a time.
+ *
+ */
+public class ShardedJedisIndex implements SearchIndex, Closeable {
+
+	/**
+	 * How data is split between shards.
+	 */
+	public enum Partitioning {
+		TERM, DOCUMENT;
+
+		/**
+		 * Returns the shard that holds the posting of a term for a page.
+		 */
+		int shard(ConsistentHashRing ring, String term, String url) {
+			return ring.node(this == TERM ? term : url);
+		}
+	}
+
+	private static final Metrics.Histogram INDEX_TIME = Metrics.global().timer("index.page");
+	private static final Metrics.Histogram PUSH_TIME = Metrics.global().timer("index.push");
+	private static final Metrics.Histogram LOOKUP_TIME = Metrics.global().timer("index.getCounts");
+	private static final Metrics.Histogram SHARDS_PER_LOOKUP = Metrics.global().histogram("shard.lookupFanOut");
+	private static final Metrics.Histogram SHARDS_PER_PUSH = Metrics.global().histogram("shard.pushFanOut");
+
+	private final List<String> names;
+	private final List<Jedis> shards;
+	private final ConsistentHashRing ring;
+	private final Partitioning partitioning;
+	private final ExecutorService executor;
+
+	// finds near-duplicate pages; null means every page is indexed
+	private DuplicateDetector detector;
+
+	// told about every page pushed to the index
+	private final List<IndexListener> listeners = new CopyOnWriteArrayList<IndexListener>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param names         A stable name for each shard, e.g. "host:port".
+	 *                      Data is placed by name, so keep them the same
+	 *                      from run to run.
+	 * @param shards        A connection to each shard, in the same order.
+	 * @param partitioning
+	 */
+	public ShardedJedisIndex(List<String> names, List<Jedis> shards, Partitioning partitioning) {
+		if (names.size() != shards.size()) {
+			throw new IllegalArgumentException(names.size() + " names for " + shards.size() + " shards");
+		}
+		this.names = new ArrayList<String>(names);
+		this.shards = new ArrayList<Jedis>(shards);
+		this.ring = new ConsistentHashRing(names);
+		this.partitioning = partitioning;
+		this.executor = Executors.newFixedThreadPool(shards.size(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "shard-worker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Connects to a list of Redis servers.
+	 *
+	 * @param addresses     "host:port" or redis:// URIs; each is also the
+	 *                      name of its shard.
+	 * @param partitioning
+	 * @return
+	 */
+	public static ShardedJedisIndex connect(List<String> addresses, Partitioning partitioning) {
+		List<Jedis> shards = new ArrayList<Jedis>();
+		for (String address: addresses) {
+			shards.add(connect(address));
+		}
+		return new ShardedJedisIndex(addresses, shards, partitioning);
+	}
+
+	/**
+	 * Connects to one Redis server given as "host:port" or a redis:// URI.
+	 *
+	 * @param address
+	 * @return
+	 */
+	static Jedis connect(String address) {
+		if (address.contains("://")) {
+			return new Jedis(URI.create(address));
+		}
+		int colon = address.lastIndexOf(':');
+		if (colon < 0) {
+			return new Jedis(address);
+		}
+		return new Jedis(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+	}
+
+	/**
+	 * Returns the Redis key for the hash that maps indexed URLs to their
+	 * number of distinct terms.
+	 *
+	 * @return Redis key.
+	 */
+	static String pagesKey() {
+		return "Pages";
+	}
+
+	@Override
+	public void addIndexListener(IndexListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Turns on near-duplicate detection; see JedisIndex.setDuplicateDetector.
+	 *
+	 * @param detector  The detector, or null to index every page.
+	 */
+	public void setDuplicateDetector(DuplicateDetector detector) {
+		this.detector = detector;
+	}
+
+	public Partitioning getPartitioning() {
+		return partitioning;
+	}
+
+	public List<String> getShardNames() {
+		return Collections.unmodifiableList(names);
+	}
+
+	/**
+	 * Returns the name of the shard that owns a URL's page entry.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public String shardOf(String url) {
+		return names.get(ring.node(url));
+	}
+
+	@Override
+	public boolean isIndexed(final String url) {
+		Jedis jedis = shards.get(ring.node(url));
+		synchronized (jedis) {
+			Pipeline p = jedis.pipelined();
+			Response<Boolean> page = p.hexists(pagesKey(), url);
+			Response<Boolean> alias = p.hexists(JedisIndex.aliasKey(), url);
+			p.sync();
+			return page.get() || alias.get();
+		}
+	}
+
+	@Override
+	public void indexPage(String url, Elements paragraphs) {
+		long start = System.nanoTime();
+		TermCounter tc = new TermCounter(url);
+		tc.processElements(paragraphs);
+		indexTermCounter(tc);
+		INDEX_TIME.recordSince(start);
+	}
+
+	@Override
+	public void indexTermCounter(TermCounter tc) {
+		final TermFrequencies frequencies = tc.seal();
+		final String url = tc.getLabel();
+		final int home = ring.node(url);
+		if (detector != null) {
+			String original = detector.findOrAdd(url, SimHash.fingerprint(frequencies));
+			if (original != null) {
+				recordAlias(url, original, home);
+				return;
+			}
+		}
+		long start = System.nanoTime();
+
+		// which terms go to which shard
+		final List<List<Integer>> byShard = new ArrayList<List<Integer>>();
+		for (int i=0; i<shards.size(); i++) {
+			byShard.add(new ArrayList<Integer>());
+		}
+		for (int i=0; i<frequencies.size(); i++) {
+			byShard.get(partitioning.shard(ring, frequencies.term(i), url)).add(i);
+		}
+
+		// every shard that gets terms or the page entry; with TERM
+		// partitioning that is all of them, which also clears the fields
+		// a page no longer has when it is indexed again
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int i=0; i<shards.size(); i++) {
+			final int shard = i;
+			if (partitioning == Partitioning.DOCUMENT && shard != home) {
+				continue;
+			}
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					push(shard, url, frequencies, byShard.get(shard), shard == home);
+					return null;
+				}
+			});
+		}
+		scatter(tasks);
+		for (IndexListener listener: listeners) {
+			listener.pageIndexed(frequencies);
+		}
+		SHARDS_PER_PUSH.record(tasks.size());
+		PUSH_TIME.recordSince(start);
+	}
+
+	/**
+	 * Writes the given terms of a page to one shard in a transaction.
+	 */
+	private void push(int shard, String url, TermFrequencies frequencies, List<Integer> terms,
+			boolean home) {
+		TermDictionary dictionary = frequencies.getDictionary();
+		boolean cachedKeys = dictionary.getKeyPrefix().equals(JedisIndex.urlSetKey(""));
+		byte[] urlBytes = SafeEncoder.encode(url);
+		byte[] hashname = SafeEncoder.encode(JedisIndex.termCounterKey(url));
+
+		Jedis jedis = shards.get(shard);
+		synchronized (jedis) {
+			Transaction t = jedis.multi();
+			t.del(hashname);
+			for (int i: terms) {
+				int id = frequencies.termId(i);
+				byte[] setKey = cachedKeys ? dictionary.keyBytes(id)
+						: SafeEncoder.encode(JedisIndex.urlSetKey(dictionary.term(id)));
+				t.hset(hashname, dictionary.termBytes(id), FrequencyCodec.encode(frequencies.frequency(i)));
+				t.sadd(setKey, urlBytes);
+			}
+			if (home) {
+				t.hset(pagesKey(), url, Integer.toString(frequencies.size()));
+			}
+			t.exec();
+		}
+	}
+
+	/**
+	 * Records a page as a duplicate of another.
+	 *
+	 * If the page was indexed before as a page of its own, each shard that
+	 * has some of its terms drops them in a transaction, and the home
+	 * shard drops its "Pages" entry in the same transaction as it writes
+	 * the alias.
+	 */
+	private void recordAlias(final String url, final String original, final int home) {
+		List<Callable<List<String>>> tasks = new ArrayList<Callable<List<String>>>();
+		for (int i=0; i<shards.size(); i++) {
+			final int shard = i;
+			if (partitioning == Partitioning.DOCUMENT && shard != home) {
+				continue;
+			}
+			tasks.add(new Callable<List<String>>() {
+				@Override
+				public List<String> call() {
+					return unpush(shard, url, shard == home ? original : null);
+				}
+			});
+		}
+		List<String> oldTerms = new ArrayList<String>();
+		for (List<String> terms: scatter(tasks)) {
+			oldTerms.addAll(terms);
+		}
+		if (!oldTerms.isEmpty()) {
+			for (IndexListener listener: listeners) {
+				listener.pageRemoved(url, oldTerms);
+			}
+		}
+	}
+
+	/**
+	 * Removes the terms of a page from one shard in a transaction, and on
+	 * its home shard replaces its page entry with an alias.
+	 *
+	 * @param original  The page it duplicates, or null if this isn't the home shard.
+	 * @return The terms that were removed.
+	 */
+	private List<String> unpush(int shard, String url, String original) {
+		byte[] urlBytes = SafeEncoder.encode(url);
+		byte[] hashname = SafeEncoder.encode(JedisIndex.termCounterKey(url));
+
+		Jedis jedis = shards.get(shard);
+		synchronized (jedis) {
+			List<String> terms = new ArrayList<String>();
+			for (byte[] term: jedis.hkeys(hashname)) {
+				terms.add(SafeEncoder.encode(term));
+			}
+			if (terms.isEmpty() && original == null) {
+				return terms;
+			}
+			Transaction t = jedis.multi();
+			t.del(hashname);
+			for (String term: terms) {
+				t.srem(SafeEncoder.encode(JedisIndex.urlSetKey(term)), urlBytes);
+			}
+			if (original != null) {
+				t.hdel(pagesKey(), url);
+				t.hset(JedisIndex.aliasKey(), url, original);
+			}
+			t.exec();
+			return terms;
+		}
+	}
+
+	@Override
+	public Map<String, Double> getCounts(String term) {
+		return getCounts(Collections.singletonList(term)).get(term);
+	}
+
+	/**
+	 * Looks up several terms, asking each shard involved once and all of
+	 * them in parallel.
+	 */
+	@Override
+	public Map<String, Map<String, Double>> getCounts(Collection<String> terms) {
+		long start = System.nanoTime();
+		Collection<String> distinct = new LinkedHashSet<String>(terms);
+
+		// which terms to ask each shard about
+		List<List<String>> byShard = new ArrayList<List<String>>();
+		for (int i=0; i<shards.size(); i++) {
+			byShard.add(partitioning == Partitioning.DOCUMENT
+					? new ArrayList<String>(distinct) : new ArrayList<String>());
+		}
+		if (partitioning == Partitioning.TERM) {
+			for (String term: distinct) {
+				byShard.get(ring.node(term)).add(term);
+			}
+		}
+
+		List<Callable<Map<String, Map<String, Double>>>> tasks =
+				new ArrayList<Callable<Map<String, Map<String, Double>>>>();
+		for (int i=0; i<shards.size(); i++) {
+			final int shard = i;
+			final List<String> shardTerms = byShard.get(i);
+			if (shardTerms.isEmpty()) {
+				continue;
+			}
+			tasks.add(new Callable<Map<String, Map<String, Double>>>() {
+				@Override
+				public Map<String, Map<String, Double>> call() {
+					return lookup(shards.get(shard), shardTerms);
+				}
+			});
+		}
+
+		Map<String, Map<String, Double>> counts = new LinkedHashMap<String, Map<String, Double>>();
+		for (String term: distinct) {
+			counts.put(term, new HashMap<String, Double>());
+		}
+		for (Map<String, Map<String, Double>> partial: scatter(tasks)) {
+			for (Entry<String, Map<String, Double>> entry: partial.entrySet()) {
+				counts.get(entry.getKey()).putAll(entry.getValue());
+			}
+		}
+		SHARDS_PER_LOOKUP.record(tasks.size());
+		LOOKUP_TIME.recordSince(start);
+		return counts;
+	}
+
+	/**
+	 * Looks up terms on one shard.
+	 */
+	private static Map<String, Map<String, Double>> lookup(Jedis jedis, List<String> terms) {
+		synchronized (jedis) {
+			return JedisIndex.lookup(jedis, terms);
+		}
+	}
+
+	/**
+	 * Runs tasks on the shard executor and waits for all of them.
+	 */
+	private <T> List<T> scatter(List<Callable<T>> tasks) {
+		if (tasks.size() == 1) {
+			try {
+				return Arrays.asList(tasks.get(0).call());
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new JedisException(e);
+			}
+		}
+		try {
+			List<T> results = new ArrayList<T>(tasks.size());
+			for (Future<T> future: executor.invokeAll(tasks)) {
+				results.add(future.get());
+			}
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JedisException("interrupted waiting for shards", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new JedisException(e.getCause());
+		}
+	}
+
+	/**
+	 * Stops the shard threads and closes the connections.
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+		for (Jedis jedis: shards) {
+			synchronized (jedis) {
+				jedis.close();
+			}
+		}
+	}
+
+	/**
+	 * Indexes the bundled pages into local Redis servers and looks up a
+	 * few terms.
+	 *
+	 * Usage: ShardedJedisIndex TERM|DOCUMENT host:port host:port ...
+	 *
+	 * The servers are flushed first, so use scratch instances, e.g. ones
+	 * started with redis-server --port 6380.
+	 *
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: ShardedJedisIndex TERM|DOCUMENT host:port host:port ...");
+			System.exit(1);
+		}
+		Partitioning partitioning = Partitioning.valueOf(args[0]);
+		ShardedJedisIndex index = connect(Arrays.asList(args).subList(1, args.length), partitioning);
+		for (Jedis jedis: index.shards) {
+			jedis.flushDB();
+		}
+
+		WikiFetcher wf = new WikiFetcher();
+		String[] pages = {"Java_(programming_language)", "Programming_language", "Computer_science",
+				"Mathematics", "Philosophy"};
+		for (String page: pages) {
+			String url = "https://en.wikipedia.org/wiki/" + page;
+			index.indexPage(url, wf.readWikipedia(url));
+			System.out.println(url + " -> " + index.shardOf(url));
+		}
+		for (int i=0; i<index.shards.size(); i++) {
+			System.out.println(index.names.get(i) + ": " + index.shards.get(i).dbSize() + " keys");
+		}
+
+		WikiSearch search = WikiSearch.searchTerms("java and programming", index);
+		for (Entry<String, Double> entry: search.sort()) {
+			System.out.println(entry);
+		}
+		System.out.print(Metrics.global().dump());
+		index.close();
+	}
+}
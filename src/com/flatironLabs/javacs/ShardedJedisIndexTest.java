@@ -0,0 +1,255 @@
+package com.flatironschool.javacs;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+/**
+ * Runs ShardedJedisIndex and ShardRebalancer against several local
+ * redis-server processes.
+ *
+ * The shards are the comma-separated addresses in -Dredis.shards, by
+ * default database 15 of servers on ports 6379, 6380 and 6381; start
+ * them with `redis-server --port 6380 &` and so on.  Those databases are
+ * flushed, so don't point this at a real index.  The tests are skipped
+ * if any shard isn't listening.
+ *
+ */
+public class ShardedJedisIndexTest {
+
+	private static final String DEFAULT_SHARDS =
+			"redis://localhost:6379/15,redis://localhost:6380/15,redis://localhost:6381/15";
+
+	private static List<String> names;
+
+	private final List<Jedis> connections = new ArrayList<Jedis>();
+	private final List<ShardedJedisIndex> indexes = new ArrayList<ShardedJedisIndex>();
+
+	@BeforeClass
+	public static void findShards() {
+		names = Arrays.asList(System.getProperty("redis.shards", DEFAULT_SHARDS).split(","));
+		for (String name: names) {
+			Jedis jedis = null;
+			try {
+				// a redis:// address connects right away, to select the database
+				jedis = ShardedJedisIndex.connect(name);
+				jedis.ping();
+			} catch (JedisConnectionException e) {
+				Assume.assumeNoException("no redis-server at " + name, e);
+			} finally {
+				if (jedis != null) {
+					jedis.close();
+				}
+			}
+		}
+	}
+
+	@Before
+	public void setUp() {
+		for (String name: names) {
+			Jedis jedis = ShardedJedisIndex.connect(name);
+			jedis.flushDB();
+			connections.add(jedis);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		for (ShardedJedisIndex index: indexes) {
+			index.close();
+		}
+		for (Jedis jedis: connections) {
+			jedis.flushDB();
+			jedis.close();
+		}
+	}
+
+	private ShardedJedisIndex connect(List<String> shards, ShardedJedisIndex.Partitioning partitioning) {
+		ShardedJedisIndex index = ShardedJedisIndex.connect(shards, partitioning);
+		indexes.add(index);
+		return index;
+	}
+
+	/**
+	 * Indexes some pages, each with a different mix of terms, and returns
+	 * what getCounts should return for each term.
+	 */
+	private static Map<String, Map<String, Double>> indexPages(SearchIndex index) {
+		Map<String, Map<String, Double>> expected = new HashMap<String, Map<String, Double>>();
+		for (int page=0; page<30; page++) {
+			String url = "https://en.wikipedia.org/wiki/Page_" + page;
+			TermCounter tc = new TermCounter(url);
+			for (int term=0; term<20; term++) {
+				if ((page + term) % 3 != 0) {
+					tc.put("term" + term, 1 + (page * term) % 7);
+				}
+			}
+			TermFrequencies frequencies = tc.seal();
+			for (int i=0; i<frequencies.size(); i++) {
+				Map<String, Double> counts = expected.get(frequencies.term(i));
+				if (counts == null) {
+					counts = new HashMap<String, Double>();
+					expected.put(frequencies.term(i), counts);
+				}
+				// what comes back is what the codec stored
+				counts.put(url, FrequencyCodec.decode(FrequencyCodec.encode(frequencies.frequency(i))));
+			}
+			index.indexTermCounter(tc);
+		}
+		return expected;
+	}
+
+	private void checkRoundTrip(ShardedJedisIndex.Partitioning partitioning) {
+		ShardedJedisIndex index = connect(names, partitioning);
+		Map<String, Map<String, Double>> expected = indexPages(index);
+
+		for (String term: expected.keySet()) {
+			assertThat(term, index.getCounts(term), is(expected.get(term)));
+		}
+		assertThat(index.getCounts(expected.keySet()), is(expected));
+		assertThat(index.getCounts("missing").isEmpty(), is(true));
+		assertThat(index.isIndexed("https://en.wikipedia.org/wiki/Page_0"), is(true));
+		assertThat(index.isIndexed("https://en.wikipedia.org/wiki/Missing"), is(false));
+	}
+
+	@Test
+	public void testTermPartitioning() {
+		checkRoundTrip(ShardedJedisIndex.Partitioning.TERM);
+	}
+
+	@Test
+	public void testDocumentPartitioning() {
+		checkRoundTrip(ShardedJedisIndex.Partitioning.DOCUMENT);
+	}
+
+	/**
+	 * Counts the hash fields and set members on every shard.
+	 */
+	private long entries() {
+		long total = 0;
+		for (Jedis jedis: connections) {
+			Set<String> keys = jedis.keys("*");
+			for (String key: keys) {
+				total += jedis.type(key).equals("hash") ? jedis.hlen(key) : jedis.scard(key);
+			}
+		}
+		return total;
+	}
+
+	private void checkDrain(ShardedJedisIndex.Partitioning partitioning) {
+		Assume.assumeTrue("needs at least two shards", names.size() >= 2);
+		List<String> oldNames = names.subList(0, names.size() - 1);
+		Map<String, Map<String, Double>> expected = indexPages(connect(oldNames, partitioning));
+		long before = entries();
+
+		ShardRebalancer rebalancer = new ShardRebalancer(partitioning, names);
+		long moved = 0;
+		try {
+			for (String name: oldNames) {
+				moved += rebalancer.drain(name);
+			}
+		} finally {
+			rebalancer.close();
+		}
+
+		assertThat(moved > 0, is(true));
+		assertThat(entries(), is(before));
+		ShardedJedisIndex index = connect(names, partitioning);
+		assertThat(index.getCounts(expected.keySet()), is(expected));
+		for (int page=0; page<30; page++) {
+			assertThat(index.isIndexed("https://en.wikipedia.org/wiki/Page_" + page), is(true));
+		}
+
+		// everything is where the new ring says, so a second pass moves nothing
+		rebalancer = new ShardRebalancer(partitioning, names);
+		try {
+			for (String name: names) {
+				assertThat(rebalancer.drain(name), is(0L));
+			}
+		} finally {
+			rebalancer.close();
+		}
+	}
+
+	@Test
+	public void testDrainTermPartitioning() {
+		checkDrain(ShardedJedisIndex.Partitioning.TERM);
+	}
+
+	@Test
+	public void testDrainDocumentPartitioning() {
+		checkDrain(ShardedJedisIndex.Partitioning.DOCUMENT);
+	}
+
+	private static TermCounter page(String url, String prefix) {
+		TermCounter tc = new TermCounter(url);
+		for (int term=0; term<20; term++) {
+			tc.put(prefix + term, 1 + term % 4);
+		}
+		return tc;
+	}
+
+	/**
+	 * Re-indexes a page so that it turns out to be a copy of another, and
+	 * checks that nothing of its first version is left.
+	 */
+	private void checkDuplicate(ShardedJedisIndex.Partitioning partitioning) {
+		ShardedJedisIndex index = connect(names, partitioning);
+		index.setDuplicateDetector(new DuplicateDetector());
+		final List<String> removed = new ArrayList<String>();
+		index.addIndexListener(new IndexListener() {
+			@Override
+			public void pageIndexed(TermFrequencies frequencies) {
+			}
+
+			@Override
+			public void pageRemoved(String url, Collection<String> terms) {
+				removed.addAll(terms);
+			}
+		});
+		String original = "https://en.wikipedia.org/wiki/Original";
+		String copy = "https://en.wikipedia.org/wiki/Copy";
+		index.indexTermCounter(page(original, "alpha"));
+		index.indexTermCounter(page(copy, "beta"));
+		assertThat(index.getCounts("beta0").keySet(), is(Collections.singleton(copy)));
+
+		index.indexTermCounter(page(copy, "alpha"));
+		assertThat(index.isIndexed(copy), is(true));
+		assertThat(index.getCounts("alpha0").keySet(), is(Collections.singleton(original)));
+		for (int term=0; term<20; term++) {
+			assertThat(index.getCounts("beta" + term).isEmpty(), is(true));
+			assertThat(removed.contains("beta" + term), is(true));
+		}
+		for (Jedis jedis: connections) {
+			assertThat(jedis.exists(JedisIndex.termCounterKey(copy)), is(false));
+			assertThat(jedis.hexists(ShardedJedisIndex.pagesKey(), copy), is(false));
+		}
+	}
+
+	@Test
+	public void testDuplicateTermPartitioning() {
+		checkDuplicate(ShardedJedisIndex.Partitioning.TERM);
+	}
+
+	@Test
+	public void testDuplicateDocumentPartitioning() {
+		checkDuplicate(ShardedJedisIndex.Partitioning.DOCUMENT);
+	}
+}
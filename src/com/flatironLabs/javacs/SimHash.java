@@ -0,0 +1,96 @@
+package com.flatironschool.javacs;
+
+
+/**
+ * Computes 64-bit SimHash fingerprints of pages.
+ *
+ * Each term votes on every bit of the fingerprint: +w if its hash has a 1
+ * in that position, -w if it has a 0, where w is log(1 + count).  Pages
+ * with nearly the same terms end up with fingerprints that differ in only
+ * a few bits.  The log keeps common words like "java" and "language" from
+ * outvoting everything else, which would make unrelated pages look alike.
+ *
+ */
+public class SimHash {
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private SimHash() {
+	}
+
+	/**
+	 * Computes the fingerprint of the terms in a TermCounter.
+	 *
+	 * Seals the TermCounter.
+	 *
+	 * @param tc
+	 * @return
+	 */
+	public static long fingerprint(TermCounter tc) {
+		return fingerprint(tc.seal());
+	}
+
+	/**
+	 * Computes the fingerprint of the terms on a page.
+	 *
+	 * @param frequencies
+	 * @return
+	 */
+	public static long fingerprint(TermFrequencies frequencies) {
+		double[] votes = new double[64];
+		for (int i=0; i<frequencies.size(); i++) {
+			double weight = Math.log(1 + frequencies.count(i));
+			long hash = hash(frequencies.term(i));
+			for (int bit=0; bit<64; bit++) {
+				if ((hash & (1L << bit)) != 0) {
+					votes[bit] += weight;
+				} else {
+					votes[bit] -= weight;
+				}
+			}
+		}
+
+		long fingerprint = 0;
+		for (int bit=0; bit<64; bit++) {
+			if (votes[bit] > 0) {
+				fingerprint |= 1L << bit;
+			}
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * Returns the number of bits that differ between two fingerprints.
+	 *
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public static int distance(long a, long b) {
+		return Long.bitCount(a ^ b);
+	}
+
+	/**
+	 * Hashes a term to 64 well-mixed bits.
+	 *
+	 * FNV-1a followed by the MurmurHash3 finalizer, since plain FNV leaves
+	 * the high bits poorly mixed for short strings.
+	 *
+	 * @param term
+	 * @return
+	 */
+	static long hash(CharSequence term) {
+		long h = FNV_OFFSET;
+		for (int i=0; i<term.length(); i++) {
+			h ^= term.charAt(i);
+			h *= FNV_PRIME;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,128 @@
+package com.flatironschool.javacs;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Keeps the queries that took longer than a threshold.
+ *
+ * A traced query is logged with its whole QueryTrace; an untraced one
+ * with just its time and result size, which is a hint to turn tracing
+ * on.  The most recent entries are kept in memory, and each one is also
+ * written to a stream (System.err unless changed).
+ *
+ * The threshold defaults to the system property slowQuery.millis, or 200ms.
+ *
+ */
+public class SlowQueryLog {
+
+	private static final SlowQueryLog GLOBAL =
+			new SlowQueryLog(Long.getLong("slowQuery.millis", 200), 100, System.err);
+
+	private static final Metrics.Counter SLOW_QUERIES = Metrics.global().counter("query.slow");
+
+	private volatile long thresholdNanos;
+	private final int capacity;
+	private volatile PrintStream out;
+	private final Deque<String> recent = new ArrayDeque<String>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param thresholdMillis  Queries that take longer are logged.
+	 * @param capacity         Number of entries kept in memory.
+	 * @param out              Where entries are written, or null.
+	 */
+	public SlowQueryLog(long thresholdMillis, int capacity, PrintStream out) {
+		this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+		this.capacity = capacity;
+		this.out = out;
+	}
+
+	/**
+	 * Returns the log that finished QueryTraces and searchTerms report to.
+	 *
+	 * @return
+	 */
+	public static SlowQueryLog global() {
+		return GLOBAL;
+	}
+
+	public void setThresholdMillis(long millis) {
+		thresholdNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	public long getThresholdMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(thresholdNanos);
+	}
+
+	/**
+	 * Sets where entries are written.
+	 *
+	 * @param out  The stream, or null to only keep them in memory.
+	 */
+	public void setOutput(PrintStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Logs a finished trace if it was slow.
+	 *
+	 * @param trace
+	 * @return True if it was logged.
+	 */
+	public boolean offer(QueryTrace trace) {
+		if (trace.getNanos() <= thresholdNanos) {
+			return false;
+		}
+		log("slow " + trace);
+		return true;
+	}
+
+	/**
+	 * Logs an untraced query if it was slow.
+	 *
+	 * @param query
+	 * @param nanos
+	 * @param results  Number of results.
+	 * @return True if it was logged.
+	 */
+	public boolean offer(String query, long nanos, int results) {
+		if (nanos <= thresholdNanos) {
+			return false;
+		}
+		log(String.format("slow query \"%s\": %.3fms, %d results (not traced)%n",
+				query, nanos / 1e6, results));
+		return true;
+	}
+
+	private void log(String entry) {
+		SLOW_QUERIES.increment();
+		synchronized (recent) {
+			if (recent.size() == capacity) {
+				recent.removeFirst();
+			}
+			recent.addLast(entry);
+		}
+		PrintStream stream = out;
+		if (stream != null) {
+			stream.print(entry);
+		}
+	}
+
+	/**
+	 * Returns the entries kept in memory, oldest first.
+	 *
+	 * @return
+	 */
+	public List<String> recent() {
+		synchronized (recent) {
+			return new ArrayList<String>(recent);
+		}
+	}
+}
@@ -0,0 +1,366 @@
+package com.flatironschool.javacs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+
+/**
+ * Finds indexed terms that are close to a misspelled one.
+ *
+ * This is a symmetric delete index (SymSpell): every term is stored under
+ * each string that can be made by deleting up to maxDistance characters
+ * from its first prefixLength characters.  A misspelled word is looked up
+ * the same way, so finding its candidates takes a few dozen hash lookups
+ * instead of a scan of the vocabulary, and only the candidates have their
+ * edit distance computed.
+ *
+ * Distance is optimal string alignment: insertions, deletions,
+ * substitutions and swaps of adjacent characters each cost one.  Among
+ * terms at the same distance, the one in more pages comes first.
+ *
+ * Terms are analyzed terms, as they are in the index, so correct the
+ * terms of a parsed Query rather than the text the user typed.
+ *
+ * The index learns new terms by listening to a SearchIndex; a page that
+ * is indexed twice counts twice toward its terms' document frequencies,
+ * which only affects the order of suggestions.  A page taken out of the
+ * index is taken off its terms' counts, and a term no page has any more
+ * is no longer suggested.  Seed it from an existing index with
+ * addAll(JedisIndex.documentFrequencies()).
+ *
+ */
+public class SpellingIndex implements IndexListener {
+
+	private final int maxDistance;
+	private final int prefixLength;
+	private final TermDictionary dictionary;
+
+	// map from a deletion to the ids of the terms it comes from;
+	// slot 0 of each array is the number of ids in use
+	private final Map<String, int[]> deletes = new HashMap<String, int[]>();
+
+	// number of pages each term id appears in; 0 if it isn't in the index
+	private int[] docFrequency = new int[1024];
+	private int terms;
+
+	/**
+	 * A term that is close to the one looked up.
+	 */
+	public static class Suggestion {
+		private final String term;
+		private final int distance;
+		private final int docFrequency;
+
+		Suggestion(String term, int distance, int docFrequency) {
+			this.term = term;
+			this.distance = distance;
+			this.docFrequency = docFrequency;
+		}
+
+		public String getTerm() {
+			return term;
+		}
+
+		public int getDistance() {
+			return distance;
+		}
+
+		/**
+		 * Returns the number of pages the term appears in.
+		 */
+		public int getDocFrequency() {
+			return docFrequency;
+		}
+
+		@Override
+		public String toString() {
+			return term + " (" + distance + ", " + docFrequency + ")";
+		}
+	}
+
+	private static final Comparator<Suggestion> ORDER = new Comparator<Suggestion>() {
+		@Override
+		public int compare(Suggestion s1, Suggestion s2) {
+			if (s1.distance != s2.distance) {
+				return s1.distance - s2.distance;
+			}
+			if (s1.docFrequency != s2.docFrequency) {
+				return s2.docFrequency > s1.docFrequency ? 1 : -1;
+			}
+			return s1.term.compareTo(s2.term);
+		}
+	};
+
+	/**
+	 * Constructor with edit distance 2 and prefix length 7.
+	 */
+	public SpellingIndex() {
+		this(2, 7, TermDictionary.global());
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxDistance   The largest edit distance that can be looked up.
+	 * @param prefixLength  Number of leading characters deletions are made from;
+	 *                      must be more than maxDistance.
+	 * @param dictionary    Where terms get their ids.
+	 */
+	public SpellingIndex(int maxDistance, int prefixLength, TermDictionary dictionary) {
+		if (maxDistance < 0 || prefixLength <= maxDistance) {
+			throw new IllegalArgumentException("maxDistance " + maxDistance
+					+ ", prefixLength " + prefixLength);
+		}
+		this.maxDistance = maxDistance;
+		this.prefixLength = prefixLength;
+		this.dictionary = dictionary;
+	}
+
+	public int getMaxDistance() {
+		return maxDistance;
+	}
+
+	/**
+	 * Returns the number of distinct terms.
+	 *
+	 * @return
+	 */
+	public synchronized int size() {
+		return terms;
+	}
+
+	/**
+	 * Adds a term, or raises its document frequency if it is already here.
+	 *
+	 * @param term
+	 * @param pages  Number of pages to add to its document frequency;
+	 *               negative to take pages off.
+	 */
+	public synchronized void add(String term, int pages) {
+		add(dictionary.id(term), term, pages);
+	}
+
+	/**
+	 * Adds every term in a map from term to document frequency.
+	 *
+	 * @param frequencies
+	 */
+	public synchronized void addAll(Map<String, Integer> frequencies) {
+		for (Entry<String, Integer> entry: frequencies.entrySet()) {
+			add(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Counts each term of an indexed page once.
+	 */
+	@Override
+	public synchronized void pageIndexed(TermFrequencies frequencies) {
+		boolean sameIds = frequencies.getDictionary() == dictionary;
+		for (int i=0; i<frequencies.size(); i++) {
+			if (sameIds) {
+				add(frequencies.termId(i), null, 1);
+			} else {
+				add(frequencies.term(i), 1);
+			}
+		}
+	}
+
+	/**
+	 * Counts each term of a page that was taken out of the index once
+	 * less.
+	 */
+	@Override
+	public synchronized void pageRemoved(String url, Collection<String> removed) {
+		for (String term: removed) {
+			add(term, -1);
+		}
+	}
+
+	private void add(int id, String term, int pages) {
+		if (id >= docFrequency.length) {
+			docFrequency = Arrays.copyOf(docFrequency, Math.max(id + 1, docFrequency.length * 2));
+		}
+		int before = docFrequency[id];
+		int after = Math.max(0, before + pages);
+		if (before != after && (before == 0 || after == 0)) {
+			if (term == null) {
+				term = dictionary.term(id);
+			}
+			Set<String> keys = new HashSet<String>();
+			deletions(prefix(term), maxDistance, keys);
+			for (String key: keys) {
+				if (after > 0) {
+					append(key, id);
+				} else {
+					remove(key, id);
+				}
+			}
+			terms += after > 0 ? 1 : -1;
+		}
+		docFrequency[id] = after;
+	}
+
+	private void append(String key, int id) {
+		int[] ids = deletes.get(key);
+		if (ids == null) {
+			ids = new int[4];
+			deletes.put(key, ids);
+		} else if (ids[0] + 1 == ids.length) {
+			ids = Arrays.copyOf(ids, ids.length * 2);
+			deletes.put(key, ids);
+		}
+		ids[++ids[0]] = id;
+	}
+
+	private void remove(String key, int id) {
+		int[] ids = deletes.get(key);
+		if (ids == null) {
+			return;
+		}
+		for (int i=1; i<=ids[0]; i++) {
+			if (ids[i] == id) {
+				ids[i] = ids[ids[0]--];
+				break;
+			}
+		}
+		if (ids[0] == 0) {
+			deletes.remove(key);
+		}
+	}
+
+	/**
+	 * Returns the number of pages a term appears in, or 0.
+	 *
+	 * @param term
+	 * @return
+	 */
+	public synchronized int docFrequency(String term) {
+		int id = dictionary.lookup(term);
+		return id < 0 || id >= docFrequency.length ? 0 : docFrequency[id];
+	}
+
+	/**
+	 * Finds the terms within maxDistance edits of a word, closest and most
+	 * common first.  The word itself is included, at distance 0, if it is
+	 * in the index.
+	 *
+	 * @param word         An analyzed term.
+	 * @param maxDistance  At most the maxDistance the index was built with.
+	 * @return
+	 */
+	public synchronized List<Suggestion> suggest(String word, int maxDistance) {
+		if (maxDistance > this.maxDistance) {
+			throw new IllegalArgumentException("maxDistance " + maxDistance + " is more than "
+					+ this.maxDistance);
+		}
+		List<Suggestion> suggestions = new ArrayList<Suggestion>();
+		Set<Integer> seen = new HashSet<Integer>();
+		Set<String> keys = new HashSet<String>();
+		deletions(prefix(word), maxDistance, keys);
+		for (String key: keys) {
+			int[] ids = deletes.get(key);
+			if (ids == null) {
+				continue;
+			}
+			for (int i=1; i<=ids[0]; i++) {
+				int id = ids[i];
+				if (!seen.add(id)) {
+					continue;
+				}
+				String term = dictionary.term(id);
+				int distance = distance(word, term, maxDistance);
+				if (distance <= maxDistance) {
+					suggestions.add(new Suggestion(term, distance, docFrequency[id]));
+				}
+			}
+		}
+		Collections.sort(suggestions, ORDER);
+		return suggestions;
+	}
+
+	/**
+	 * Returns the term a word was most likely meant to be: the word itself
+	 * if it is in the index, else the best suggestion, else null.
+	 *
+	 * @param word  An analyzed term.
+	 * @return
+	 */
+	public synchronized String correct(String word) {
+		if (docFrequency(word) > 0) {
+			return word;
+		}
+		List<Suggestion> suggestions = suggest(word, maxDistance);
+		return suggestions.isEmpty() ? null : suggestions.get(0).term;
+	}
+
+	private String prefix(String term) {
+		return term.length() > prefixLength ? term.substring(0, prefixLength) : term;
+	}
+
+	/**
+	 * Adds a string and everything made by deleting up to `distance` of
+	 * its characters.
+	 */
+	private static void deletions(String s, int distance, Set<String> out) {
+		if (!out.add(s) || distance == 0) {
+			return;
+		}
+		for (int i=0; i<s.length(); i++) {
+			deletions(s.substring(0, i) + s.substring(i + 1), distance - 1, out);
+		}
+	}
+
+	/**
+	 * Computes the optimal string alignment distance between two strings,
+	 * giving up as soon as it must be more than `max`.
+	 *
+	 * @return The distance, or max + 1 if it is more than max.
+	 */
+	static int distance(CharSequence a, CharSequence b, int max) {
+		int n = a.length();
+		int m = b.length();
+		if (Math.abs(n - m) > max) {
+			return max + 1;
+		}
+		// three rows of the usual dynamic programming table
+		int[] before = new int[m + 1];
+		int[] previous = new int[m + 1];
+		int[] current = new int[m + 1];
+		for (int j=0; j<=m; j++) {
+			previous[j] = j;
+		}
+		for (int i=1; i<=n; i++) {
+			current[0] = i;
+			int rowMin = i;
+			char ca = a.charAt(i - 1);
+			for (int j=1; j<=m; j++) {
+				char cb = b.charAt(j - 1);
+				int cost = ca == cb ? 0 : 1;
+				int d = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+				if (i > 1 && j > 1 && ca == b.charAt(j - 2) && a.charAt(i - 2) == cb) {
+					d = Math.min(d, before[j - 2] + 1);
+				}
+				current[j] = d;
+				rowMin = Math.min(rowMin, d);
+			}
+			if (rowMin > max) {
+				return max + 1;
+			}
+			int[] t = before;
+			before = previous;
+			previous = current;
+			current = t;
+		}
+		return Math.min(previous[m], max + 1);
+	}
+}
@@ -0,0 +1,85 @@
+package com.flatironschool.javacs;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Query-independent rank of each page, such as PageRank, scaled so the
+ * best page has rank 1.
+ *
+ */
+public class StaticRank {
+
+	private final Map<String, Double> ranks;
+
+	// every ranked URL, highest rank first
+	private final String[] byRank;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param ranks  Map from URL to rank; scaled here, so any positive scale works.
+	 */
+	public StaticRank(Map<String, Double> ranks) {
+		double max = 0;
+		for (double rank: ranks.values()) {
+			max = Math.max(max, rank);
+		}
+		this.ranks = new HashMap<String, Double>();
+		for (Map.Entry<String, Double> entry: ranks.entrySet()) {
+			this.ranks.put(entry.getKey(), max > 0 ? entry.getValue() / max : 0);
+		}
+
+		byRank = this.ranks.keySet().toArray(new String[0]);
+		Arrays.sort(byRank, new Comparator<String>() {
+			@Override
+			public int compare(String url1, String url2) {
+				return Double.compare(get(url2), get(url1));
+			}
+		});
+	}
+
+	/**
+	 * Returns the rank of a URL, or 0 if it has none.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public double get(String url) {
+		Double rank = ranks.get(url);
+		return rank == null ? 0 : rank;
+	}
+
+	/**
+	 * Returns true if the URL has a rank.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public boolean contains(String url) {
+		return ranks.containsKey(url);
+	}
+
+	/**
+	 * Returns the number of ranked URLs.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return byRank.length;
+	}
+
+	/**
+	 * Returns every ranked URL, highest rank first.
+	 *
+	 * The array belongs to this object and must not be modified.
+	 *
+	 * @return
+	 */
+	String[] descending() {
+		return byRank;
+	}
+}
@@ -0,0 +1,45 @@
+package com.flatironschool.javacs;
+
+
+/**
+ * Strips English plural endings, so "languages" and "language" count as
+ * the same term.
+ *
+ * This is the "S-stemmer" (Harman, 1991) as used by Lucene's minimal
+ * English stemmer: it only touches words ending in s, so it rarely
+ * merges words that mean different things.
+ *
+ */
+public class StemFilter implements TokenFilter {
+
+	@Override
+	public boolean filter(Token token) {
+		int len = token.length();
+		if (len < 3 || token.charAt(len-1) != 's') {
+			return true;
+		}
+		switch (token.charAt(len-2)) {
+		case 'u':
+		case 's':
+			// "campus", "class"
+			return true;
+		case 'e':
+			// "libraries" -> "library"
+			if (len > 3 && token.charAt(len-3) == 'i'
+					&& token.charAt(len-4) != 'a' && token.charAt(len-4) != 'e') {
+				token.setCharAt(len-3, 'y');
+				token.setLength(len-2);
+				return true;
+			}
+			char c = token.charAt(len-3);
+			if (c == 'i' || c == 'a' || c == 'o' || c == 'e') {
+				return true;
+			}
+			token.setLength(len-1);
+			return true;
+		default:
+			token.setLength(len-1);
+			return true;
+		}
+	}
+}
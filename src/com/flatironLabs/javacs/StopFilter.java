@@ -0,0 +1,25 @@
+package com.flatironschool.javacs;
+
+
+/**
+ * Drops common words that don't help tell pages apart.
+ *
+ */
+public class StopFilter implements TokenFilter {
+
+	private final CharArraySet stopWords;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param stopWords  Words to drop, in lower case.
+	 */
+	public StopFilter(String... stopWords) {
+		this.stopWords = new CharArraySet(stopWords);
+	}
+
+	@Override
+	public boolean filter(Token token) {
+		return !stopWords.contains(token);
+	}
+}
@@ -0,0 +1,376 @@
+package com.flatironschool.javacs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.Tag;
+import org.jsoup.select.Elements;
+
+import redis.clients.jedis.Jedis;
+
+
+/**
+ * Makes up pages for testing the index at scales the bundled Wikipedia
+ * pages can't reach.
+ *
+ * Words are drawn from a Zipfian vocabulary, so a few words are in almost
+ * every page and most are rare, as in real text.  Page lengths follow a
+ * lognormal distribution, a few very long pages among many short ones.
+ * Links are made by preferential attachment: each page links to earlier
+ * pages, mostly to ones that already have many links in, so in-degrees
+ * follow a power law the way they do on the web.
+ *
+ * The words are made of syllables such as "bako", which the Analyzer
+ * leaves alone, and the most common words are the shortest.  A corpus
+ * with the same parameters and seed is the same every time.
+ *
+ */
+public class SyntheticCorpus {
+
+	private static final String CONSONANTS = "bdfgklmnprstvz";
+	private static final String VOWELS = "aiou";
+	private static final int SYLLABLES = CONSONANTS.length() * VOWELS.length();
+
+	private static final String URL_PREFIX = "https://synthetic.invalid/wiki/Page_";
+
+	private final String[] vocabulary;
+	private final ZipfDistribution zipf;
+	private final Random random;
+
+	private double lengthMu = Math.log(300);
+	private double lengthSigma = 0.8;
+	private int maxLength = 50000;
+	private int paragraphLength = 80;
+	private double meanLinks = 10;
+	private double uniformLinks = 0.2;
+
+	private int generated;
+	// the target of every link made so far, so a random entry is a page
+	// picked in proportion to its in-degree
+	private int[] linkTargets = new int[1024];
+	private int linkCount;
+
+	/**
+	 * A generated page.
+	 */
+	public static class Page {
+		private final String url;
+		private final String[] words;
+		private final List<String> links;
+
+		Page(String url, String[] words, List<String> links) {
+			this.url = url;
+			this.words = words;
+			this.links = links;
+		}
+
+		public String getUrl() {
+			return url;
+		}
+
+		public int length() {
+			return words.length;
+		}
+
+		/**
+		 * Returns the URLs of the pages this one links to.
+		 *
+		 * @return
+		 */
+		public List<String> getLinks() {
+			return links;
+		}
+
+		/**
+		 * Counts the words without going through the Analyzer, for
+		 * measuring the index alone.
+		 *
+		 * @return
+		 */
+		public TermCounter termCounter() {
+			TermCounter tc = new TermCounter(url);
+			for (String word: words) {
+				tc.incrementTermCount(word);
+			}
+			return tc;
+		}
+
+		/**
+		 * Returns the text as <p> elements, for indexPage.
+		 *
+		 * @param paragraphLength  Words per paragraph.
+		 * @return
+		 */
+		public Elements paragraphs(int paragraphLength) {
+			Elements paragraphs = new Elements();
+			for (int i=0; i<words.length; i+=paragraphLength) {
+				StringBuilder sb = new StringBuilder();
+				for (int j=i; j<Math.min(words.length, i + paragraphLength); j++) {
+					if (j > i) {
+						sb.append(' ');
+					}
+					sb.append(words[j]);
+				}
+				paragraphs.add(new Element(Tag.valueOf("p"), "").text(sb.toString()));
+			}
+			return paragraphs;
+		}
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param vocabularySize  Number of distinct words.
+	 * @param exponent        Of the Zipf distribution of words; about 1 for English.
+	 * @param seed
+	 */
+	public SyntheticCorpus(int vocabularySize, double exponent, long seed) {
+		this.vocabulary = new String[vocabularySize];
+		for (int i=0; i<vocabularySize; i++) {
+			vocabulary[i] = word(i + 1);
+		}
+		this.zipf = new ZipfDistribution(vocabularySize, exponent);
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Sets the distribution of page lengths, in words.
+	 *
+	 * @param median
+	 * @param sigma  Of the log of the length; larger means more spread.
+	 * @param max    Longer pages are cut to this.
+	 */
+	public void setLengths(double median, double sigma, int max) {
+		this.lengthMu = Math.log(median);
+		this.lengthSigma = sigma;
+		this.maxLength = max;
+	}
+
+	/**
+	 * Sets how pages link.
+	 *
+	 * @param mean     Average links out of a page.
+	 * @param uniform  Fraction of links to a page picked uniformly, rather
+	 *                 than by how many links it already has.
+	 */
+	public void setLinks(double mean, double uniform) {
+		this.meanLinks = mean;
+		this.uniformLinks = uniform;
+	}
+
+	/**
+	 * Sets the number of words per paragraph given to indexPage.
+	 *
+	 * @param words
+	 */
+	public void setParagraphLength(int words) {
+		this.paragraphLength = words;
+	}
+
+	public int getParagraphLength() {
+		return paragraphLength;
+	}
+
+	/**
+	 * Returns the word with a given popularity rank.
+	 *
+	 * @param rank  1 for the most common word.
+	 * @return
+	 */
+	public static String word(int rank) {
+		// at least two syllables, so no word is a stop word
+		int n = rank - 1 + SYLLABLES;
+		StringBuilder sb = new StringBuilder();
+		while (n > 0) {
+			int syllable = n % SYLLABLES;
+			sb.append(CONSONANTS.charAt(syllable / VOWELS.length()));
+			sb.append(VOWELS.charAt(syllable % VOWELS.length()));
+			n /= SYLLABLES;
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the URL of the page with a given number.
+	 *
+	 * @param page  0 for the first page generated.
+	 * @return
+	 */
+	public static String url(int page) {
+		return URL_PREFIX + page;
+	}
+
+	/**
+	 * Returns the number of pages generated so far.
+	 *
+	 * @return
+	 */
+	public int generated() {
+		return generated;
+	}
+
+	/**
+	 * Returns the vocabulary with a made-up document frequency for each
+	 * word that falls off with its rank, for QueryLoadTest.zipf.
+	 *
+	 * @return
+	 */
+	public Map<String, Integer> frequencies() {
+		Map<String, Integer> map = new HashMap<String, Integer>();
+		for (int i=0; i<vocabulary.length; i++) {
+			map.put(vocabulary[i], vocabulary.length - i);
+		}
+		return map;
+	}
+
+	/**
+	 * Generates the next page.
+	 *
+	 * @return
+	 */
+	public Page next() {
+		int page = generated++;
+
+		int length = (int) Math.round(Math.exp(lengthMu + lengthSigma * random.nextGaussian()));
+		length = Math.max(1, Math.min(maxLength, length));
+		String[] words = new String[length];
+		for (int i=0; i<length; i++) {
+			words[i] = vocabulary[zipf.sample(random) - 1];
+		}
+
+		int count = Math.min(page, (int) meanLinks + (random.nextDouble() < meanLinks % 1 ? 1 : 0));
+		int[] targets = new int[count];
+		List<String> links = new ArrayList<String>(count);
+		for (int i=0; i<count; i++) {
+			int target;
+			for (int tries=0; ; tries++) {
+				// after a few repeats, fall back to uniform so it always ends
+				if (linkCount == 0 || tries >= 8 || random.nextDouble() < uniformLinks) {
+					target = random.nextInt(page);
+				} else {
+					target = linkTargets[random.nextInt(linkCount)];
+				}
+				if (!contains(targets, i, target)) {
+					break;
+				}
+			}
+			targets[i] = target;
+			links.add(url(target));
+		}
+		for (int target: targets) {
+			if (linkCount == linkTargets.length) {
+				int[] grown = new int[linkCount * 2];
+				System.arraycopy(linkTargets, 0, grown, 0, linkCount);
+				linkTargets = grown;
+			}
+			linkTargets[linkCount++] = target;
+		}
+		return new Page(url(page), words, links);
+	}
+
+	private static boolean contains(int[] array, int n, int value) {
+		for (int i=0; i<n; i++) {
+			if (array[i] == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the heap in use after a garbage collection, in bytes.
+	 */
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i=0; i<3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Builds an index of synthetic pages and, at ten points as it grows,
+	 * reports its size, the build throughput and query latency.
+	 *
+	 * Usage: SyntheticCorpus [pages] [vocabulary] [exponent] [shards|scratchRedis] [analyze]
+	 *
+	 * The index is an InMemoryIndex with the given number of shards, or a
+	 * scratch Redis given as "host:port" or a redis:// URI; that one is
+	 * wiped first, so never point it at a real index.
+	 * Pages go through indexTermCounter unless "analyze" is given, in which
+	 * case their text goes through indexPage and the Analyzer.  Memory is
+	 * the growth of the JVM heap, including the LinkGraph, so it only
+	 * measures an InMemoryIndex.
+	 *
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int pages = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int vocabularySize = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+		double exponent = args.length > 2 ? Double.parseDouble(args[2]) : 1.0;
+		String mode = args.length > 3 ? args[3] : String.valueOf(Runtime.getRuntime().availableProcessors());
+		boolean analyze = args.length > 4 && args[4].equals("analyze");
+
+		SyntheticCorpus corpus = new SyntheticCorpus(vocabularySize, exponent, 42);
+		LinkGraph graph = new LinkGraph();
+
+		final SearchIndex index;
+		QueryLoadTest.TargetFactory target;
+		Jedis jedis = null;
+		Jedis queryJedis = null;
+		if (!mode.matches("\\d+")) {
+			jedis = ShardedJedisIndex.connect(mode);
+			JedisIndex jedisIndex = new JedisIndex(jedis);
+			jedisIndex.deleteAllKeys();
+			index = jedisIndex;
+			// the load test runs one thread at a time, so every run can
+			// share one connection for its queries
+			queryJedis = ShardedJedisIndex.connect(mode);
+			final JedisIndex queryIndex = new JedisIndex(queryJedis);
+			target = QueryLoadTest.search(() -> queryIndex);
+		} else {
+			final InMemoryIndex memoryIndex = new InMemoryIndex(Integer.parseInt(mode));
+			index = memoryIndex;
+			target = () -> query -> memoryIndex.search(query, 10).size();
+		}
+		QueryLoadTest load = new QueryLoadTest(QueryLoadTest.zipf(corpus.frequencies(), exponent), target, 7);
+
+		long baseline = usedMemory();
+		long words = 0;
+		double buildSeconds = 0;
+		int step = Math.max(1, pages / 10);
+		System.out.println("pages\twords\tMB\tbytes/page\tpages/sec\tquery p50\tquery p99");
+		while (corpus.generated() < pages) {
+			long start = System.nanoTime();
+			int end = Math.min(pages, corpus.generated() + step);
+			while (corpus.generated() < end) {
+				Page page = corpus.next();
+				if (analyze) {
+					index.indexPage(page.getUrl(), page.paragraphs(corpus.getParagraphLength()));
+				} else {
+					index.indexTermCounter(page.termCounter());
+				}
+				graph.setLinks(page.getUrl(), page.getLinks());
+				words += page.length();
+			}
+			buildSeconds += (System.nanoTime() - start) / 1e9;
+
+			long bytes = usedMemory() - baseline;
+			QueryLoadTest.Report report = load.closedLoop(1, 2, 0.5);
+			System.out.println(String.format("%d\t%d\t%.1f\t%d\t%.0f\t%.2fms\t%.2fms",
+					corpus.generated(), words, bytes / 1e6, bytes / corpus.generated(),
+					corpus.generated() / buildSeconds,
+					report.getLatency().getP50(), report.getLatency().getP99()));
+		}
+		System.out.println(String.format("link graph: %d pages, %d links", graph.size(), graph.edgeCount()));
+		if (jedis != null) {
+			jedis.close();
+			queryJedis.close();
+		}
+	}
+}
@@ -0,0 +1,255 @@
+package com.flatironschool.javacs;
+
+import java.util.Arrays;
+
+
+/**
+ * A map from term to int count, built for counting words quickly.
+ *
+ * Terms are stored as their ids in a TermDictionary, and ids and counts
+ * live in parallel arrays with open addressing, so there is no entry
+ * object, boxed count or String per term.  Lookups take any CharSequence,
+ * such as a Token; a String is made only the first time the process sees
+ * a term.
+ *
+ */
+public class TermCountMap {
+
+	private final TermDictionary dictionary;
+
+	// id+1 of the term in each slot, or 0 if the slot is empty
+	private int[] slots;
+	private int[] counts;
+	private int size;
+	private long total;
+
+	/**
+	 * Makes an empty map.
+	 */
+	public TermCountMap() {
+		this(64);
+	}
+
+	/**
+	 * Makes an empty map with room for about `expected` terms.
+	 *
+	 * @param expected
+	 */
+	public TermCountMap(int expected) {
+		this(TermDictionary.global(), expected);
+	}
+
+	/**
+	 * Makes an empty map that gets its term ids from `dictionary`.
+	 *
+	 * @param dictionary
+	 * @param expected
+	 */
+	public TermCountMap(TermDictionary dictionary, int expected) {
+		this.dictionary = dictionary;
+		int capacity = 16;
+		while (capacity < expected * 2) {
+			capacity *= 2;
+		}
+		slots = new int[capacity];
+		counts = new int[capacity];
+	}
+
+	/**
+	 * Returns the dictionary the term ids come from.
+	 *
+	 * @return
+	 */
+	public TermDictionary getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * Adds `delta` to the count for a term.
+	 *
+	 * @param term
+	 * @param delta
+	 */
+	public void add(CharSequence term, int delta) {
+		addId(dictionary.id(term), delta);
+	}
+
+	/**
+	 * Adds `delta` to the count for the term with the given id.
+	 *
+	 * @param id
+	 * @param delta
+	 */
+	public void addId(int id, int delta) {
+		int slot = find(id);
+		if (slots[slot] == 0) {
+			if (2 * (size + 1) > slots.length) {
+				rehash(slots.length * 2);
+				slot = find(id);
+			}
+			slots[slot] = id + 1;
+			size++;
+		}
+		counts[slot] += delta;
+		total += delta;
+	}
+
+	/**
+	 * Adds one to the count for a term.
+	 *
+	 * @param term
+	 */
+	public void increment(CharSequence term) {
+		addId(dictionary.id(term), 1);
+	}
+
+	/**
+	 * Sets the count for a term.
+	 *
+	 * @param term
+	 * @param count
+	 */
+	public void put(CharSequence term, int count) {
+		add(term, count - get(term));
+	}
+
+	/**
+	 * Returns the count for a term, or 0 if it is unseen.
+	 *
+	 * @param term
+	 * @return
+	 */
+	public int get(CharSequence term) {
+		int id = dictionary.lookup(term);
+		return id < 0 ? 0 : getId(id);
+	}
+
+	/**
+	 * Returns the count for the term with the given id, or 0 if it is unseen.
+	 *
+	 * @param id
+	 * @return
+	 */
+	public int getId(int id) {
+		int slot = find(id);
+		return slots[slot] == 0 ? 0 : counts[slot];
+	}
+
+	/**
+	 * Adds all the counts in another map to this one.
+	 *
+	 * @param that  A map with the same dictionary.
+	 */
+	public void addAll(TermCountMap that) {
+		if (that.dictionary != dictionary) {
+			throw new IllegalArgumentException("maps use different dictionaries");
+		}
+		for (int i=0; i<that.slots.length; i++) {
+			if (that.slots[i] != 0) {
+				addId(that.slots[i] - 1, that.counts[i]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of distinct terms.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the sum of all counts.
+	 *
+	 * @return
+	 */
+	public long total() {
+		return total;
+	}
+
+	/**
+	 * Copies the terms into an array, in no particular order.
+	 *
+	 * @return
+	 */
+	public String[] terms() {
+		String[] terms = new String[size];
+		int n = 0;
+		for (int entry: slots) {
+			if (entry != 0) {
+				terms[n++] = dictionary.term(entry - 1);
+			}
+		}
+		return terms;
+	}
+
+	/**
+	 * Copies the term ids and their counts into the given arrays, in the
+	 * same (arbitrary) order as terms().
+	 *
+	 * @param ids     Array of at least size() elements.
+	 * @param counts  Array of at least size() elements.
+	 */
+	public void copyTo(int[] ids, int[] counts) {
+		int n = 0;
+		for (int i=0; i<slots.length; i++) {
+			if (slots[i] != 0) {
+				ids[n] = slots[i] - 1;
+				counts[n] = this.counts[i];
+				n++;
+			}
+		}
+	}
+
+	private int find(int id) {
+		int mask = slots.length - 1;
+		int slot = mix(id) & mask;
+		while (slots[slot] != 0) {
+			if (slots[slot] == id + 1) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void rehash(int capacity) {
+		int[] oldSlots = slots;
+		int[] oldCounts = counts;
+		slots = new int[capacity];
+		counts = new int[capacity];
+
+		int mask = capacity - 1;
+		for (int i=0; i<oldSlots.length; i++) {
+			if (oldSlots[i] != 0) {
+				int slot = mix(oldSlots[i] - 1) & mask;
+				while (slots[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				slots[slot] = oldSlots[i];
+				counts[slot] = oldCounts[i];
+			}
+		}
+	}
+
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	@Override
+	public String toString() {
+		String[] terms = terms();
+		Arrays.sort(terms);
+		StringBuilder sb = new StringBuilder("{");
+		for (String term: terms) {
+			if (sb.length() > 1) {
+				sb.append(", ");
+			}
+			sb.append(term).append('=').append(get(term));
+		}
+		return sb.append('}').toString();
+	}
+}
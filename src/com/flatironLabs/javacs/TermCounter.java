@@ -1,11 +1,13 @@
 package com.flatironschool.javacs;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
+import org.jsoup.nodes.Element;
 import org.jsoup.nodes.Node;
 import org.jsoup.nodes.TextNode;
 import org.jsoup.select.Elements;
@@ -14,19 +16,57 @@ import org.jsoup.select.Elements;
 /**
  * Encapsulates a map from search term to frequency (count).
  * 
+ * Counts are kept in a TermCountMap while the page is processed.  When
+ * counting is done, seal() freezes them into a TermFrequencies, which is
+ * what gets pushed to the index.  Terms are identified by their ids in
+ * the global TermDictionary, so a term seen on an earlier page costs no
+ * new String.
+ * 
+ * Pages with many paragraphs are counted in parallel: the paragraphs are
+ * split across a fork/join pool, each task counts into its own map, and
+ * the maps are merged at the end.  See setParallelThreshold.
+ * 
  * @author downey
  *
  */
 public class TermCounter {
 	
-	private Map<String, Double> map;
+	private TermCountMap map;
 	private String label;
-   private String[] stopWords = {"the", "a", "and", "or", "because", "there", "is", "of",
-      "at", "with", "were", "if", "so", "then", "was", "when", "I", "you", "they"};
+
+	// set by seal(); after that the counts can't change
+	private TermFrequencies frozen;
+
+	// splits text into terms and counts them into `map`
+	private final Analyzer analyzer;
+	private final Counting counting;
+
+	// pages with at least this many paragraphs are counted in parallel
+	private static volatile int parallelThreshold = 64;
+
+	// each fork/join task counts at most this many paragraphs itself
+	private static final int PARAGRAPHS_PER_TASK = 16;
+
+	// shared by all TermCounters; made the first time a big page shows up
+	private static class PoolHolder {
+		static final ForkJoinPool POOL = new ForkJoinPool();
+	}
 	
 	public TermCounter(String label) {
+		this(label, Analyzer.standard());
+	}
+
+	/**
+	 * Makes a TermCounter that splits text with the given analyzer.
+	 * 
+	 * @param label
+	 * @param analyzer
+	 */
+	public TermCounter(String label, Analyzer analyzer) {
 		this.label = label;
-		this.map = new HashMap<String, Double>();
+		this.analyzer = analyzer;
+		this.map = new TermCountMap();
+		this.counting = new Counting(analyzer, map);
 	}
 	
 	public String getLabel() {
@@ -39,19 +79,24 @@ public class TermCounter {
 	 * @return
 	 */
 	public double size() {
-		double total = 0;
-		for (Double value: map.values()) {
-			total += value;
-		}
-		return total;
+		return map.total();
 	}
 
 	/**
 	 * Takes a collection of Elements and counts their words.
 	 * 
+	 * If there are at least getParallelThreshold() elements, they are
+	 * counted in parallel; the result is the same either way.
+	 * 
 	 * @param paragraphs
 	 */
 	public void processElements(Elements paragraphs) {
+		checkNotSealed();
+		if (paragraphs.size() >= parallelThreshold) {
+			CountTask task = new CountTask(analyzer, paragraphs, 0, paragraphs.size());
+			map.addAll(PoolHolder.POOL.invoke(task));
+			return;
+		}
 		for (Node node: paragraphs) {
 			processTree(node);
 		}
@@ -63,12 +108,109 @@ public class TermCounter {
 	 * @param root
 	 */
 	public void processTree(Node root) {
+		checkNotSealed();
 		// NOTE: we could use select to find the TextNodes, but since
-		// we already have a tree iterator, let's use it.
-		for (Node node: new WikiNodeIterable(root)) {
+		// we already have a tree traversal, let's use it.
+		WikiNodeIterable.traverse(root, counting);
+	}
+
+	/**
+	 * Returns the number of paragraphs at which processElements switches
+	 * to parallel counting.
+	 * 
+	 * @return
+	 */
+	public static int getParallelThreshold() {
+		return parallelThreshold;
+	}
+
+	/**
+	 * Sets the number of paragraphs at which processElements switches to
+	 * parallel counting.
+	 * 
+	 * Splitting a page costs more than it saves unless the page is long;
+	 * Integer.MAX_VALUE turns parallel counting off.
+	 * 
+	 * @param paragraphs
+	 */
+	public static void setParallelThreshold(int paragraphs) {
+		if (paragraphs < 1) {
+			throw new IllegalArgumentException("threshold must be positive: " + paragraphs);
+		}
+		parallelThreshold = paragraphs;
+	}
+
+	/**
+	 * Counts the words in TextNodes into a map, skipping references and
+	 * boxouts.  Holds the scratch Token, so it belongs to one thread.
+	 */
+	private static class Counting implements WikiNodeIterable.Visitor, Analyzer.TermSink {
+		private final Analyzer analyzer;
+		private final TermCountMap map;
+		private final Token token = new Token();
+
+		Counting(Analyzer analyzer, TermCountMap map) {
+			this.analyzer = analyzer;
+			this.map = map;
+		}
+
+		@Override
+		public boolean visit(Node node) {
 			if (node instanceof TextNode) {
-				processText(((TextNode) node).text());
+				// the analyzer splits on whitespace, so the raw text will do
+				analyzer.analyze(((TextNode) node).getWholeText(), token, this);
+				return false;
+			}
+			return !(node instanceof Element && ContentExtractor.isBoilerplate((Element) node));
+		}
+
+		@Override
+		public void term(Token term) {
+			map.increment(term);
+		}
+	}
+
+	/**
+	 * Counts the words in a range of paragraphs, splitting the range in
+	 * half until it is small enough to count directly.
+	 */
+	private static class CountTask extends RecursiveTask<TermCountMap> {
+		private static final long serialVersionUID = 1L;
+
+		private final Analyzer analyzer;
+		private final Elements paragraphs;
+		private final int from, to;
+
+		CountTask(Analyzer analyzer, Elements paragraphs, int from, int to) {
+			this.analyzer = analyzer;
+			this.paragraphs = paragraphs;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected TermCountMap compute() {
+			if (to - from <= PARAGRAPHS_PER_TASK) {
+				TermCountMap counts = new TermCountMap(256);
+				Counting counting = new Counting(analyzer, counts);
+				for (int i=from; i<to; i++) {
+					WikiNodeIterable.traverse(paragraphs.get(i), counting);
+				}
+				return counts;
 			}
+			int mid = (from + to) >>> 1;
+			CountTask left = new CountTask(analyzer, paragraphs, from, mid);
+			left.fork();
+			TermCountMap right = new CountTask(analyzer, paragraphs, mid, to).compute();
+			TermCountMap counts = left.join();
+
+			// merge the smaller map into the bigger one
+			if (counts.size() < right.size()) {
+				right.addAll(counts);
+				return right;
+			}
+			counts.addAll(right);
+			return counts;
 		}
 	}
 
@@ -78,19 +220,8 @@ public class TermCounter {
 	 * @param text  The text to process.
 	 */
 	public void processText(String text) {
-		// replace punctuation with spaces, convert to lower case, and split on whitespace
-		String[] array = text.replaceAll("\\pP", " ").toLowerCase().split("\\s+");
-		
-		for (int i=0; i<array.length; i++) {
-			String term = array[i];
-         
-         term = term.toLowerCase();
-         if( Arrays.asList(stopWords).contains(term) ) {
-            continue;
-         }
-
-			incrementTermCount(term);
-		}
+		checkNotSealed();
+		analyzer.analyze(text, counting.token, counting);
 	}
 
 	/**
@@ -99,8 +230,8 @@ public class TermCounter {
 	 * @param term
 	 */
 	public void incrementTermCount(String term) {
-		// System.out.println(term);
-		put(term, get(term) + 1.0 );
+		checkNotSealed();
+		map.increment(term);
 	}
 
 	/**
@@ -109,7 +240,8 @@ public class TermCounter {
 	 * @param term
 	 * @param count
 	 */
-	public void put(String term, double count) {
+	public void put(String term, int count) {
+		checkNotSealed();
 		map.put(term, count);
 	}
 
@@ -119,26 +251,58 @@ public class TermCounter {
 	 * @param term
 	 * @return
 	 */
-	public Double get(String term) {
-		Double count = map.get(term);
-		return count == null ? 0 : count;
+	public int get(String term) {
+		return map.get(term);
 	}
 
 	/**
 	 * Returns the set of terms that have been counted.
 	 * 
+	 * Makes a new set each time; use seal() to walk the terms of a
+	 * finished page.
+	 * 
 	 * @return
 	 */
 	public Set<String> keySet() {
-		return map.keySet();
+		return new HashSet<String>(Arrays.asList(map.terms()));
+	}
+
+	/**
+	 * Freezes the counts and computes the frequency of each term.
+	 * 
+	 * Once a TermCounter is sealed it can't count any more text.  Calling
+	 * seal again returns the same object.
+	 * 
+	 * @return
+	 */
+	public TermFrequencies seal() {
+		if (frozen == null) {
+			frozen = new TermFrequencies(label, map);
+		}
+		return frozen;
+	}
+
+	/**
+	 * Returns true if seal() has been called.
+	 * 
+	 * @return
+	 */
+	public boolean isSealed() {
+		return frozen != null;
+	}
+
+	private void checkNotSealed() {
+		if (frozen != null) {
+			throw new IllegalStateException("TermCounter for " + label + " is sealed");
+		}
 	}
 	
 	/**
 	 * Print the terms and their counts in arbitrary order.
 	 */
 	public void printCounts() {
-		for (String key: keySet()) {
-			Double count = get(key);
+		for (String key: map.terms()) {
+			int count = get(key);
 			System.out.println(key + ", " + count);
 		}
 		System.out.println("Total of all counts = " + size());
@@ -0,0 +1,243 @@
+package com.flatironschool.javacs;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+/**
+ * Assigns a dense int id to every term the process sees.
+ *
+ * Each term is stored once, as a String and as the UTF-8 bytes of the
+ * term and of its URLSet key, so counting and indexing a page can work
+ * with ids and never build a term String or key again once the term is
+ * known.
+ *
+ * Looking up a term takes no lock: the table is replaced, never resized
+ * in place, and an id is published only after its term is in the table.
+ * Adding a new term takes a lock.  Ids are never reused or removed.
+ *
+ */
+public class TermDictionary {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final TermDictionary GLOBAL = new TermDictionary("URLSet:");
+
+	/**
+	 * Everything a reader needs, published as one object.
+	 *
+	 * A slot holds id+1, or 0 if empty.  The per-id arrays have room for
+	 * half as many ids as there are slots, so a full table is replaced
+	 * before its probes get long.
+	 */
+	private static class Table {
+		final AtomicIntegerArray slots;
+		final int[] hashes;
+		final String[] terms;
+		final byte[][] termBytes;
+		final byte[][] keyBytes;
+
+		Table(int capacity) {
+			slots = new AtomicIntegerArray(capacity);
+			hashes = new int[capacity / 2];
+			terms = new String[capacity / 2];
+			termBytes = new byte[capacity / 2][];
+			keyBytes = new byte[capacity / 2][];
+		}
+	}
+
+	private final String keyPrefix;
+	private volatile Table table = new Table(1 << 12);
+
+	// only changed while holding the lock; read through the table
+	private volatile int size;
+
+	/**
+	 * Makes an empty dictionary.
+	 *
+	 * @param keyPrefix  Prepended to each term to make its key bytes.
+	 */
+	public TermDictionary(String keyPrefix) {
+		this.keyPrefix = keyPrefix;
+	}
+
+	/**
+	 * Returns the dictionary shared by TermCounter and JedisIndex.
+	 *
+	 * @return
+	 */
+	public static TermDictionary global() {
+		return GLOBAL;
+	}
+
+	/**
+	 * Returns the prefix of the key bytes.
+	 *
+	 * @return
+	 */
+	public String getKeyPrefix() {
+		return keyPrefix;
+	}
+
+	/**
+	 * Returns the id of a term, adding it if it is new.
+	 *
+	 * @param term
+	 * @return
+	 */
+	public int id(CharSequence term) {
+		int hash = hash(term);
+		int id = find(table, term, hash);
+		if (id >= 0) {
+			return id;
+		}
+		return add(term, hash);
+	}
+
+	/**
+	 * Returns the id of a term, or -1 if it has never been seen.
+	 *
+	 * @param term
+	 * @return
+	 */
+	public int lookup(CharSequence term) {
+		return find(table, term, hash(term));
+	}
+
+	/**
+	 * Returns the term with the given id.
+	 *
+	 * @param id
+	 * @return
+	 */
+	public String term(int id) {
+		return table.terms[id];
+	}
+
+	/**
+	 * Returns the term with the given id as UTF-8.  Don't modify it.
+	 *
+	 * @param id
+	 * @return
+	 */
+	public byte[] termBytes(int id) {
+		return table.termBytes[id];
+	}
+
+	/**
+	 * Returns the key prefix followed by the term, as UTF-8.  Don't
+	 * modify it.
+	 *
+	 * @param id
+	 * @return
+	 */
+	public byte[] keyBytes(int id) {
+		return table.keyBytes[id];
+	}
+
+	/**
+	 * Returns the number of terms.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	private int find(Table t, CharSequence term, int hash) {
+		int mask = t.slots.length() - 1;
+		int slot = mix(hash) & mask;
+		int entry;
+		while ((entry = t.slots.get(slot)) != 0) {
+			int id = entry - 1;
+			if (t.hashes[id] == hash && equal(t.terms[id], term)) {
+				return id;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private synchronized int add(CharSequence term, int hash) {
+		// someone may have added it since we looked
+		Table t = table;
+		int id = find(t, term, hash);
+		if (id >= 0) {
+			return id;
+		}
+
+		id = size;
+		if (id == t.terms.length) {
+			t = grow(t);
+		}
+		String s = term.toString();
+		t.hashes[id] = hash;
+		t.terms[id] = s;
+		t.termBytes[id] = s.getBytes(UTF8);
+		t.keyBytes[id] = (keyPrefix + s).getBytes(UTF8);
+
+		// the volatile write publishes the entries above
+		int mask = t.slots.length() - 1;
+		int slot = mix(hash) & mask;
+		while (t.slots.get(slot) != 0) {
+			slot = (slot + 1) & mask;
+		}
+		t.slots.set(slot, id + 1);
+		size = id + 1;
+		return id;
+	}
+
+	/**
+	 * Copies a full table into one twice the size and publishes it.
+	 */
+	private Table grow(Table old) {
+		int n = old.terms.length;
+		Table t = new Table(old.slots.length() * 2);
+		System.arraycopy(old.hashes, 0, t.hashes, 0, n);
+		System.arraycopy(old.terms, 0, t.terms, 0, n);
+		System.arraycopy(old.termBytes, 0, t.termBytes, 0, n);
+		System.arraycopy(old.keyBytes, 0, t.keyBytes, 0, n);
+
+		int mask = t.slots.length() - 1;
+		for (int id=0; id<n; id++) {
+			int slot = mix(t.hashes[id]) & mask;
+			while (t.slots.get(slot) != 0) {
+				slot = (slot + 1) & mask;
+			}
+			t.slots.lazySet(slot, id + 1);
+		}
+		table = t;
+		return t;
+	}
+
+	/**
+	 * Same value as String.hashCode, so Strings can use their cached hash.
+	 */
+	private static int hash(CharSequence term) {
+		if (term instanceof String) {
+			return term.hashCode();
+		}
+		int h = 0;
+		for (int i=0; i<term.length(); i++) {
+			h = 31 * h + term.charAt(i);
+		}
+		return h;
+	}
+
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean equal(String key, CharSequence term) {
+		if (key.length() != term.length()) {
+			return false;
+		}
+		for (int i=0; i<key.length(); i++) {
+			if (key.charAt(i) != term.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,119 @@
+package com.flatironschool.javacs;
+
+
+/**
+ * The frozen contents of a TermCounter: each term, its count, and its
+ * frequency (count divided by the total of all counts).
+ *
+ * Everything is in parallel arrays, and the frequencies are computed once
+ * when the counter is sealed, so pushing a page to the index is a single
+ * pass over three arrays.  Terms are kept as ids in the map's
+ * TermDictionary, which also holds their Redis keys.
+ *
+ */
+public class TermFrequencies {
+
+	private final String label;
+	private final TermDictionary dictionary;
+	private final int[] ids;
+	private final int[] counts;
+	private final double[] frequencies;
+	private final long total;
+
+	/**
+	 * Freezes the contents of a TermCountMap.
+	 *
+	 * @param label
+	 * @param map
+	 */
+	TermFrequencies(String label, TermCountMap map) {
+		this.label = label;
+		this.dictionary = map.getDictionary();
+		int n = map.size();
+		this.ids = new int[n];
+		this.counts = new int[n];
+		map.copyTo(ids, counts);
+
+		this.total = map.total();
+		this.frequencies = new double[n];
+		for (int i=0; i<n; i++) {
+			frequencies[i] = total == 0 ? 0 : (double) counts[i] / total;
+		}
+	}
+
+	/**
+	 * Returns the label (usually the URL) of the page.
+	 *
+	 * @return
+	 */
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * Returns the number of distinct terms.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * Returns the sum of all counts.
+	 *
+	 * @return
+	 */
+	public long total() {
+		return total;
+	}
+
+	/**
+	 * Returns the i-th term.
+	 *
+	 * @param i
+	 * @return
+	 */
+	public String term(int i) {
+		return dictionary.term(ids[i]);
+	}
+
+	/**
+	 * Returns the id of the i-th term.
+	 *
+	 * @param i
+	 * @return
+	 */
+	public int termId(int i) {
+		return ids[i];
+	}
+
+	/**
+	 * Returns the dictionary the term ids come from.
+	 *
+	 * @return
+	 */
+	public TermDictionary getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * Returns the number of times the i-th term appears.
+	 *
+	 * @param i
+	 * @return
+	 */
+	public int count(int i) {
+		return counts[i];
+	}
+
+	/**
+	 * Returns the frequency of the i-th term.
+	 *
+	 * @param i
+	 * @return
+	 */
+	public double frequency(int i) {
+		return frequencies[i];
+	}
+}
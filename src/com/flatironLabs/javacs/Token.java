@@ -0,0 +1,161 @@
+package com.flatironschool.javacs;
+
+import java.util.Arrays;
+
+
+/**
+ * A reusable, growable buffer holding the characters of one token.
+ *
+ * The Analyzer fills the same Token over and over, so scanning text does
+ * not allocate a String per word.  Filters edit the buffer in place.
+ * Call toString only when the term has to be kept.
+ *
+ */
+public class Token implements CharSequence {
+
+	private char[] buffer;
+	private int length;
+
+	/**
+	 * Makes an empty token.
+	 */
+	public Token() {
+		this.buffer = new char[32];
+	}
+
+	/**
+	 * Makes a token holding the given characters.
+	 *
+	 * @param text
+	 */
+	public Token(CharSequence text) {
+		this.buffer = new char[Math.max(32, text.length())];
+		for (int i=0; i<text.length(); i++) {
+			append(text.charAt(i));
+		}
+	}
+
+	/**
+	 * Adds a character to the end of the token.
+	 *
+	 * @param c
+	 */
+	public void append(char c) {
+		if (length == buffer.length) {
+			buffer = Arrays.copyOf(buffer, length * 2);
+		}
+		buffer[length++] = c;
+	}
+
+	/**
+	 * Empties the token.
+	 */
+	public void clear() {
+		length = 0;
+	}
+
+	/**
+	 * Shortens the token.
+	 *
+	 * @param newLength  Must not be more than the current length.
+	 */
+	public void setLength(int newLength) {
+		if (newLength < 0 || newLength > length) {
+			throw new IndexOutOfBoundsException("length " + newLength);
+		}
+		length = newLength;
+	}
+
+	/**
+	 * Replaces the character at a position.
+	 *
+	 * @param index
+	 * @param c
+	 */
+	public void setCharAt(int index, char c) {
+		if (index >= length) {
+			throw new IndexOutOfBoundsException("index " + index);
+		}
+		buffer[index] = c;
+	}
+
+	/**
+	 * Returns true if the token ends with the given suffix.
+	 *
+	 * @param suffix
+	 * @return
+	 */
+	public boolean endsWith(String suffix) {
+		int n = suffix.length();
+		if (n > length) {
+			return false;
+		}
+		for (int i=0; i<n; i++) {
+			if (buffer[length - n + i] != suffix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the backing array; only the first length() chars are valid.
+	 *
+	 * @return
+	 */
+	char[] buffer() {
+		return buffer;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index >= length) {
+			throw new IndexOutOfBoundsException("index " + index);
+		}
+		return buffer[index];
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return new String(buffer, start, end - start);
+	}
+
+	/**
+	 * Same hash as a String with the same characters.
+	 */
+	@Override
+	public int hashCode() {
+		int h = 0;
+		for (int i=0; i<length; i++) {
+			h = 31 * h + buffer[i];
+		}
+		return h;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof Token)) {
+			return false;
+		}
+		Token that = (Token) obj;
+		if (that.length != length) {
+			return false;
+		}
+		for (int i=0; i<length; i++) {
+			if (buffer[i] != that.buffer[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return new String(buffer, 0, length);
+	}
+}
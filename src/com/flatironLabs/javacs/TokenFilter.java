@@ -0,0 +1,17 @@
+package com.flatironschool.javacs;
+
+
+/**
+ * One step of an Analyzer: edits a token in place, or drops it.
+ *
+ */
+public interface TokenFilter {
+
+	/**
+	 * Filters a token.
+	 *
+	 * @param token  The token, which may be modified.
+	 * @return false if the token should be dropped.
+	 */
+	boolean filter(Token token);
+}
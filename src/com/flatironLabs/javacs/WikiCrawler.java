@@ -1,11 +1,15 @@
 package com.flatironschool.javacs;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.LinkedList;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Queue;
 import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
@@ -14,28 +18,72 @@ import redis.clients.jedis.Jedis;
 
 
 public class WikiCrawler {
+	private static final Metrics.Counter CRAWLED = Metrics.global().counter("crawl.pages");
+	private static final Metrics.Counter FAILED = Metrics.global().counter("crawl.failed");
+
+	// longest crawl() waits for a parked host before returning
+	private static final long MAX_WAIT_MILLIS = 1000;
+
 	// keeps track of where we started
 	private final String source;
 
+	// scheme and host of the source; only links on this site are followed
+	private final String baseUri;
+
 	// the index where the results go
-	private JedisIndex index;
+	private SearchIndex index;
+
+	// URLs to be indexed, most important first
+	private CrawlFrontier frontier = new CrawlFrontier();
 
-	// queue of URLs to be indexed
-	private Queue<String> queue = new LinkedList<String>();
+	// out-links of every page we have crawled
+	private LinkGraph graph = new LinkGraph();
 	
 	// fetcher used to get pages from Wikipedia
 	final static WikiFetcher wf = new WikiFetcher();
 
+	// fetcher used by this crawler
+	private final WikiFetcher fetcher;
+
 	/**
 	 * Constructor.
 	 * 
 	 * @param source
 	 * @param index
 	 */
-	public WikiCrawler(String source, JedisIndex index) {
+	public WikiCrawler(String source, SearchIndex index) {
+		this(source, index, wf);
+	}
+
+	/**
+	 * Makes a crawler that fetches pages with the given fetcher.
+	 * 
+	 * @param source
+	 * @param index
+	 * @param fetcher
+	 */
+	public WikiCrawler(String source, SearchIndex index, WikiFetcher fetcher) {
 		this.source = source;
+		this.baseUri = baseUri(source);
 		this.index = index;
-		queue.offer(source);
+		this.fetcher = fetcher;
+		frontier.addSeed(source);
+	}
+
+	/**
+	 * Returns the scheme, host and port of a URL, e.g. "https://en.wikipedia.org/".
+	 * 
+	 * @param url
+	 * @return
+	 */
+	static String baseUri(String url) {
+		try {
+			URL u = new URL(url);
+			String port = u.getPort() == -1 ? "" : ":" + u.getPort();
+			return u.getProtocol() + "://" + u.getHost() + port + "/";
+		} catch (MalformedURLException e) {
+			throw new IllegalArgumentException("Bad source URL: " + url, e);
+		}
 	}
 
 	/**
@@ -44,7 +92,16 @@ public class WikiCrawler {
 	 * @return
 	 */
 	public int queueSize() {
-		return queue.size();	
+		return frontier.size();	
+	}
+
+	/**
+	 * Returns the links recorded so far.
+	 * 
+	 * @return
+	 */
+	public LinkGraph getLinkGraph() {
+		return graph;
 	}
 
 	/**
@@ -56,8 +113,21 @@ public class WikiCrawler {
 	 */
 	public String crawl(boolean testing) throws IOException {
 
-      //Add the url to the queue
-      String url = queue.poll();
+      //Take the most important url off the frontier; if the only ones
+      //left are waiting for their host, wait too instead of spinning
+      String url = frontier.poll();
+      if( url == null ) {
+         long wait = frontier.timeUntilReady(TimeUnit.MILLISECONDS);
+         if( wait > 0 ) {
+            try {
+               Thread.sleep(Math.min(wait, MAX_WAIT_MILLIS));
+            }
+            catch( InterruptedException e ) {
+               Thread.currentThread().interrupt();
+            }
+         }
+         return null;
+      }
 
       //If the url is already indexed and testing is false
       //don't add to queue
@@ -70,23 +140,32 @@ public class WikiCrawler {
 
       //If testing then read the Wiki page from the cached data
       if( testing ) {
-         paragraph = wf.readWikipedia(url);
+         paragraph = fetcher.readWikipedia(url);
       }
 
-      //Otherwise get the Wiki page from Wikipedia
+      //Otherwise get the Wiki page from Wikipedia; if its host is
+      //parked, put it back until the host can be tried again
       else {
-         paragraph = wf.fetchWikipedia(url);
+         try {
+            paragraph = fetcher.fetchWikipedia(url);
+         }
+         catch( HostCircuitBreaker.OpenException e ) {
+            frontier.park(url, e.getRetryAfter(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+            return null;
+         }
       }
 
       if( paragraph == null ) {
+         FAILED.increment();
          return null;
       }
 
       //Index the page and queue the Internal links
       index.indexPage(url, paragraph);
+      CRAWLED.increment();
 
-      if( url.contains("https://en.wikipedia.org/")) {
-         queueInternalLinks(paragraph);
+      if( url.startsWith(baseUri) ) {
+         queueInternalLinks(url, paragraph);
       }
 
 		return url;
@@ -99,9 +178,50 @@ public class WikiCrawler {
 	 */
 	// NOTE: absence of access level modifier means package-level
 	void queueInternalLinks(Elements paragraphs) {
-      
-      //Base url for wikipedia
-      String wikiUrl = "/wiki/";
+      queueInternalLinks(source, paragraphs);
+	}
+
+	/**
+	 * Parses the paragraphs of a crawled page and adds its internal links
+	 * to the frontier, passing on the page's importance to them.
+	 * 
+	 * @param url
+	 * @param paragraphs
+	 */
+	void queueInternalLinks(String url, Elements paragraphs) {
+      List<String> links = internalLinks(paragraphs, baseUri);
+      graph.setLinks(url, links);
+      frontier.distribute(url, links);
+	}
+
+	/**
+	 * Parses Wikipedia paragraphs and returns the links that should be crawled.
+	 * 
+	 * @param paragraphs
+	 * @return List of absolute URLs, in document order.
+	 */
+	static List<String> internalLinks(Elements paragraphs) {
+      return internalLinks(paragraphs, "https://en.wikipedia.org/");
+	}
+
+	/**
+	 * Parses paragraphs and returns the links that should be crawled: the
+	 * /wiki/ pages on the same host as baseUri.  Links to other sites are
+	 * left out, so a crawl never leaves the site it started on.
+	 * 
+	 * @param paragraphs
+	 * @param baseUri     Site the paragraphs came from, e.g. "https://en.wikipedia.org/".
+	 * @return List of absolute URLs, in document order.
+	 */
+	static List<String> internalLinks(Elements paragraphs, String baseUri) {
+      List<String> links = new ArrayList<String>();
+      URL base;
+      try {
+         base = new URL(baseUri);
+      }
+      catch( MalformedURLException e ) {
+         throw new IllegalArgumentException("Bad base URL: " + baseUri, e);
+      }
 
       //Loop through the paragraphs on the Wikipedia page
       for( Element paragraph: paragraphs )
@@ -112,26 +232,40 @@ public class WikiCrawler {
          //Loop through the urls in the paragraph
          for( Element urlNode: urlList ) {
 
-            //Get the html url
+            //Skip links within the page itself
             String hrefURL = urlNode.attr("href");
-
-            //Check if wiki url and add it to the queue
-            if( hrefURL.startsWith(wikiUrl) ) {
-               urlNode.setBaseUri("https://en.wikipedia.org/");
-               String url = urlNode.attr("abs:href");
-               queue.offer(url);
+            if( hrefURL.isEmpty() || hrefURL.startsWith("#") ) {
+               continue;
             }
 
-            //Otherwise if no wiki then still index -- without base wiki url
-            else {
-               String url = urlNode.attr("abs:href");
-               
-               if( !(url.contains("https://en.wikipedia.org/")) ) {
-                  queue.offer(url);
-               }
+            //Resolve relative links against the site, and keep only
+            //wiki pages on the same host
+            urlNode.setBaseUri(baseUri);
+            String url = urlNode.attr("abs:href");
+            if( sameSite(url, base) ) {
+               links.add(url);
             }
          }
       }
+      return links;
+	}
+
+	/**
+	 * Checks whether a URL is a /wiki/ page on the same host and port as base.
+	 */
+	private static boolean sameSite(String url, URL base) {
+		try {
+			URL u = new URL(url);
+			return u.getHost().equalsIgnoreCase(base.getHost())
+					&& port(u) == port(base)
+					&& u.getPath().startsWith("/wiki/");
+		} catch (MalformedURLException e) {
+			return false;
+		}
+	}
+
+	private static int port(URL url) {
+		return url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
 	}
 
 	public static void main(String[] args) throws IOException {
@@ -139,6 +273,7 @@ public class WikiCrawler {
 		// make a WikiCrawler
 		Jedis jedis = JedisMaker.make();
 		JedisIndex index = new JedisIndex(jedis); 
+		index.setDuplicateDetector(new DuplicateDetector());
 
       //String source = "https://en.wikipedia.org/wiki/Java_(programming_language)";
       index.deleteTermCounters();
@@ -158,12 +293,13 @@ public class WikiCrawler {
          
          if( res != null ) {
             count++;
+            if( count % 1000 == 0 ) {
+               System.out.print(Metrics.global().dump());
+            }
          }
-         
-         if( count % 1000 == 0 ) {
-            System.out.println(count);
-         }
-            // REMOVE THIS BREAK STATEMENT WHEN crawl() IS WORKING
 		} while (count < 10000);
+
+		// save the links for PageRank
+		wc.getLinkGraph().save(new File("linkgraph.bin"));
 	}
 }
@@ -1,42 +1,81 @@
 package com.flatironschool.javacs;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
-import org.jsoup.Connection;
+import org.jsoup.HttpStatusException;
 import org.jsoup.Jsoup;
+import org.jsoup.UnsupportedMimeTypeException;
+import org.jsoup.helper.DataUtil;
 import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 
 
+/**
+ * Downloads and parses pages.
+ *
+ * Downloads have connect and read timeouts, and a download that fails
+ * in a way that might not happen again (a timeout, a dropped connection,
+ * a 5xx or 429 response) is retried a few times, waiting a random part
+ * of an exponentially growing delay between tries, so fetchers that
+ * failed together don't retry together.  Failures are reported to a
+ * HostCircuitBreaker, which parks a host that keeps failing so the crawl
+ * doesn't spend its time waiting on it.
+ *
+ * Every request, including retries and redirects, waits its turn with a
+ * HostRateLimiter.  By default all fetchers share one, so a host gets at
+ * most one request a second however many fetchers there are.
+ *
+ */
 public class WikiFetcher {
-	private long lastRequestTime = -1;
-	private long minInterval = 1000;
+	private static final Metrics.Histogram DOWNLOAD_TIME = Metrics.global().timer("fetch.download");
+	private static final Metrics.Histogram DOWNLOAD_BYTES = Metrics.global().histogram("fetch.bytes");
+	private static final Metrics.Counter DOWNLOAD_ERRORS = Metrics.global().counter("fetch.errors");
+	private static final Metrics.Counter RETRIES = Metrics.global().counter("fetch.retries");
+	private static final Metrics.Histogram PARSE_TIME = Metrics.global().timer("fetch.parse");
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int MAX_REDIRECTS = 10;
+	private static final int META_SNIFF_BYTES = 4096;
+
+	private int connectTimeout = 10000;
+	private int readTimeout = 30000;
+	private int maxRetries = 3;
+	private long baseBackoff = 500;
+	private long maxBackoff = 10000;
+	private HostCircuitBreaker breaker = HostCircuitBreaker.global();
+	private HostRateLimiter limiter = HostRateLimiter.global();
+	private final Random random = new Random();
 
 	/**
 	 * Fetches and parses a URL string, returning a list of paragraph elements.
 	 *
 	 * @param url
-	 * @return
-	 * @throws IOException
+	 * @return The paragraphs, or null if the page couldn't be fetched.
+	 * @throws HostCircuitBreaker.OpenException if the host is parked.
 	 */
 	public Elements fetchWikipedia(String url) throws IOException {
-		sleepIfNeeded();
       Elements paras;
 
       try {
 		   // download and parse the document
-		   Connection conn = Jsoup.connect(url);
-		   Document doc = conn.get();
-
-		   // select the content text and pull out the paragraphs.
-		   Elements content = doc.getElementsByTag("p");
-
-		   // TODO: avoid selecting paragraphs from sidebars and boxouts
-		   paras = content.select("p");
+		   paras = parse(download(url), url);
+      }
+      catch( HostCircuitBreaker.OpenException e ) {
+         // not the page's fault; the caller may want to try it later
+         throw e;
       }
       catch( Exception e ) {
          return null;
@@ -45,6 +84,203 @@ public class WikiFetcher {
 		return paras;
 	}
 
+	/**
+	 * Downloads a URL and returns the raw HTML, without parsing it.
+	 *
+	 * Unlike fetchWikipedia, this does not swallow errors, so callers that
+	 * run their own fetch threads can decide what to do with a failure.
+	 * Transient failures are retried first.
+	 *
+	 * @param url
+	 * @return
+	 * @throws HostCircuitBreaker.OpenException if the host is parked.
+	 * @throws IOException if the last try failed.
+	 */
+	public String download(String url) throws IOException {
+		String host = new URL(url).getHost();
+		for (int attempt = 0; ; attempt++) {
+			if (!breaker.allow(host)) {
+				throw new HostCircuitBreaker.OpenException(host,
+						breaker.retryAfter(host, TimeUnit.NANOSECONDS));
+			}
+			long start = System.nanoTime();
+			boolean transientFailure = false;
+			try {
+				String body = downloadOnce(url);
+				DOWNLOAD_BYTES.record(body.length());
+				return body;
+			} catch (IOException e) {
+				DOWNLOAD_ERRORS.increment();
+				transientFailure = isTransient(e);
+				if (!transientFailure || attempt >= maxRetries) {
+					throw e;
+				}
+			} finally {
+				DOWNLOAD_TIME.recordSince(start);
+				// a 404 means the host is fine
+				if (transientFailure) {
+					breaker.failure(host);
+				} else {
+					breaker.success(host);
+				}
+			}
+			RETRIES.increment();
+			backoff(attempt);
+		}
+	}
+
+	/**
+	 * Makes one request, with the timeouts, and reads the whole response.
+	 *
+	 * Redirects are followed here, up to MAX_REDIRECTS, because
+	 * HttpURLConnection won't follow one from http to https.
+	 */
+	private String downloadOnce(String url) throws IOException {
+		URL target = new URL(url);
+		HttpURLConnection conn;
+		int status;
+		for (int redirects = 0; ; redirects++) {
+			waitTurn(target.getHost());
+			conn = (HttpURLConnection) target.openConnection();
+			conn.setConnectTimeout(connectTimeout);
+			conn.setReadTimeout(readTimeout);
+			conn.setInstanceFollowRedirects(false);
+			conn.setRequestProperty("Accept-Encoding", "gzip");
+
+			status = conn.getResponseCode();
+			String location = conn.getHeaderField("Location");
+			if (!isRedirect(status) || location == null) {
+				break;
+			}
+			InputStream body = conn.getErrorStream();
+			if (body != null) {
+				body.close();
+			}
+			conn.disconnect();
+			if (redirects >= MAX_REDIRECTS) {
+				throw new HttpStatusException("Too many redirects", status, url);
+			}
+			target = new URL(target, location);
+		}
+		if (status < 200 || status >= 300) {
+			InputStream error = conn.getErrorStream();
+			if (error != null) {
+				error.close();
+			}
+			throw new HttpStatusException("HTTP error fetching URL", status, url);
+		}
+		String contentType = conn.getContentType();
+		if (contentType != null && !contentType.startsWith("text/")
+				&& !contentType.startsWith("application/xhtml+xml")
+				&& !contentType.startsWith("application/xml")) {
+			conn.getInputStream().close();
+			throw new UnsupportedMimeTypeException("Unhandled content type", contentType, url);
+		}
+
+		InputStream in = conn.getInputStream();
+		try {
+			if ("gzip".equalsIgnoreCase(conn.getContentEncoding())) {
+				in = new GZIPInputStream(in);
+			}
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+			byte[] buffer = new byte[16 * 1024];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				bytes.write(buffer, 0, n);
+			}
+			byte[] data = bytes.toByteArray();
+			return new String(data, charset(contentType, data, target.toString()));
+		} finally {
+			in.close();
+		}
+	}
+
+	private void waitTurn(String host) throws InterruptedIOException {
+		try {
+			limiter.acquire(host);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for " + host);
+		}
+	}
+
+	private static boolean isRedirect(int status) {
+		return status == 301 || status == 302 || status == 303 || status == 307 || status == 308;
+	}
+
+	/**
+	 * Returns the charset named in a Content-Type header; failing that,
+	 * the one jsoup finds in a <meta> tag at the start of the page, or UTF-8.
+	 */
+	private static Charset charset(String contentType, byte[] data, String url) {
+		if (contentType != null) {
+			int i = contentType.toLowerCase().indexOf("charset=");
+			if (i >= 0) {
+				String name = contentType.substring(i + 8).split(";")[0].trim().replace("\"", "");
+				try {
+					return Charset.forName(name);
+				} catch (IllegalArgumentException e) {
+					// unknown charset; fall through
+				}
+			}
+		}
+		// browsers look for the <meta> in the first 1024 bytes; give jsoup a little more
+		try {
+			InputStream head = new ByteArrayInputStream(data, 0, Math.min(data.length, META_SNIFF_BYTES));
+			Charset detected = DataUtil.load(head, null, url).charset();
+			if (detected != null) {
+				return detected;
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			// unknown charset; fall through
+		}
+		return UTF8;
+	}
+
+	/**
+	 * Returns true for failures that might not happen on the next try.
+	 */
+	private static boolean isTransient(IOException e) {
+		if (e instanceof HttpStatusException) {
+			int status = ((HttpStatusException) e).getStatusCode();
+			return status >= 500 || status == 429 || status == 408;
+		}
+		return !(e instanceof MalformedURLException || e instanceof UnsupportedMimeTypeException);
+	}
+
+	/**
+	 * Waits before retry number `attempt` + 1: a random time between half
+	 * and all of baseBackoff * 2^attempt, capped at maxBackoff.
+	 */
+	private void backoff(int attempt) throws InterruptedIOException {
+		long cap = Math.min(maxBackoff, baseBackoff << Math.min(attempt, 30));
+		long millis = cap / 2 + (long) (random.nextDouble() * (cap - cap / 2));
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to retry");
+		}
+	}
+
+	/**
+	 * Parses the HTML of a page and returns its paragraph elements.
+	 *
+	 * @param html
+	 * @param url   Base URI used to resolve relative links.
+	 * @return
+	 */
+	public Elements parse(String html, String url) {
+		long start = System.nanoTime();
+		Document doc = Jsoup.parse(html, url);
+
+		// select the content text and pull out the paragraphs,
+		// leaving out sidebars and boxouts
+		Elements paragraphs = ContentExtractor.paragraphs(doc);
+		PARSE_TIME.recordSince(start);
+		return paragraphs;
+	}
+
 	/**
 	 * Reads the contents of a Wikipedia page from src/resources.
 	 *
@@ -63,28 +299,60 @@ public class WikiFetcher {
 		InputStream stream = WikiFetcher.class.getClassLoader().getResourceAsStream(filename);
 		Document doc = Jsoup.parse(stream, "UTF-8", filename);
 
-		// TODO: factor out the following repeated code
-		Element content = doc.getElementById("mw-content-text");
-		Elements paras = content.select("p");
-		return paras;
+		return ContentExtractor.paragraphs(doc);
+	}
+
+	/**
+	 * Sets the timeouts of each request.
+	 *
+	 * @param connectMillis  For opening the connection.
+	 * @param readMillis     For each read of the response.
+	 */
+	public void setTimeouts(int connectMillis, int readMillis) {
+		this.connectTimeout = connectMillis;
+		this.readTimeout = readMillis;
 	}
 
 	/**
-	 * Rate limits by waiting at least the minimum interval between requests.
+	 * Sets how failed downloads are retried.
+	 *
+	 * @param maxRetries         Retries after the first try; 0 turns retrying off.
+	 * @param baseBackoffMillis  Most time before the first retry; doubles each time.
+	 * @param maxBackoffMillis   Most time before any retry.
 	 */
-	private void sleepIfNeeded() {
-		if (lastRequestTime != -1) {
-			long currentTime = System.currentTimeMillis();
-			long nextRequestTime = lastRequestTime + minInterval;
-			if (currentTime < nextRequestTime) {
-				try {
-					//System.out.println("Sleeping until " + nextRequestTime);
-					Thread.sleep(nextRequestTime - currentTime);
-				} catch (InterruptedException e) {
-					System.err.println("Warning: sleep interrupted in fetchWikipedia.");
-				}
-			}
-		}
-		lastRequestTime = System.currentTimeMillis();
+	public void setRetries(int maxRetries, long baseBackoffMillis, long maxBackoffMillis) {
+		this.maxRetries = maxRetries;
+		this.baseBackoff = baseBackoffMillis;
+		this.maxBackoff = maxBackoffMillis;
+	}
+
+	/**
+	 * Sets the breaker failures are reported to; the default is shared by
+	 * every fetcher.
+	 *
+	 * @param breaker
+	 */
+	public void setCircuitBreaker(HostCircuitBreaker breaker) {
+		this.breaker = breaker;
+	}
+
+	/**
+	 * Sets the limiter requests wait for; the default is shared by every
+	 * fetcher.
+	 *
+	 * @param limiter
+	 */
+	public void setRateLimiter(HostRateLimiter limiter) {
+		this.limiter = limiter;
+	}
+
+	/**
+	 * Gives this fetcher a limiter of its own, with a minimum time between
+	 * requests to each host.
+	 *
+	 * @param millis  Milliseconds; 0 turns rate limiting off.
+	 */
+	public void setMinInterval(long millis) {
+		this.limiter = new HostRateLimiter(millis, TimeUnit.MILLISECONDS);
 	}
 }
@@ -4,11 +4,8 @@
 package com.flatironschool.javacs;
 
 import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Deque;
 import java.util.Iterator;
-import java.util.List;
 import java.util.NoSuchElementException;
 
 import org.jsoup.nodes.Node;
@@ -17,11 +14,29 @@ import org.jsoup.nodes.Node;
 /**
  * Performs a depth-first traversal of a jsoup Node.
  * 
+ * Children are pushed onto the stack by index, so the traversal doesn't
+ * copy any child lists.  Use traverse() with a Visitor to skip whole
+ * subtrees, such as infoboxes, without visiting them.
+ * 
  * @author downey
  *
  */
 public class WikiNodeIterable implements Iterable<Node> {
 
+	/**
+	 * Called for each Node in a traversal.
+	 */
+	public interface Visitor {
+
+		/**
+		 * Visits a Node.
+		 * 
+		 * @param node
+		 * @return false to skip the children of this Node.
+		 */
+		boolean visit(Node node);
+	}
+
 	private Node root;
 
 	/**
@@ -37,6 +52,33 @@ public class WikiNodeIterable implements Iterable<Node> {
 	public Iterator<Node> iterator() {
 		return new WikiNodeIterator(root);
 	}
+
+	/**
+	 * Visits the Nodes under `root` in depth-first order.
+	 * 
+	 * @param root
+	 * @param visitor
+	 */
+	public static void traverse(Node root, Visitor visitor) {
+		Deque<Node> stack = new ArrayDeque<Node>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			Node node = stack.pop();
+			if (visitor.visit(node)) {
+				pushChildren(stack, node);
+			}
+		}
+	}
+
+	/**
+	 * Pushes the children of a Node in reverse order, so the first child
+	 * is popped first.
+	 */
+	private static void pushChildren(Deque<Node> stack, Node node) {
+		for (int i=node.childNodeSize()-1; i>=0; i--) {
+			stack.push(node.childNode(i));
+		}
+	}
 	
 	/**
 	 * Inner class that implements the Iterator.
@@ -76,11 +118,7 @@ public class WikiNodeIterable implements Iterable<Node> {
 			//System.out.println(node);
 
 			// push the children onto the stack in reverse order
-			List<Node> nodes = new ArrayList<Node>(node.childNodes());
-			Collections.reverse(nodes);
-			for (Node child: nodes) {
-				stack.push(child);
-			}
+			pushChildren(stack, node);
 			return node;
 		}
 		
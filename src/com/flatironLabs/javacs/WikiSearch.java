@@ -10,6 +10,7 @@ import java.util.Set;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.lang.Math;
+import java.util.AbstractMap.SimpleEntry;
 
 import java.util.concurrent.TimeUnit;
 import org.jsoup.Connection;
@@ -27,9 +28,20 @@ import java.util.*;
 public class WikiSearch {
 
    private static double totalPages = 10000;
+
+   // how much the static rank of a page counts next to its relevance
+   private static double staticRankWeight = 0.05;
 	
 	// map from URLs that contain the term(s) to relevance score
 	private Map<String, Double> map;
+
+	// query-independent page ranks, or null to rank by relevance alone
+	private StaticRank staticRank;
+
+	private static final Metrics.Histogram QUERY_TIME = Metrics.global().timer("query.latency");
+	private static final Metrics.Histogram QUERY_RESULTS = Metrics.global().histogram("query.results");
+	private static final Metrics.Histogram TERM_RESULTS = Metrics.global().histogram("query.termResults");
+
 	/**
 	 * Constructor.
 	 * 
@@ -50,6 +62,15 @@ public class WikiSearch {
 		return relevance==null ? 0: relevance;
 	}
 
+	/**
+	 * Blends a static rank, such as PageRank, into the printed results.
+	 * 
+	 * @param staticRank  The ranks, or null to rank by relevance alone.
+	 */
+	public void setStaticRank(StaticRank staticRank) {
+		this.staticRank = staticRank;
+	}
+
    /**
     * Looks up the title of the given url and prints
     *
@@ -81,6 +102,9 @@ public class WikiSearch {
 	 */
 	private void print(boolean fullResult) throws IOException, InterruptedException {
     
+      QueryTrace trace = QueryTrace.current();
+      long start = System.nanoTime();
+
       //Get the list of entries and the size (# of urls with term
 		List<Entry<String, Double>> entries = sort();
       double termPages = entries.size();
@@ -93,27 +117,50 @@ public class WikiSearch {
          entries.get(index).setValue(entries.get(index).getValue() * iDF );
       }
 
-      //Sort the new list
-		List<Entry<String, Double>> entriesIDF = sort();
+      //Rank the new list, highest ranking first
+      List<Entry<String, Double>> entriesIDF;
+      if( staticRank != null ) {
+         entriesIDF = topK(fullResult ? map.size() : 21, staticRank, staticRankWeight);
+      }
+      else {
+         entriesIDF = sort();
+         Collections.reverse(entriesIDF);
+      }
+      if( trace != null ) {
+         trace.phase("rank", start);
+      }
       
       int count = 1;
-      //Print out in reverse order (highest ranking first)
-		for (int index = entriesIDF.size() - 1; index >= 0; index-- ) {
+		for (Entry<String, Double> entry: entriesIDF) {
         
-         readTitle(entriesIDF.get(index).getKey());
+         start = System.nanoTime();
+         readTitle(entry.getKey());
+         if( trace != null ) {
+            trace.phase("title " + entry.getKey(), start);
+         }
          
          //Print the url and add it to the list of already indexed terms
-			System.out.println(entriesIDF.get(index).getKey());
+			System.out.println(entry.getKey());
 
 			// print tag
-         writeTagLine(entriesIDF.get(index).getKey());
+         start = System.nanoTime();
+         writeTagLine(entry.getKey());
+         if( trace != null ) {
+            trace.phase("tagline " + entry.getKey(), start);
+         }
          
          if( count > 20 && fullResult == false ) {
             return;
          }
          
          count++;
+
+         // pause between requests to Wikipedia; not part of the query time
+         start = System.nanoTime();
          Thread.sleep(500);
+         if( trace != null ) {
+            trace.idle(start);
+         }
 		}
 	}
 	
@@ -238,6 +285,102 @@ public class WikiSearch {
 		return sortedEntry;
 	}
 
+	/**
+	 * Returns the k best results, scoring each as its relevance plus
+	 * `weight` times its static rank.
+	 * 
+	 * Results are visited in order of static rank, and the scan stops once
+	 * the best relevance plus the static rank of the next page can't beat
+	 * the k-th best score so far.
+	 * 
+	 * @param k
+	 * @param ranks
+	 * @param weight
+	 * @return List of entries with URL and blended score, highest first.
+	 */
+	public List<Entry<String, Double>> topK(int k, StaticRank ranks, double weight) {
+		List<Entry<String, Double>> result = new ArrayList<Entry<String, Double>>();
+		if (k <= 0 || map.isEmpty()) {
+			return result;
+		}
+
+		double maxRelevance = Double.NEGATIVE_INFINITY;
+		for (double relevance: map.values()) {
+			maxRelevance = Math.max(maxRelevance, relevance);
+		}
+
+		PriorityQueue<Entry<String, Double>> heap =
+				new PriorityQueue<Entry<String, Double>>(k, SCORE_ORDER);
+
+		if ((long) map.size() * 4 >= ranks.size()) {
+			// most ranked pages are results, so walk the global rank order
+			for (String url: ranks.descending()) {
+				Double relevance = map.get(url);
+				if (relevance == null) {
+					continue;
+				}
+				double rank = ranks.get(url);
+				if (heap.size() == k && maxRelevance + weight * rank <= heap.peek().getValue()) {
+					break;
+				}
+				offer(heap, k, url, relevance + weight * rank);
+			}
+		} else {
+			// few results, so sort just them by rank
+			String[] urls = map.keySet().toArray(new String[0]);
+			final StaticRank r = ranks;
+			Arrays.sort(urls, new Comparator<String>() {
+				@Override
+				public int compare(String url1, String url2) {
+					return Double.compare(r.get(url2), r.get(url1));
+				}
+			});
+			for (String url: urls) {
+				double rank = ranks.get(url);
+				if (heap.size() == k && maxRelevance + weight * rank <= heap.peek().getValue()) {
+					break;
+				}
+				if (ranks.contains(url)) {
+					offer(heap, k, url, getRelevance(url) + weight * rank);
+				}
+			}
+		}
+
+		// pages with no static rank at all
+		if (heap.size() < k || maxRelevance > heap.peek().getValue()) {
+			for (Entry<String, Double> entry: map.entrySet()) {
+				if (!ranks.contains(entry.getKey())) {
+					offer(heap, k, entry.getKey(), entry.getValue());
+				}
+			}
+		}
+
+		result.addAll(heap);
+		Collections.sort(result, Collections.reverseOrder(SCORE_ORDER));
+		return result;
+	}
+
+	private static final Comparator<Entry<String, Double>> SCORE_ORDER =
+			new Comparator<Entry<String, Double>>() {
+		@Override
+		public int compare(Entry<String, Double> e1, Entry<String, Double> e2) {
+			return Double.compare(e1.getValue(), e2.getValue());
+		}
+	};
+
+	/**
+	 * Adds a result to a bounded min-heap, evicting the worst if it is full.
+	 */
+	private static void offer(PriorityQueue<Entry<String, Double>> heap, int k,
+			String url, double score) {
+		if (heap.size() < k) {
+			heap.add(new SimpleEntry<String, Double>(url, score));
+		} else if (score > heap.peek().getValue()) {
+			heap.poll();
+			heap.add(new SimpleEntry<String, Double>(url, score));
+		}
+	}
+
 	/**
 	 * Performs a search and makes a WikiSearch object.
 	 * 
@@ -245,68 +388,104 @@ public class WikiSearch {
 	 * @param index
 	 * @return
 	 */
-	public static WikiSearch search(String term, JedisIndex index) {
+	public static WikiSearch search(String term, SearchIndex index) {
+		long start = System.nanoTime();
 		Map<String, Double> map = index.getCounts(term);
+		TERM_RESULTS.record(map.size());
+		QueryTrace trace = QueryTrace.current();
+		if (trace != null) {
+			trace.phase("lookup " + term, start);
+			trace.size("results for " + term, map.size());
+		}
 		return new WikiSearch(map);
 	}
 
 
-	public static WikiSearch searchTerms(String term, JedisIndex index) {
-		WikiSearch search = search(term, index);
-
-		int searchIndex;
-		String term1;
-		String term2;
-
-      //Or check
-		if (term.contains(" or ")) {
-			searchIndex = term.indexOf(" or ");
-			term1 = term.substring(0, searchIndex);
-			term2 = term.substring(searchIndex + 4);
-			search = search.or(search(term1, index));
-			search = search.or(search(term2, index));
+	/**
+	 * Parses a query and computes its results.
+	 * 
+	 * The query goes through the same Analyzer as the pages did, so its
+	 * terms match the terms in the index.  All the terms are looked up
+	 * together, so a sharded index can ask its shards in parallel.
+	 * 
+	 * @param term   The query, e.g. "java and programming".
+	 * @param index
+	 * @return
+	 */
+	public static WikiSearch searchTerms(String term, SearchIndex index) {
+		long start = System.nanoTime();
+
+		// null unless tracing is on and no caller is tracing already
+		QueryTrace ours = QueryTrace.begin(term);
+		try {
+			QueryTrace trace = QueryTrace.current();
+
+			Query query = Query.parse(term);
+			long lookupStart = System.nanoTime();
+			if (trace != null) {
+				trace.phase("parse " + query, start);
+			}
+			final Map<String, Map<String, Double>> counts = index.getCounts(query.terms());
+			long evaluateStart = System.nanoTime();
+			if (trace != null) {
+				trace.phase("lookup " + counts.keySet(), lookupStart);
+			}
+			WikiSearch results = query.evaluate(new Query.TermLookup() {
+				@Override
+				public WikiSearch search(String t) {
+					Map<String, Double> map = counts.get(t);
+					TERM_RESULTS.record(map.size());
+					QueryTrace trace = QueryTrace.current();
+					if (trace != null) {
+						trace.size("results for " + t, map.size());
+					}
+					return new WikiSearch(map);
+				}
+			});
+			if (trace != null) {
+				trace.phase("evaluate", evaluateStart);
+				trace.size("results", results.map.size());
+			}
+
+			long nanos = System.nanoTime() - start;
+			QUERY_RESULTS.record(results.map.size());
+			QUERY_TIME.record(nanos);
+			if (ours == null && trace == null) {
+				SlowQueryLog.global().offer(term, nanos, results.map.size());
+			}
+			return results;
+		} finally {
+			// a query that failed is still finished, so the thread can trace again
+			if (ours != null) {
+				ours.finish();
+			}
 		}
+	}
 
-      //And check
-		else if (term.contains(" and ")) {
-			searchIndex = term.indexOf(" and ");
-			term1 = term.substring(0, searchIndex);
-			term2 = term.substring(searchIndex + 5);
-			search = search.or(search(term1, index));
-			search = search.and(search(term2, index));
+	/**
+	 * Suggests a corrected query: each term that isn't in the index is
+	 * replaced by the closest term that is.
+	 * 
+	 * @param term      The query, e.g. "jvaa and programing".
+	 * @param spelling
+	 * @return The corrected query, or null if no term needs correcting or
+	 *         none could be corrected.
+	 */
+	public static Query didYouMean(String term, SpellingIndex spelling) {
+		long start = System.nanoTime();
+		Query query = Query.parse(term);
+		Map<String, String> corrections = new HashMap<String, String>();
+		for (String t: query.terms()) {
+			String correction = spelling.correct(t);
+			if (correction != null && !correction.equals(t)) {
+				corrections.put(t, correction);
+			}
 		}
-
-      //Minus check
-		else if (term.contains(" minus ")) {
-			searchIndex = term.indexOf(" minus ");
-			term1 = term.substring(0, searchIndex);
-			term2 = term.substring(searchIndex + 7);
-			search = search.or(search(term1, index));
-			search = search.minus(search(term2, index));
+		QueryTrace trace = QueryTrace.current();
+		if (trace != null) {
+			trace.phase("spelling " + corrections, start);
 		}
-
-      else {
-         //Split the term up into an array of words
-         String[] splitTerm = term.split(" ");
-
-         //Intersection of the searchs
-         WikiSearch sentenceIntersect = search(splitTerm[0], index);
-
-         //Union of the searches
-         WikiSearch sentenceUnion = search(splitTerm[0], index);
-      
-         //Loop through the terms in the array and modify the search union and
-         //intersection
-         for( int itera = 1; itera < splitTerm.length; itera++ ) {
-            sentenceIntersect = sentenceIntersect.and(search(splitTerm[itera], index));
-            sentenceUnion = sentenceUnion.or(search(splitTerm[itera], index));
-         }
-
-         //Add results to the array and return
-         search = search.or(sentenceIntersect);
-         search = search.or(sentenceUnion);
-      } 
-		return search;
+		return corrections.isEmpty() ? null : query.rewrite(corrections);
 	}
 
 	public static void main(String[] args) throws IOException, InterruptedException {
@@ -314,6 +493,9 @@ public class WikiSearch {
 		// make a JedisIndex
 		Jedis jedis = JedisMaker.make();
 		JedisIndex index = new JedisIndex(jedis);
+      StaticRank ranks = index.getStaticRanks();
+      SpellingIndex spelling = new SpellingIndex();
+      spelling.addAll(index.documentFrequencies());
       String term1;
 		Scanner keyboard = new Scanner(System.in);
 		
@@ -327,11 +509,28 @@ public class WikiSearch {
 
 		  // Accounting for lone terms, intersection, union, and minus
 		  System.out.println("\nQuery: " + term1);
-        WikiSearch search = searchTerms(term1,index);
-		  //ArrayList<WikiSearch> alltheseterms = searchTerms(term1, index);
-		  //for (WikiSearch search: alltheseterms) {
-			  search.print(false);
-		  //}
+        QueryTrace trace = QueryTrace.begin(term1);
+        try {
+           WikiSearch search = searchTerms(term1,index);
+           if( ranks.size() > 0 ) {
+              search.setStaticRank(ranks);
+           }
+		     //ArrayList<WikiSearch> alltheseterms = searchTerms(term1, index);
+		     //for (WikiSearch search: alltheseterms) {
+			     search.print(false);
+		     //}
+           if( search.map.isEmpty() ) {
+              Query suggestion = didYouMean(term1, spelling);
+              if( suggestion != null ) {
+                 System.out.println("Did you mean: " + suggestion.getText() + "?");
+              }
+           }
+        }
+        finally {
+           if( trace != null ) {
+              trace.finish();
+           }
+        }
 
         //Prompt for new input
         System.out.println("\nEnter search term: ");
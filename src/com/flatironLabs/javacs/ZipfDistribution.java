@@ -0,0 +1,73 @@
+package com.flatironschool.javacs;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Draws ranks 1..n with probability proportional to 1/rank^s, the way
+ * word and query frequencies fall off.
+ *
+ * The cumulative distribution is computed once, so each sample is a
+ * binary search.
+ *
+ */
+public class ZipfDistribution {
+
+	private final double[] cdf;
+	private final double exponent;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param n         Number of ranks.
+	 * @param exponent  Usually close to 1; larger means more skewed.
+	 */
+	public ZipfDistribution(int n, double exponent) {
+		if (n < 1 || exponent < 0) {
+			throw new IllegalArgumentException("n " + n + ", exponent " + exponent);
+		}
+		this.exponent = exponent;
+		cdf = new double[n];
+		double sum = 0;
+		for (int i=0; i<n; i++) {
+			sum += 1 / Math.pow(i + 1, exponent);
+			cdf[i] = sum;
+		}
+		for (int i=0; i<n; i++) {
+			cdf[i] /= sum;
+		}
+	}
+
+	public int size() {
+		return cdf.length;
+	}
+
+	public double getExponent() {
+		return exponent;
+	}
+
+	/**
+	 * Returns the probability of a rank.
+	 *
+	 * @param rank  Between 1 and size().
+	 * @return
+	 */
+	public double probability(int rank) {
+		return rank == 1 ? cdf[0] : cdf[rank - 1] - cdf[rank - 2];
+	}
+
+	/**
+	 * Draws a rank.
+	 *
+	 * @param random
+	 * @return Between 1 and size().
+	 */
+	public int sample(Random random) {
+		int i = Arrays.binarySearch(cdf, random.nextDouble());
+		if (i < 0) {
+			i = -i - 1;
+		}
+		return Math.min(i, cdf.length - 1) + 1;
+	}
+}